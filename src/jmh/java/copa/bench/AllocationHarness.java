@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package copa.bench;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import copa.AlbedoFunction;
+import copa.GeoDistance;
+import copa.GeoHashFunction;
+import copa.GeoHashNeighborFunction;
+import copa.GisParseFunction;
+import copa.RoadSegmentFunction;
+import copa.TreeDistanceFunction;
+import cascading.operation.Function;
+import cascading.tuple.Fields;
+import cascading.tuple.TupleEntry;
+
+/**
+ * Runs each copa Function over synthetic tuples and reports the bytes allocated and the time
+ * taken per input tuple, so allocation regressions in the hot paths are visible:
+ *
+ * <pre>
+ *   gradle allocations -Pallocations.tuples=1000000
+ * </pre>
+ *
+ * Inputs are built ahead of time and cycled, so only the Function's own allocations count,
+ * along with whatever the collector does with each result.
+ */
+public class AllocationHarness
+  {
+  static final int DISTINCT_INPUTS = 1024;
+
+  public static void main( String[] args )
+    {
+    int tuples = args.length > 0 ? Integer.parseInt( args[ 0 ] ) : 1000000;
+    Random random = new Random( 42 );
+
+    System.out.println( String.format( "%-28s %12s %12s %12s", "function", "bytes/tuple", "ns/tuple", "out/tuple" ) );
+
+    run( "AlbedoFunction", new AlbedoFunction( new Fields( "albedo" ), 2002 ), SyntheticInputs.ALBEDO, SyntheticInputs.albedo( random, DISTINCT_INPUTS ), tuples );
+
+    TupleEntry[] pointInputs = SyntheticInputs.points( random, DISTINCT_INPUTS );
+    run( "GeoHashFunction", new GeoHashFunction( new Fields( "geohash" ), 6 ), SyntheticInputs.POINT, pointInputs, tuples );
+    run( "GeoHashFunction (packed)", new GeoHashFunction( new Fields( "geohash" ), 6, true ), SyntheticInputs.POINT, pointInputs, tuples );
+
+    TupleEntry[] segmentInputs = SyntheticInputs.segments( random, DISTINCT_INPUTS );
+    run( "GeoHashNeighborFunction", new GeoHashNeighborFunction( new Fields( "geohash" ), 6, 50.0, false ), SyntheticInputs.SEGMENT, segmentInputs, tuples );
+
+    Fields segmentResults = new Fields( "lat0", "lng0", "alt0", "lat1", "lng1", "alt1", "lat_mid", "lng_mid" );
+    run( "RoadSegmentFunction", new RoadSegmentFunction( segmentResults ), SyntheticInputs.GEO, SyntheticInputs.polylines( random, DISTINCT_INPUTS, 0 ), tuples );
+
+    TupleEntry[] distanceInputs = SyntheticInputs.distances( random, DISTINCT_INPUTS );
+
+    for( GeoDistance.Mode mode : GeoDistance.Mode.values() )
+      run( "TreeDistanceFunction " + mode.name().toLowerCase(), new TreeDistanceFunction( new Fields( "tree_dist" ), mode ), SyntheticInputs.DISTANCE, distanceInputs, tuples );
+
+    run( "GisParseFunction", new GisParseFunction(), SyntheticInputs.LINE, SyntheticInputs.gisLines( random, DISTINCT_INPUTS ), tuples );
+    }
+
+  static void run( String name, Function function, Fields argumentFields, TupleEntry[] inputs, int tuples )
+    {
+    FunctionDriver driver = new FunctionDriver( function, argumentFields );
+
+    // warm up, so the JIT has settled before measuring
+    for( int i = 0; i < Math.min( tuples, 100000 ); i++ )
+      driver.operate( inputs[ i % inputs.length ] );
+
+    long collected = driver.collector.count;
+    long bytes = allocatedBytes();
+    long start = System.nanoTime();
+
+    for( int i = 0; i < tuples; i++ )
+      driver.operate( inputs[ i % inputs.length ] );
+
+    long duration = System.nanoTime() - start;
+    bytes = allocatedBytes() - bytes;
+    collected = driver.collector.count - collected;
+
+    driver.cleanup();
+
+    System.out.println( String.format( "%-28s %12.1f %12.1f %12.2f", name, (double) bytes / tuples, (double) duration / tuples, (double) collected / tuples ) );
+    }
+
+  static long allocatedBytes()
+    {
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    return threads.getThreadAllocatedBytes( Thread.currentThread().getId() );
+    }
+  }
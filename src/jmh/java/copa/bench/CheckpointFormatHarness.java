@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package copa.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import copa.CopaTaps;
+import copa.Main;
+import cascading.flow.FlowProcess;
+import cascading.flow.hadoop.HadoopFlowProcess;
+import cascading.tap.SinkMode;
+import cascading.tap.Tap;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryCollector;
+import cascading.tuple.TupleEntryIterator;
+import org.apache.hadoop.mapred.JobConf;
+
+/**
+ * Writes synthetic shade rows through each checkpoint format {@link Main#checkpointTap} offers,
+ * on the local Hadoop file system, and reports the bytes written and the time to write them and
+ * to read them back, including the doubles a downstream step would use:
+ *
+ * <pre>
+ *   gradle checkpoints -Pcheckpoints.rows=1000000
+ * </pre>
+ */
+public class CheckpointFormatHarness
+  {
+  static final int READS = 3;
+
+  public static void main( String[] args ) throws IOException
+    {
+    int rows = args.length > 0 ? Integer.parseInt( args[ 0 ] ) : 200000;
+    Tuple[] shade = SyntheticInputs.shadeRows( new Random( 42 ), rows );
+    File directory = new File( System.getProperty( "java.io.tmpdir" ), "copa-checkpoints-" + System.nanoTime() );
+
+    System.out.println( String.format( "%-10s %14s %12s %14s %14s", "format", "bytes/row", "total MB", "write ns/row", "read ns/row" ) );
+
+    run( "text", false, shade, new File( directory, "text" ) );
+    run( "sequence", true, shade, new File( directory, "sequence" ) );
+    }
+
+  static void run( String name, boolean binary, Tuple[] rows, File path ) throws IOException
+    {
+    FlowProcess flowProcess = new HadoopFlowProcess( new JobConf() );
+    Tap tap = CopaTaps.checkpointTap( false, binary, SyntheticInputs.SHADE, path.getAbsolutePath(), SinkMode.REPLACE );
+
+    long start = System.nanoTime();
+    TupleEntryCollector collector = tap.openForWrite( flowProcess );
+
+    try
+      {
+      for( Tuple row : rows )
+        collector.add( row );
+      }
+    finally
+      {
+      collector.close();
+      }
+
+    long write = System.nanoTime() - start;
+    long read = Long.MAX_VALUE;
+    double checksum = 0.0;
+
+    // the best of a few reads, as the first also warms the page cache and the JIT
+    for( int i = 0; i < READS; i++ )
+      {
+      start = System.nanoTime();
+      TupleEntryIterator iterator = flowProcess.openTapForRead( tap );
+
+      try
+        {
+        while( iterator.hasNext() )
+          {
+          TupleEntry entry = iterator.next();
+          checksum += entry.getDouble( "tree_dist" ) + entry.getDouble( "tree_lat" ) + entry.getDouble( "lat0" );
+          }
+        }
+      finally
+        {
+        iterator.close();
+        }
+
+      read = Math.min( read, System.nanoTime() - start );
+      }
+
+    long bytes = bytes( path );
+    delete( path );
+
+    if( Double.isNaN( checksum ) )
+      System.out.println( "unexpected NaN in " + name );
+
+    System.out.println( String.format( "%-10s %14.1f %12.1f %14.1f %14.1f", name, (double) bytes / rows.length, bytes / 1e6,
+      (double) write / rows.length, (double) read / rows.length ) );
+    }
+
+  // the part files only, leaving out the .crc side files and _SUCCESS markers
+  static long bytes( File path )
+    {
+    if( path.isFile() )
+      return path.getName().startsWith( "." ) || path.getName().startsWith( "_" ) ? 0 : path.length();
+
+    long bytes = 0;
+    File[] children = path.listFiles();
+
+    if( children != null )
+      {
+      for( File child : children )
+        bytes += bytes( child );
+      }
+
+    return bytes;
+    }
+
+  static void delete( File path )
+    {
+    File[] children = path.listFiles();
+
+    if( children != null )
+      {
+      for( File child : children )
+        delete( child );
+      }
+
+    path.delete();
+    }
+  }
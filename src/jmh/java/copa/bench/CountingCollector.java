@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package copa.bench;
+
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryCollector;
+
+/** Collects nothing but a count and a running hash, so results can't be optimized away. */
+public class CountingCollector extends TupleEntryCollector
+  {
+  public long count = 0;
+  public long hash = 0;
+
+  protected void collect( TupleEntry tupleEntry )
+    {
+    count++;
+    hash += tupleEntry.getTuple().hashCode();
+    }
+  }
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package copa.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import copa.GeoDistance;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per tuple cost of each {@link GeoDistance.Mode}, over tree/segment pairs within a block of
+ * each other around Palo Alto.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class DistanceBenchmark
+  {
+  static final int PAIRS = 1024;
+
+  @Param( { "MIDPOINT", "SEGMENT", "HAVERSINE" } )
+  public GeoDistance.Mode mode;
+
+  double[] lat = new double[ PAIRS ], lng = new double[ PAIRS ];
+  double[] lat0 = new double[ PAIRS ], lng0 = new double[ PAIRS ];
+  double[] lat1 = new double[ PAIRS ], lng1 = new double[ PAIRS ];
+
+  @Setup
+  public void setup()
+    {
+    Random random = new Random( 42 );
+
+    for( int i = 0; i < PAIRS; i++ )
+      {
+      lat0[ i ] = 37.44 + random.nextDouble() * 0.05;
+      lng0[ i ] = -122.15 + random.nextDouble() * 0.05;
+      lat1[ i ] = lat0[ i ] + ( random.nextDouble() - 0.5 ) * 0.002;
+      lng1[ i ] = lng0[ i ] + ( random.nextDouble() - 0.5 ) * 0.002;
+      lat[ i ] = lat0[ i ] + ( random.nextDouble() - 0.5 ) * 0.001;
+      lng[ i ] = lng0[ i ] + ( random.nextDouble() - 0.5 ) * 0.001;
+      }
+    }
+
+  @Benchmark
+  @OperationsPerInvocation( PAIRS )
+  public double distance()
+    {
+    double sum = 0.0;
+
+    for( int i = 0; i < PAIRS; i++ )
+      sum += GeoDistance.distance( mode, lat[ i ], lng[ i ], lat0[ i ], lng0[ i ], lat1[ i ], lng1[ i ] );
+
+    return sum;
+    }
+  }
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package copa.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import copa.AlbedoFunction;
+import copa.GeoDistance;
+import copa.GeoHashFunction;
+import copa.GeoHashNeighborFunction;
+import copa.GisParseFunction;
+import copa.RoadSegmentFunction;
+import copa.TreeDistanceFunction;
+import cascading.tuple.Fields;
+import cascading.tuple.TupleEntry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per tuple cost of each copa Function's operate(), driven outside of a flow by a
+ * {@link FunctionDriver} over a cycle of {@link SyntheticInputs}.
+ * <p>
+ * TreeIndexFunction is left out, as it reads its index from a Tap; {@link ShadeJoinBenchmark}
+ * measures the index itself.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class FunctionBenchmark
+  {
+  static final int INPUTS = 1024;
+
+  /** a prepared Function and the argument entries it cycles through */
+  public static class Driven
+    {
+    FunctionDriver driver;
+    TupleEntry[] inputs;
+    int next = 0;
+
+    void drive( FunctionDriver driver, TupleEntry[] inputs )
+      {
+      this.driver = driver;
+      this.inputs = inputs;
+      }
+
+    long operate()
+      {
+      driver.operate( inputs[ next++ & ( INPUTS - 1 ) ] );
+      return driver.collector.hash;
+      }
+    }
+
+  @State( Scope.Thread )
+  public static class Albedo extends Driven
+    {
+    @Setup
+    public void setup()
+      {
+      drive( new FunctionDriver( new AlbedoFunction( new Fields( "albedo" ), 2002 ), SyntheticInputs.ALBEDO ), SyntheticInputs.albedo( new Random( 42 ), INPUTS ) );
+      }
+    }
+
+  @State( Scope.Thread )
+  public static class GeoHash extends Driven
+    {
+    @Param( { "4", "6", "8", "12" } )
+    public int precision;
+
+    @Param( { "false", "true" } )
+    public boolean packed;
+
+    @Setup
+    public void setup()
+      {
+      drive( new FunctionDriver( new GeoHashFunction( new Fields( "geohash" ), precision, packed ), SyntheticInputs.POINT ), SyntheticInputs.points( new Random( 42 ), INPUTS ) );
+      }
+    }
+
+  @State( Scope.Thread )
+  public static class GeoHashNeighbor extends Driven
+    {
+    @Param( { "5", "6", "7" } )
+    public int precision;
+
+    @Param( { "false", "true" } )
+    public boolean packed;
+
+    @Setup
+    public void setup()
+      {
+      GeoHashNeighborFunction function = new GeoHashNeighborFunction( new Fields( "geohash" ), precision, 50.0, packed );
+      drive( new FunctionDriver( function, SyntheticInputs.SEGMENT ), SyntheticInputs.segments( new Random( 42 ), INPUTS ) );
+      }
+    }
+
+  @State( Scope.Thread )
+  public static class RoadSegment extends Driven
+    {
+    @Param( { "2", "10", "100" } )
+    public int vertices;
+
+    @Setup
+    public void setup()
+      {
+      Fields segmentResults = new Fields( "lat0", "lng0", "alt0", "lat1", "lng1", "alt1", "lat_mid", "lng_mid" );
+      drive( new FunctionDriver( new RoadSegmentFunction( segmentResults ), SyntheticInputs.GEO ), SyntheticInputs.polylines( new Random( 42 ), INPUTS, vertices ) );
+      }
+    }
+
+  @State( Scope.Thread )
+  public static class TreeDistance extends Driven
+    {
+    @Param( { "MIDPOINT", "SEGMENT", "HAVERSINE" } )
+    public GeoDistance.Mode mode;
+
+    @Setup
+    public void setup()
+      {
+      drive( new FunctionDriver( new TreeDistanceFunction( new Fields( "tree_dist" ), mode ), SyntheticInputs.DISTANCE ), SyntheticInputs.distances( new Random( 42 ), INPUTS ) );
+      }
+    }
+
+  @State( Scope.Thread )
+  public static class GisParse extends Driven
+    {
+    @Setup
+    public void setup()
+      {
+      drive( new FunctionDriver( new GisParseFunction(), SyntheticInputs.LINE ), SyntheticInputs.gisLines( new Random( 42 ), INPUTS ) );
+      }
+    }
+
+  @Benchmark
+  public long albedo( Albedo state )
+    {
+    return state.operate();
+    }
+
+  @Benchmark
+  public long geoHash( GeoHash state )
+    {
+    return state.operate();
+    }
+
+  @Benchmark
+  public long geoHashNeighbor( GeoHashNeighbor state )
+    {
+    return state.operate();
+    }
+
+  @Benchmark
+  public long roadSegment( RoadSegment state )
+    {
+    return state.operate();
+    }
+
+  @Benchmark
+  public long treeDistance( TreeDistance state )
+    {
+    return state.operate();
+    }
+
+  @Benchmark
+  public long gisParse( GisParse state )
+    {
+    return state.operate();
+    }
+  }
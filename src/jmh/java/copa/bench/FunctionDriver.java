@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package copa.bench;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.ConcreteCall;
+import cascading.operation.Function;
+import cascading.tuple.Fields;
+import cascading.tuple.TupleEntry;
+
+/**
+ * Drives a {@link Function} outside of a flow: prepares it once, then calls operate() for each
+ * argument entry given, collecting results into a {@link CountingCollector}.
+ */
+public class FunctionDriver<Context>
+  {
+  public final Function<Context> function;
+  public final CountingCollector collector = new CountingCollector();
+  private final ConcreteCall<Context> call;
+
+  public FunctionDriver( Function<Context> function, Fields argumentFields )
+    {
+    this.function = function;
+    this.call = new ConcreteCall<Context>( argumentFields, function.getFieldDeclaration() );
+    this.call.setOutputCollector( collector );
+
+    function.prepare( FlowProcess.NULL, call );
+    }
+
+  public void operate( TupleEntry arguments )
+    {
+    call.setArguments( arguments );
+    function.operate( FlowProcess.NULL, call );
+    }
+
+  public void cleanup()
+    {
+    function.cleanup( FlowProcess.NULL, call );
+    }
+  }
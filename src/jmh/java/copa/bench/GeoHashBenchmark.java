@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package copa.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.spatial.geohash.GeoHashUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per point cost of the {@link GeoHashUtils} encode, decode, neighbor and cover paths. The
+ * String {@link GeoHashUtils#encode(double, double)} always produces 12 characters, so only
+ * the packed encoding and the rest vary with <code>precision</code>.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class GeoHashBenchmark
+  {
+  static final int POINTS = 1024;
+
+  @Param( { "4", "6", "8", "12" } )
+  public int precision;
+
+  double[] lat = new double[ POINTS ], lng = new double[ POINTS ];
+  String[] hashes = new String[ POINTS ];
+  long[] packed = new long[ POINTS ];
+  char[] buffer = new char[ GeoHashUtils.precision_max ];
+  double[] decoded = new double[ 2 * POINTS ];
+  long[] cells = new long[ 64 ];
+
+  @Setup
+  public void setup()
+    {
+    Random random = new Random( 42 );
+
+    for( int i = 0; i < POINTS; i++ )
+      {
+      lat[ i ] = SyntheticInputs.lat( random );
+      lng[ i ] = SyntheticInputs.lng( random );
+      hashes[ i ] = GeoHashUtils.encode( lat[ i ], lng[ i ] ).substring( 0, precision );
+      packed[ i ] = GeoHashUtils.fromBase32( hashes[ i ] );
+      }
+    }
+
+  @Benchmark
+  @OperationsPerInvocation( POINTS )
+  public int encode()
+    {
+    int sum = 0;
+
+    for( int i = 0; i < POINTS; i++ )
+      sum += GeoHashUtils.encode( lat[ i ], lng[ i ] ).length();
+
+    return sum;
+    }
+
+  @Benchmark
+  @OperationsPerInvocation( POINTS )
+  public long encodeLong()
+    {
+    long sum = 0;
+
+    for( int i = 0; i < POINTS; i++ )
+      sum += GeoHashUtils.encodeLong( lat[ i ], lng[ i ], precision );
+
+    return sum;
+    }
+
+  @Benchmark
+  @OperationsPerInvocation( POINTS )
+  public int encodeLongToBase32()
+    {
+    int sum = 0;
+
+    for( int i = 0; i < POINTS; i++ )
+      {
+      GeoHashUtils.toBase32( GeoHashUtils.encodeLong( lat[ i ], lng[ i ], precision ), precision, buffer );
+      sum += buffer[ precision - 1 ];
+      }
+
+    return sum;
+    }
+
+  @Benchmark
+  @OperationsPerInvocation( POINTS )
+  public double decode()
+    {
+    double sum = 0.0;
+
+    for( int i = 0; i < POINTS; i++ )
+      sum += GeoHashUtils.decode( hashes[ i ] )[ 0 ];
+
+    return sum;
+    }
+
+  @Benchmark
+  @OperationsPerInvocation( POINTS )
+  public double decodeExactly()
+    {
+    double sum = 0.0;
+
+    for( int i = 0; i < POINTS; i++ )
+      sum += GeoHashUtils.decode_exactly( hashes[ i ] )[ 2 ];
+
+    return sum;
+    }
+
+  @Benchmark
+  @OperationsPerInvocation( POINTS )
+  public double decodeLong()
+    {
+    double sum = 0.0;
+
+    for( int i = 0; i < POINTS; i++ )
+      {
+      GeoHashUtils.decodeLong( packed[ i ], precision, decoded );
+      sum += decoded[ 0 ];
+      }
+
+    return sum;
+    }
+
+  @Benchmark
+  @OperationsPerInvocation( POINTS )
+  public double decodeLongBatch()
+    {
+    GeoHashUtils.decodeLong( packed, 0, POINTS, precision, decoded );
+    return decoded[ 0 ];
+    }
+
+  @Benchmark
+  @OperationsPerInvocation( POINTS )
+  public long neighbors()
+    {
+    long sum = 0;
+
+    for( int i = 0; i < POINTS; i++ )
+      sum += GeoHashUtils.neighbors( packed[ i ], precision, cells );
+
+    return sum;
+    }
+
+  /** the cells of <code>precision</code> within 100 meters of each point */
+  @Benchmark
+  @OperationsPerInvocation( POINTS )
+  public long coverRadius()
+    {
+    long sum = 0;
+
+    for( int i = 0; i < POINTS; i++ )
+      sum += GeoHashUtils.coverRadius( lat[ i ], lng[ i ], 100.0, precision, cells );
+
+    return sum;
+    }
+  }
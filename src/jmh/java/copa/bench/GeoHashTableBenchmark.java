@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package copa.bench;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import copa.GeoHashTable;
+import org.apache.lucene.spatial.geohash.GeoHashUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per GPS event cost of finding the shade rows in its geohash cell, as ShadeLookupFunction does
+ * with a {@link GeoHashTable}, against a HashMap of boxed Longs to Lists of rows.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class GeoHashTableBenchmark
+  {
+  static final int EVENTS = 1024;
+
+  @Param( { "10000", "100000", "1000000" } )
+  public int rows;
+
+  GeoHashTable table = new GeoHashTable();
+  Map<Long, List<Integer>> map = new HashMap<Long, List<Integer>>();
+  long[] events = new long[ EVENTS ];
+
+  @Setup
+  public void setup()
+    {
+    Random random = new Random( 42 );
+
+    for( int i = 0; i < rows; i++ )
+      {
+      long geohash = GeoHashUtils.encodeLong( SyntheticInputs.lat( random ), SyntheticInputs.lng( random ), 6 );
+      table.add( geohash );
+
+      List<Integer> cell = map.get( geohash );
+
+      if( cell == null )
+        map.put( geohash, cell = new ArrayList<Integer>() );
+
+      cell.add( i );
+      }
+
+    for( int i = 0; i < EVENTS; i++ )
+      events[ i ] = GeoHashUtils.encodeLong( SyntheticInputs.lat( random ), SyntheticInputs.lng( random ), 6 );
+    }
+
+  @Benchmark
+  @OperationsPerInvocation( EVENTS )
+  public long geoHashTable()
+    {
+    long sum = 0;
+
+    for( int i = 0; i < EVENTS; i++ )
+      {
+      int hits = table.query( events[ i ] );
+
+      for( int j = 0; j < hits; j++ )
+        sum += table.getHit( j );
+      }
+
+    return sum;
+    }
+
+  @Benchmark
+  @OperationsPerInvocation( EVENTS )
+  public long hashMap()
+    {
+    long sum = 0;
+
+    for( int i = 0; i < EVENTS; i++ )
+      {
+      List<Integer> cell = map.get( events[ i ] );
+
+      if( cell != null )
+        {
+        for( Integer row : cell )
+          sum += row;
+        }
+      }
+
+    return sum;
+    }
+  }
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package copa.bench;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import copa.GisParseFunction;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing one GIS record with the chain of regular expressions Main used to apply, against
+ * {@link GisParseFunction}. Records are the first of each kind in <code>data/min.csv</code>.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class GisParseBenchmark
+  {
+  static final Pattern GIS = Pattern.compile( "^\"(.*)\",\"(.*)\",\"(.*)\",\"(.*)\"$" );
+  static final Pattern PARK = Pattern.compile( "^\\s+Community Type\\:\\s+Park.*$" );
+  static final Pattern TREE = Pattern.compile( "^\\s+Private\\:\\s+(\\S+)\\s+Tree ID\\:\\s+(\\d+)\\s+.*Situs Number\\:\\s+(\\d+)\\s+Tree Site\\:\\s+(\\d+)\\s+Species\\:\\s+(\\S.*\\S)\\s+Source.*$" );
+  static final Pattern ROAD = Pattern.compile( "^\\s+Sequence\\:.*\\s+Year Constructed\\:\\s+(\\d+)\\s+Traffic Count\\:\\s+(\\d+)\\s+Traffic Index\\:\\s+(\\w.*\\w)\\s+Traffic Class\\:\\s+(\\w.*\\w)\\s+Traffic Date.*\\s+Paving Length\\:\\s+(\\d+)\\s+Paving Width\\:\\s+(\\d+)\\s+Paving Area\\:\\s+(\\d+)\\s+Surface Type\\:\\s+(\\w.*\\w)\\s+Surface Thickness.*\\s+Bike Lane\\:\\s+(\\w+)\\s+Bus Route\\:\\s+(\\w+)\\s+Truck Route\\:\\s+(\\w+)\\s+Remediation.*$" );
+  static final Pattern SPECIES = Pattern.compile( "^([\\w\\s]+).*$" );
+  static final Pattern POINT = Pattern.compile( "^(\\S+),(\\S+),(\\S+)\\s*$" );
+
+  @Param( { "park", "tree", "road" } )
+  public String kind;
+
+  String line;
+  TupleEntry arguments;
+  FunctionDriver driver;
+
+  @Setup
+  public void setup() throws IOException
+    {
+    BufferedReader reader = new BufferedReader( new FileReader( "data/min.csv" ) );
+
+    try
+      {
+      String prefix = kind.equals( "park" ) ? "Community Type:" : kind.equals( "tree" ) ? "Private:" : "Sequence:";
+
+      while( ( line = reader.readLine() ) != null )
+        {
+        if( line.startsWith( "\",\"   " + prefix, line.indexOf( "\",\"" ) ) )
+          break;
+        }
+      }
+    finally
+      {
+      reader.close();
+      }
+
+    if( line == null )
+      throw new IllegalStateException( "no " + kind + " record in data/min.csv" );
+
+    arguments = new TupleEntry( new Fields( "line" ), new Tuple( line ) );
+    driver = new FunctionDriver( new GisParseFunction(), new Fields( "line" ) );
+    }
+
+  /** each branch of the old pipe assembly ran its filters against every record */
+  @Benchmark
+  public int regexChain()
+    {
+    Matcher gis = GIS.matcher( line );
+
+    if( !gis.matches() )
+      return 0;
+
+    String misc = gis.group( 2 );
+    int found = 0;
+
+    if( PARK.matcher( misc ).matches() )
+      found += gis.group( 1 ).length();
+
+    if( TREE.matcher( misc ).matches() )
+      {
+      Matcher tree = TREE.matcher( misc );
+      tree.matches();
+
+      Matcher species = SPECIES.matcher( tree.group( 5 ) );
+      species.matches();
+      found += species.group( 1 ).trim().toLowerCase().length();
+
+      Matcher point = POINT.matcher( gis.group( 3 ) );
+      point.matches();
+      found += point.group( 1 ).length();
+      }
+
+    if( ROAD.matcher( misc ).matches() )
+      {
+      Matcher road = ROAD.matcher( misc );
+      road.matches();
+
+      for( int i = 1; i <= road.groupCount(); i++ )
+        found += road.group( i ).length();
+      }
+
+    return found;
+    }
+
+  @Benchmark
+  public long gisParseFunction()
+    {
+    driver.operate( arguments );
+    return driver.collector.count;
+    }
+  }
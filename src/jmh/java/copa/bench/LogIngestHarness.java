@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package copa.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import copa.CopaOptions;
+import copa.CopaTaps;
+import copa.MappedLogReader;
+import copa.MappedLogScheme;
+import cascading.flow.FlowProcess;
+import cascading.flow.local.LocalFlowProcess;
+import cascading.tap.Tap;
+import cascading.tap.local.FileTap;
+import cascading.tuple.Fields;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryIterator;
+
+/**
+ * Compares the throughput of reading the GPS logs through the headered <code>TextDelimited</code>
+ * scheme the flow uses by default with {@link MappedLogScheme} on a growing number of threads,
+ * and with the {@link MappedLogReader} beneath it, which shows what building the tuples costs:
+ *
+ * <pre>
+ *   gradle ingest -Pingest.args='--pings=2000000 --threads=1,2,4,8'
+ * </pre>
+ *
+ * The logs are generated by {@link SyntheticCity} unless a path is given. Each reader takes the
+ * lat and lng of every row as doubles, and the best of a few reads is reported, the first also
+ * warming the page cache and the JIT.
+ */
+public class LogIngestHarness
+  {
+  static final int READS = 3;
+
+  public static void main( String[] args ) throws IOException
+    {
+    Properties options = new Properties();
+    int argc = CopaOptions.parseOptions( args, options );
+    File logs;
+
+    if( argc < args.length )
+      {
+      logs = new File( args[ argc ] );
+      }
+    else
+      {
+      File directory = new File( System.getProperty( "java.io.tmpdir" ), "copa-ingest-" + System.nanoTime() );
+      Properties city = new Properties();
+      city.setProperty( "pings", options.getProperty( "pings", "1000000" ) );
+      city.setProperty( "trees", "1" );
+      SyntheticCity.generate( city, directory );
+      logs = new File( directory, "gps.csv" );
+      }
+
+    List<Integer> threads = new ArrayList<Integer>();
+
+    if( options.containsKey( "threads" ) )
+      {
+      for( String count : options.getProperty( "threads" ).split( "," ) )
+        threads.add( Integer.parseInt( count.trim() ) );
+      }
+    else
+      {
+      for( int count = 1; count < Runtime.getRuntime().availableProcessors(); count *= 2 )
+        threads.add( count );
+
+      threads.add( Runtime.getRuntime().availableProcessors() );
+      }
+
+    System.out.println( String.format( "%.1f MB of logs in %s", logs.length() / 1e6, logs ) );
+    System.out.println( String.format( "%-10s %8s %10s %14s %18s", "reader", "threads", "MB/s", "rows/s", "rows/s per core" ) );
+
+    run( "delimited", 1, CopaTaps.delimitedTap( true, Fields.ALL, ",", logs.getPath() ), logs );
+
+    for( int count : threads )
+      run( "mapped", count, new FileTap( new MappedLogScheme( CopaTaps.LOG_TEXT, CopaTaps.LOG_NUMBERS, count ), logs.getPath() ), logs );
+
+    for( int count : threads )
+      run( "batches", count, null, logs );
+    }
+
+  // reads through the tap, or straight from a MappedLogReader for null
+  static void run( String name, int threads, Tap tap, File logs ) throws IOException
+    {
+    FlowProcess flowProcess = new LocalFlowProcess();
+    long best = Long.MAX_VALUE;
+    long rows = 0;
+    double checksum = 0.0;
+
+    for( int i = 0; i < READS; i++ )
+      {
+      long start = System.nanoTime();
+      rows = 0;
+
+      if( tap != null )
+        {
+        TupleEntryIterator iterator = flowProcess.openTapForRead( tap );
+
+        try
+          {
+          while( iterator.hasNext() )
+            {
+            TupleEntry entry = iterator.next();
+            checksum += entry.getDouble( "lat" ) + entry.getDouble( "lng" );
+            rows++;
+            }
+          }
+        finally
+          {
+          iterator.close();
+          }
+        }
+      else
+        {
+        MappedLogReader reader = new MappedLogReader( logs, new String[]{"date", "uuid"}, new String[]{"lat", "lng", "speed"}, threads );
+
+        try
+          {
+          MappedLogReader.Batch batch;
+
+          while( ( batch = reader.next() ) != null )
+            {
+            for( int row = 0; row < batch.rows; row++ )
+              checksum += batch.numbers[ 0 ][ row ] + batch.numbers[ 1 ][ row ];
+
+            rows += batch.rows;
+            }
+          }
+        finally
+          {
+          reader.close();
+          }
+        }
+
+      best = Math.min( best, System.nanoTime() - start );
+      }
+
+    if( Double.isNaN( checksum ) )
+      System.out.println( "unexpected NaN in " + name );
+
+    double seconds = best / 1e9;
+
+    System.out.println( String.format( "%-10s %8d %10.1f %14.0f %18.0f", name, threads, logs.length() / 1e6 / seconds, rows / seconds, rows / seconds / threads ) );
+    }
+  }
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package copa.bench;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import copa.PolylineParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Splitting a road's "geo" field into segments the way RoadSegmentFunction used to, with
+ * String.split and boxed Doubles, against the single pass {@link PolylineParser}.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class RoadSegmentBenchmark
+  {
+  @Param( { "10", "100", "1000" } )
+  public int vertices;
+
+  String geo;
+  PolylineParser parser = new PolylineParser();
+
+  @Setup
+  public void setup()
+    {
+    geo = polyline( new Random( 42 ), vertices );
+    }
+
+  /** a road of <code>vertices</code> points, formatted like the GIS export */
+  static String polyline( Random random, int vertices )
+    {
+    StringBuilder builder = new StringBuilder();
+    double lng = -122.15, lat = 37.44;
+
+    for( int i = 0; i < vertices; i++ )
+      {
+      lng += ( random.nextDouble() - 0.5 ) * 0.001;
+      lat += ( random.nextDouble() - 0.5 ) * 0.001;
+      builder.append( String.format( Locale.ROOT, "%.12f,%.13f,0.0 ", lng, lat ) );
+      }
+
+    return builder.toString();
+    }
+
+  @Benchmark
+  public double split()
+    {
+    String[] geo_list = geo.split( "\\s" );
+    double sum = 0.0;
+
+    for( int i = 0; i < ( geo_list.length - 1 ); i++ )
+      {
+      String[] p0 = geo_list[ i ].split( "," );
+      Double lng0 = new Double( p0[ 0 ] );
+      Double lat0 = new Double( p0[ 1 ] );
+
+      String[] p1 = geo_list[ i + 1 ].split( "," );
+      Double lng1 = new Double( p1[ 0 ] );
+      Double lat1 = new Double( p1[ 1 ] );
+
+      Double lat_mid = ( lat0 + lat1 ) / 2.0;
+      Double lng_mid = ( lng0 + lng1 ) / 2.0;
+      sum += lat_mid + lng_mid;
+      }
+
+    return sum;
+    }
+
+  @Benchmark
+  public double polylineParser()
+    {
+    int points = parser.parse( geo );
+    double sum = 0.0;
+
+    for( int i = 0; i < ( points - 1 ); i++ )
+      {
+      double lat_mid = ( parser.getLat( i ) + parser.getLat( i + 1 ) ) / 2.0;
+      double lng_mid = ( parser.getLng( i ) + parser.getLng( i + 1 ) ) / 2.0;
+      sum += lat_mid + lng_mid;
+      }
+
+    return sum;
+    }
+  }
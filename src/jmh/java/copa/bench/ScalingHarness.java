@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package copa.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import copa.CopaOptions;
+import copa.Main;
+import cascading.flow.Flow;
+import cascading.stats.FlowStepStats;
+
+/**
+ * Runs the whole copa flow over {@link SyntheticCity} inputs of growing size, in-process, and
+ * reports how its cost grows with the city:
+ *
+ * <pre>
+ *   gradle scaling -Pscaling.args='--scales=1,10,100 --compact-tracks'
+ * </pre>
+ *
+ * For each scale it records the wall time of the run, the time of each flow step from its
+ * stats, the peak heap, the bytes shuffled and the bytes written to the sinks, printing them and
+ * writing them as TSV to <code>build/reports/scaling/report.tsv</code>, or wherever
+ * <code>--report</code> points, so runs from two builds can be compared.
+ * <p>
+ * Flows run with {@link Main#LOCAL} unless <code>--hadoop</code> is given, which runs them on
+ * Hadoop in standalone mode instead; only then is anything shuffled, and counted, so the
+ * shuffle_bytes column is left empty for local runs. The peak heap
+ * is the sum of each heap pool's peak during the run, an upper bound on the true peak. Options
+ * the harness and {@link SyntheticCity} don't take are passed on to {@link Main}.
+ */
+public class ScalingHarness
+  {
+  static final List<String> OPTIONS = Arrays.asList( "scales", "work", "report", "hadoop", "scale", "seed", "trees", "pings", "downtown", "meta" );
+
+  public static void main( String[] args ) throws IOException
+    {
+    Properties options = new Properties();
+    CopaOptions.parseOptions( args, options );
+    String[] scales = options.getProperty( "scales", "1,10,100" ).split( "," );
+    File work = new File( options.getProperty( "work", "build/scaling" ) );
+    File report = new File( options.getProperty( "report", "build/reports/scaling/report.tsv" ) );
+    boolean hadoop = Boolean.parseBoolean( options.getProperty( "hadoop", "false" ) );
+    List<String> flowOptions = new ArrayList<String>();
+
+    if( !hadoop )
+      flowOptions.add( "--" + Main.LOCAL );
+
+    for( String arg : args )
+      {
+      if( !OPTIONS.contains( arg.substring( 2 ).split( "=" )[ 0 ] ) )
+        flowOptions.add( arg );
+      }
+
+    report.getAbsoluteFile().getParentFile().mkdirs();
+    PrintWriter tsv = new PrintWriter( new OutputStreamWriter( new FileOutputStream( report ), "UTF-8" ) );
+    tsv.println( "scale\ttrees\troads\tpings\tflow\tstep\tmillis\tpeak_heap_mb\tshuffle_bytes\toutput_bytes" );
+
+    if( !hadoop )
+      System.out.println( "local run: nothing is shuffled, so shuffled MB is left empty; give --hadoop to count it" );
+
+    System.out.println( String.format( "%-6s %10s %8s %12s %10s %10s %14s %14s", "scale", "trees", "roads", "pings", "wall s", "heap MB", "shuffled MB", "written MB" ) );
+
+    try
+      {
+      for( String scale : scales )
+        run( scale.trim(), options, flowOptions, hadoop, work, tsv );
+      }
+    finally
+      {
+      tsv.close();
+      }
+
+    System.out.println( "report written to " + report );
+    }
+
+  static void run( String scale, Properties options, List<String> flowOptions, boolean hadoop, File work, PrintWriter tsv ) throws IOException
+    {
+    File in = new File( work, "scale-" + scale + "/in" );
+    File out = new File( work, "scale-" + scale + "/out" );
+    Properties cityOptions = new Properties();
+    cityOptions.putAll( options );
+    cityOptions.setProperty( "scale", scale );
+
+    SyntheticCity.Counts counts = SyntheticCity.generate( cityOptions, in );
+    CheckpointFormatHarness.delete( out );
+
+    List<String> args = new ArrayList<String>( flowOptions );
+
+    for( String input : new String[]{"gis.csv", "meta_tree.tsv", "meta_road.tsv", "gps.csv"} )
+      args.add( new File( in, input ).getPath() );
+
+    for( String output : new String[]{"trap", "tsv", "tree", "road", "park", "shade", "reco"} )
+      args.add( new File( out, output ).getPath() );
+
+    List<MemoryPoolMXBean> pools = new ArrayList<MemoryPoolMXBean>();
+
+    for( MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() )
+      {
+      if( pool.getType() == MemoryType.HEAP )
+        pools.add( pool );
+      }
+
+    // start each scale from as empty a heap as can be had
+    System.gc();
+
+    for( MemoryPoolMXBean pool : pools )
+      pool.resetPeakUsage();
+
+    long start = System.nanoTime();
+    List<Flow> flows = Main.run( args.toArray( new String[ args.size() ] ) );
+    long wall = ( System.nanoTime() - start ) / 1000000;
+
+    long heap = 0;
+
+    for( MemoryPoolMXBean pool : pools )
+      heap += pool.getPeakUsage().getUsed();
+
+    long shuffled = 0;
+    String prefix = scale + "\t" + counts.trees + "\t" + counts.roads + "\t" + counts.pings + "\t";
+
+    for( Flow flow : flows )
+      {
+      shuffled += flow.getFlowStats().getCounterValue( "org.apache.hadoop.mapred.Task$Counter", "MAP_OUTPUT_BYTES" );
+
+      for( FlowStepStats step : flow.getFlowStats().getFlowStepStats() )
+        tsv.println( prefix + flow.getName() + "\t" + step.getName() + "\t" + step.getDuration() + "\t\t\t" );
+      }
+
+    // the local planner has no map output counter, so a 0 there would only look like a measurement
+    long written = CheckpointFormatHarness.bytes( out );
+    tsv.println( prefix + "all\tall\t" + wall + "\t" + heap / 1000000 + "\t" + ( hadoop ? Long.toString( shuffled ) : "" ) + "\t" + written );
+    tsv.flush();
+
+    System.out.println( String.format( "%-6s %10d %8d %12d %10.1f %10d %14s %14.1f", scale, counts.trees, counts.roads, counts.pings,
+      wall / 1000.0, heap / 1000000, hadoop ? String.format( "%.1f", shuffled / 1e6 ) : "", written / 1e6 ) );
+    }
+  }
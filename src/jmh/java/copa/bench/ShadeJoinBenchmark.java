@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package copa.bench;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import copa.GeoHashNeighborFunction;
+import copa.PointGridIndex;
+import org.apache.lucene.spatial.geohash.GeoHashUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares finding the trees near each road segment with a sort-merge join on 6 character
+ * geohash cells, as the shade CoGroup does, against probing an in-memory {@link PointGridIndex}.
+ * <p>
+ * The geohash side sorts and merges in memory, leaving out the serialization and network
+ * transfer of a real shuffle, so it understates what the CoGroup costs on a cluster.
+ * <p>
+ * Inputs are a synthetic city around Palo Alto at about 400 trees per square kilometer,
+ * with one 100 meter road segment for every ten trees.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class ShadeJoinBenchmark
+  {
+  static final double RADIUS = 50.0;
+  static final int PRECISION = 6;
+
+  @Param( { "10000", "100000", "1000000" } )
+  public int trees;
+
+  double[] tree_lat;
+  double[] tree_lng;
+  double[] seg_lat0, seg_lng0, seg_lat1, seg_lng1;
+
+  @Setup
+  public void setup()
+    {
+    Random random = new Random( 42 );
+    double side = Math.sqrt( trees / 400.0 ) / 111.32; // degrees
+
+    tree_lat = new double[ trees ];
+    tree_lng = new double[ trees ];
+
+    for( int i = 0; i < trees; i++ )
+      {
+      tree_lat[ i ] = 37.44 + random.nextDouble() * side;
+      tree_lng[ i ] = -122.15 + random.nextDouble() * side;
+      }
+
+    int segments = trees / 10;
+    seg_lat0 = new double[ segments ];
+    seg_lng0 = new double[ segments ];
+    seg_lat1 = new double[ segments ];
+    seg_lng1 = new double[ segments ];
+
+    for( int i = 0; i < segments; i++ )
+      {
+      double angle = random.nextDouble() * Math.PI;
+      seg_lat0[ i ] = 37.44 + random.nextDouble() * side;
+      seg_lng0[ i ] = -122.15 + random.nextDouble() * side;
+      seg_lat1[ i ] = seg_lat0[ i ] + Math.sin( angle ) * 100.0 / GeoHashNeighborFunction.METERS_PER_DEGREE;
+      seg_lng1[ i ] = seg_lng0[ i ] + Math.cos( angle ) * 100.0 / GeoHashNeighborFunction.METERS_PER_DEGREE;
+      }
+    }
+
+  @Benchmark
+  public long geohashSortMergeJoin()
+    {
+    int segments = seg_lat0.length;
+
+    // key each side by (cell << 32 | index), then sort, as the shuffle would
+    long[] treeKeys = new long[ trees ];
+
+    for( int i = 0; i < trees; i++ )
+      treeKeys[ i ] = GeoHashUtils.encodeLong( tree_lat[ i ], tree_lng[ i ], PRECISION ) << 32 | i;
+
+    long[] roadKeys = new long[ segments ];
+
+    for( int i = 0; i < segments; i++ )
+      roadKeys[ i ] = GeoHashUtils.encodeLong( ( seg_lat0[ i ] + seg_lat1[ i ] ) / 2.0, ( seg_lng0[ i ] + seg_lng1[ i ] ) / 2.0, PRECISION ) << 32 | i;
+
+    Arrays.sort( treeKeys );
+    Arrays.sort( roadKeys );
+
+    // merge each cell group, checking every tree/segment pair within it
+    long pairs = 0;
+    int t = 0;
+
+    for( int r = 0; r < segments; )
+      {
+      long cell = roadKeys[ r ] >>> 32;
+
+      while( t < trees && ( treeKeys[ t ] >>> 32 ) < cell )
+        t++;
+
+      int t_end = t;
+
+      while( t_end < trees && ( treeKeys[ t_end ] >>> 32 ) == cell )
+        t_end++;
+
+      for( ; r < segments && ( roadKeys[ r ] >>> 32 ) == cell; r++ )
+        {
+        int seg = (int) roadKeys[ r ];
+
+        for( int i = t; i < t_end; i++ )
+          {
+          if( near( seg, (int) treeKeys[ i ] ) )
+            pairs++;
+          }
+        }
+      }
+
+    return pairs;
+    }
+
+  @Benchmark
+  public long gridIndexLookup()
+    {
+    PointGridIndex index = new PointGridIndex( tree_lat, tree_lng, trees, RADIUS / GeoHashNeighborFunction.METERS_PER_DEGREE );
+    double lat_radius = RADIUS / GeoHashNeighborFunction.METERS_PER_DEGREE;
+    long pairs = 0;
+
+    for( int seg = 0; seg < seg_lat0.length; seg++ )
+      {
+      double lng_radius = lat_radius / Math.cos( Math.toRadians( seg_lat0[ seg ] ) );
+      int hits = index.query( Math.min( seg_lat0[ seg ], seg_lat1[ seg ] ) - lat_radius, Math.min( seg_lng0[ seg ], seg_lng1[ seg ] ) - lng_radius,
+        Math.max( seg_lat0[ seg ], seg_lat1[ seg ] ) + lat_radius, Math.max( seg_lng0[ seg ], seg_lng1[ seg ] ) + lng_radius );
+
+      for( int i = 0; i < hits; i++ )
+        {
+        if( near( seg, index.getHit( i ) ) )
+          pairs++;
+        }
+      }
+
+    return pairs;
+    }
+
+  private boolean near( int seg, int tree )
+    {
+    double lat_radius = RADIUS / GeoHashNeighborFunction.METERS_PER_DEGREE;
+    double lat_mid = ( seg_lat0[ seg ] + seg_lat1[ seg ] ) / 2.0;
+    double lng_mid = ( seg_lng0[ seg ] + seg_lng1[ seg ] ) / 2.0;
+
+    return Math.abs( tree_lat[ tree ] - lat_mid ) <= lat_radius && Math.abs( tree_lng[ tree ] - lng_mid ) <= lat_radius / Math.cos( Math.toRadians( lat_mid ) );
+    }
+  }
@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package copa.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import copa.CopaOptions;
+import copa.ShadeIndex;
+import copa.ShadeService;
+
+/**
+ * Measures the latency percentiles and throughput of {@link ShadeIndex} queries, first called
+ * in-process from one thread, then through {@link ShadeService} over HTTP from several client
+ * threads at once:
+ *
+ * <pre>
+ *   gradle loadtest -Ploadtest.args="--clients=8 --seconds=10 out/shade"
+ * </pre>
+ *
+ * Without any paths it indexes a synthetic city of <code>--segments</code> road segments around
+ * Palo Alto. Queries are drawn uniformly over the city, half of them with an hour of the day.
+ */
+public class ShadeServiceLoadTest
+  {
+  static final int DISTINCT_QUERIES = 4096;
+
+  public static void main( String[] args ) throws Exception
+    {
+    Properties options = new Properties();
+    int argc = CopaOptions.parseOptions( args, options );
+    int clients = Integer.parseInt( options.getProperty( "clients", "8" ) );
+    int seconds = Integer.parseInt( options.getProperty( "seconds", "10" ) );
+    int segments = Integer.parseInt( options.getProperty( "segments", "20000" ) );
+    double radius = Double.parseDouble( options.getProperty( "radius", String.valueOf( ShadeService.DEFAULT_RADIUS ) ) );
+    Random random = new Random( 42 );
+
+    ShadeIndex index;
+
+    if( argc < args.length )
+      index = ShadeIndex.load( Arrays.copyOfRange( args, argc, args.length ) );
+    else
+      index = synthetic( random, segments );
+
+    System.out.println( String.format( "%d segments, %d trees, radius %.0f m", index.size(), index.trees(), radius ) );
+
+    double[][] queries = queries( random, index );
+
+    inProcess( index, queries, radius );
+    overHttp( index, queries, radius, clients, seconds );
+    }
+
+  /** segments of about 100 meters on a jittered grid, each with up to 8 trees within 25 meters */
+  static ShadeIndex synthetic( Random random, int segments )
+    {
+    ShadeIndex.Loader loader = new ShadeIndex.Loader();
+
+    for( int s = 0; s < segments; s++ )
+      {
+      double lat = SyntheticInputs.lat( random ), lng = SyntheticInputs.lng( random );
+      boolean north = random.nextBoolean();
+      int segment = loader.addSegment( "road " + s, 0.05 + random.nextDouble() * 0.07, lat, lng, lat + ( north ? 0.0009 : 0.0 ), lng + ( north ? 0.0 : 0.0011 ) );
+      int trees = random.nextInt( 9 );
+
+      for( int t = 0; t < trees; t++ )
+        loader.addTree( segment, random.nextDouble() * 25.0, 2.0 + random.nextDouble() * 28.0 );
+      }
+
+    return loader.build();
+    }
+
+  // lat, lng and hour (NaN for half of them) over the extent of the indexed segments
+  static double[][] queries( Random random, ShadeIndex index )
+    {
+    double min_lat = Double.MAX_VALUE, max_lat = -Double.MAX_VALUE;
+    double min_lng = Double.MAX_VALUE, max_lng = -Double.MAX_VALUE;
+
+    for( int s = 0; s < index.size(); s++ )
+      {
+      min_lat = Math.min( min_lat, index.getLat0( s ) );
+      max_lat = Math.max( max_lat, index.getLat0( s ) );
+      min_lng = Math.min( min_lng, index.getLng0( s ) );
+      max_lng = Math.max( max_lng, index.getLng0( s ) );
+      }
+
+    double[][] queries = new double[ DISTINCT_QUERIES ][];
+
+    for( int i = 0; i < queries.length; i++ )
+      {
+      double lat = min_lat + random.nextDouble() * ( max_lat - min_lat );
+      double lng = min_lng + random.nextDouble() * ( max_lng - min_lng );
+      double hour = random.nextBoolean() ? 6.0 + random.nextDouble() * 14.0 : Double.NaN;
+      queries[ i ] = new double[]{lat, lng, hour};
+      }
+
+    return queries;
+    }
+
+  static void inProcess( ShadeIndex index, double[][] queries, double radius )
+    {
+    ShadeIndex.Searcher searcher = index.searcher();
+    int warmup = 200000, measured = 1000000;
+    long found = 0;
+
+    for( int i = 0; i < warmup; i++ )
+      {
+      double[] query = queries[ i % queries.length ];
+      found += searcher.search( query[ 0 ], query[ 1 ], radius, query[ 2 ], ShadeService.DEFAULT_LIMIT );
+      }
+
+    long[] latencies = new long[ measured ];
+    long start = System.nanoTime();
+
+    for( int i = 0; i < measured; i++ )
+      {
+      double[] query = queries[ i % queries.length ];
+      long before = System.nanoTime();
+      found += searcher.search( query[ 0 ], query[ 1 ], radius, query[ 2 ], ShadeService.DEFAULT_LIMIT );
+      latencies[ i ] = System.nanoTime() - before;
+      }
+
+    long duration = System.nanoTime() - start;
+
+    report( "in-process, 1 thread", latencies, measured, duration, 0 );
+    System.out.println( String.format( "  %.1f segments found per query", (double) found / ( warmup + measured ) ) );
+    }
+
+  static void overHttp( ShadeIndex index, final double[][] queries, final double radius, int clients, int seconds ) throws Exception
+    {
+    ShadeService service = new ShadeService( index, 0, Runtime.getRuntime().availableProcessors() );
+    service.start();
+
+    final String base = "http://127.0.0.1:" + service.getPort() + "/shade?radius=" + radius;
+    final AtomicLong errors = new AtomicLong();
+
+    try
+      {
+      // a short warm up, then the measured run
+      run( base, queries, clients, Math.min( 2, seconds ) * 1000000000L, errors );
+      errors.set( 0 );
+
+      long start = System.nanoTime();
+      long[][] latencies = run( base, queries, clients, seconds * 1000000000L, errors );
+      long duration = System.nanoTime() - start;
+
+      int total = 0;
+
+      for( long[] client : latencies )
+        total += (int) client[ 0 ];
+
+      long[] merged = new long[ total ];
+      int offset = 0;
+
+      for( long[] client : latencies )
+        {
+        System.arraycopy( client, 1, merged, offset, (int) client[ 0 ] );
+        offset += (int) client[ 0 ];
+        }
+
+      report( "http, " + clients + " clients", merged, total, duration, errors.get() );
+      }
+    finally
+      {
+      service.stop();
+      }
+    }
+
+  // each client's latencies, with the number recorded in the first slot
+  static long[][] run( final String base, final double[][] queries, int clients, final long nanos, final AtomicLong errors ) throws InterruptedException
+    {
+    final long[][] latencies = new long[ clients ][];
+    Thread[] threads = new Thread[ clients ];
+    final long deadline = System.nanoTime() + nanos;
+
+    for( int c = 0; c < clients; c++ )
+      {
+      final int client = c;
+
+      threads[ c ] = new Thread()
+      {
+      public void run()
+        {
+        long[] recorded = new long[ 1 << 16 ];
+        int count = 0;
+        byte[] buffer = new byte[ 8192 ];
+
+        for( int i = client * 997; System.nanoTime() < deadline; i++ )
+          {
+          double[] query = queries[ i % queries.length ];
+          String url = base + "&lat=" + query[ 0 ] + "&lng=" + query[ 1 ] + ( Double.isNaN( query[ 2 ] ) ? "" : "&hour=" + query[ 2 ] );
+          long before = System.nanoTime();
+
+          try
+            {
+            HttpURLConnection connection = (HttpURLConnection) new URL( url ).openConnection();
+            InputStream stream = connection.getResponseCode() == 200 ? connection.getInputStream() : connection.getErrorStream();
+
+            // drain the body fully so the connection is kept alive for the next request
+            while( stream.read( buffer ) >= 0 )
+              ;
+
+            stream.close();
+
+            if( connection.getResponseCode() != 200 )
+              errors.incrementAndGet();
+            }
+          catch( IOException exception )
+            {
+            errors.incrementAndGet();
+            continue;
+            }
+
+          if( count + 1 == recorded.length )
+            recorded = Arrays.copyOf( recorded, 2 * recorded.length );
+
+          recorded[ ++count ] = System.nanoTime() - before;
+          }
+
+        recorded[ 0 ] = count;
+        latencies[ client ] = recorded;
+        }
+      };
+
+      threads[ c ].start();
+      }
+
+    for( Thread thread : threads )
+      thread.join();
+
+    return latencies;
+    }
+
+  static void report( String name, long[] latencies, int count, long duration, long errors )
+    {
+    Arrays.sort( latencies, 0, count );
+
+    System.out.println( String.format( "%-22s %10d queries %12.0f q/s   p50 %8.1f us   p99 %8.1f us   p99.9 %8.1f us   errors %d",
+      name, count, count / ( duration / 1e9 ), percentile( latencies, count, 0.50 ), percentile( latencies, count, 0.99 ),
+      percentile( latencies, count, 0.999 ), errors ) );
+    }
+
+  // in microseconds
+  static double percentile( long[] sorted, int count, double fraction )
+    {
+    if( count == 0 )
+      return Double.NaN;
+
+    return sorted[ Math.min( count - 1, (int) ( fraction * count ) ) ] / 1000.0;
+    }
+  }
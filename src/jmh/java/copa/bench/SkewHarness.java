@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package copa.bench;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+
+import copa.CopaOptions;
+import copa.HotCellSampler;
+import copa.Main;
+import org.apache.lucene.spatial.geohash.GeoHashUtils;
+
+/**
+ * Simulates the reducers of the reco CoGroup over skewed synthetic data, with and without
+ * {@link Main#SALT_HOT_CELLS}, and reports how evenly the work is spread:
+ *
+ * <pre>
+ *   gradle skew -Pskew.args="--events=2000000 --reducers=32 --salts=8"
+ * </pre>
+ *
+ * GPS events and shade rows are drawn over Palo Alto, with a share of both packed into a few
+ * downtown cells. Groups go to reducers as Cascading partitions a grouping, by the hash of the
+ * key tuple, and a group costs its rows in plus the rows its inner join emits. The load is a
+ * model: no flow is run and no reduce is timed.
+ */
+public class SkewHarness
+  {
+  public static void main( String[] args )
+    {
+    Properties options = new Properties();
+    CopaOptions.parseOptions( args, options );
+    int events = Integer.parseInt( options.getProperty( "events", "2000000" ) );
+    int reducers = Integer.parseInt( options.getProperty( "reducers", "32" ) );
+    int salts = Integer.parseInt( options.getProperty( "salts", String.valueOf( Main.DEFAULT_SALTS ) ) );
+    double downtown = Double.parseDouble( options.getProperty( "downtown", "0.4" ) );
+    Random random = new Random( 42 );
+
+    // a handful of dense cells around University Avenue
+    double[][] hotspots = new double[ 5 ][];
+
+    for( int i = 0; i < hotspots.length; i++ )
+      hotspots[ i ] = new double[]{37.4445 + 0.006 * random.nextDouble(), -122.163 + 0.006 * random.nextDouble()};
+
+    // the cell of each event, and the GPS event and shade row counts of each cell
+    long[] cells = new long[ events ];
+    Map<Long, int[]> sampled = new HashMap<Long, int[]>();
+    Map<Long, long[]> counts = new HashMap<Long, long[]>();
+    Random sample = new Random( HotCellSampler.SEED );
+    long sampledRows = 0;
+
+    for( int i = 0; i < events; i++ )
+      {
+      double[] point = point( random, hotspots, downtown );
+      cells[ i ] = GeoHashUtils.encodeLong( point[ 0 ], point[ 1 ], 6 );
+      count( counts, cells[ i ] )[ 0 ]++;
+
+      // a Bernoulli sample, as HotCellSampler draws across the splits of the logs
+      if( sample.nextDouble() < Main.DEFAULT_HOT_CELL_SAMPLE )
+        {
+        int[] count = sampled.get( cells[ i ] );
+
+        if( count == null )
+          sampled.put( cells[ i ], count = new int[ 1 ] );
+
+        count[ 0 ]++;
+        sampledRows++;
+        }
+      }
+
+    for( int i = 0; i < events / 20; i++ )
+      {
+      double[] point = point( random, hotspots, downtown );
+      count( counts, GeoHashUtils.encodeLong( point[ 0 ], point[ 1 ], 6 ) )[ 1 ]++;
+      }
+
+    Set<Long> hot = HotCellSampler.hotCells( sampled, sampledRows, HotCellSampler.HOT_FACTOR );
+
+    System.out.println( String.format( "%d events, %d shade rows, %d cells, %d hot, %d reducers", events, events / 20, counts.size(), hot.size(), reducers ) );
+    System.out.println( String.format( "%-10s %16s %16s %10s %12s", "join", "max work", "mean work", "max/mean", "std/mean" ) );
+
+    report( "plain", load( counts, hot, 1, reducers ) );
+    report( "salted", load( counts, hot, salts, reducers ) );
+    }
+
+  static double[] point( Random random, double[][] hotspots, double downtown )
+    {
+    if( random.nextDouble() >= downtown )
+      return new double[]{SyntheticInputs.lat( random ), SyntheticInputs.lng( random )};
+
+    double[] hotspot = hotspots[ random.nextInt( hotspots.length ) ];
+    return new double[]{hotspot[ 0 ] + random.nextGaussian() * 0.0005, hotspot[ 1 ] + random.nextGaussian() * 0.0005};
+    }
+
+  static long[] count( Map<Long, long[]> counts, long cell )
+    {
+    long[] count = counts.get( cell );
+
+    if( count == null )
+      counts.put( cell, count = new long[ 2 ] );
+
+    return count;
+    }
+
+  // the work landing on each reducer; a hot cell's events are dealt evenly between its salts and its shade rows copied to each
+  static long[] load( Map<Long, long[]> counts, Set<Long> hot, int salts, int reducers )
+    {
+    long[] work = new long[ reducers ];
+
+    for( Map.Entry<Long, long[]> entry : counts.entrySet() )
+      {
+      long events = entry.getValue()[ 0 ];
+      long shade = entry.getValue()[ 1 ];
+      int groups = hot.contains( entry.getKey() ) ? salts : 1;
+
+      for( int salt = 0; salt < groups; salt++ )
+        {
+        long spread = events / groups + ( salt < events % groups ? 1 : 0 );
+        int reducer = ( Arrays.asList( (Object) String.valueOf( entry.getKey() ), salt ).hashCode() & Integer.MAX_VALUE ) % reducers;
+        work[ reducer ] += spread + shade + spread * shade;
+        }
+      }
+
+    return work;
+    }
+
+  static void report( String name, long[] work )
+    {
+    double mean = 0.0, variance = 0.0;
+    long max = 0;
+
+    for( long w : work )
+      {
+      mean += w;
+      max = Math.max( max, w );
+      }
+
+    mean /= work.length;
+
+    for( long w : work )
+      variance += ( w - mean ) * ( w - mean );
+
+    double std = Math.sqrt( variance / work.length );
+
+    System.out.println( String.format( "%-10s %16d %16.0f %10.2f %12.2f", name, max, mean, max / mean, std / mean ) );
+    }
+  }
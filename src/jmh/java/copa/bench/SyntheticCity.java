@@ -0,0 +1,364 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package copa.bench;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TimeZone;
+
+import copa.CopaOptions;
+import copa.GeoDistance;
+
+/**
+ * Writes a synthetic city of any size, in the formats of the files in <code>data/</code>, for
+ * seeing how the flow scales past the sample data:
+ *
+ * <pre>
+ *   java copa.bench.SyntheticCity [--scale=10] [--seed=42] [--trees=5] [--pings=20000] [--downtown=0.4] [--meta=data] out/city
+ * </pre>
+ *
+ * The city is a street grid centered on Palo Alto, {@link #BLOCKS} blocks at scale 1, growing in
+ * area with the scale so its density stays the same. Every block edge is a road of two to four
+ * segments, with a mean of <code>trees</code> street trees along each side, and one block in
+ * fifty holds a park. Trees take their species from <code>meta_tree.tsv</code>, a few of them far
+ * more often than the rest, and roads their surface from <code>meta_road.tsv</code>, so both
+ * metadata joins match.
+ * <p>
+ * GPS logs hold about <code>pings</code> events per unit of scale, in tracks of a few minutes to
+ * an hour of walking or cycling along the streets, pinging every 5 to 15 seconds. A
+ * <code>downtown</code> share of the tracks stays within a few blocks of the center, packing
+ * their events into a handful of geohash cells, as the logs of a real city do.
+ * <p>
+ * Writes <code>gis.csv</code>, <code>gps.csv</code>, and copies of the two metadata files.
+ */
+public class SyntheticCity
+  {
+  /** blocks in the grid at scale 1, about the area of downtown Palo Alto */
+  public static final int BLOCKS = 400;
+  public static final double BLOCK_LAT = 0.0010;
+  public static final double BLOCK_LNG = 0.0013;
+  public static final double CENTER_LAT = 37.44;
+  public static final double CENTER_LNG = -122.15;
+
+  /** the counts written: trees, roads, parks, GPS events and tracks */
+  public static class Counts
+    {
+    public long trees, roads, parks, pings, tracks;
+    }
+
+  private final Random random;
+  private final int side;
+  private final double trees;
+  private final long pings;
+  private final double downtown;
+  private final List<String> species = new ArrayList<String>();
+  private final List<String> surfaces = new ArrayList<String>();
+
+  public SyntheticCity( double scale, long seed, double trees, long pings, double downtown )
+    {
+    this.random = new Random( seed );
+    this.side = (int) Math.ceil( Math.sqrt( BLOCKS * scale ) );
+    this.trees = trees;
+    this.pings = (long) ( pings * scale );
+    this.downtown = downtown;
+    }
+
+  public static void main( String[] args ) throws IOException
+    {
+    Properties options = new Properties();
+    int argc = CopaOptions.parseOptions( args, options );
+
+    if( argc == args.length )
+      throw new IllegalArgumentException( "usage: SyntheticCity [--scale=n] [--seed=n] [--trees=n] [--pings=n] [--downtown=share] [--meta=dir] dir" );
+
+    Counts counts = generate( options, new File( args[ argc ] ) );
+
+    System.out.println( String.format( Locale.ROOT, "%d trees, %d roads, %d parks, %d GPS events in %d tracks, in %s",
+      counts.trees, counts.roads, counts.parks, counts.pings, counts.tracks, args[ argc ] ) );
+    }
+
+  /** generates a city from the options {@link #main} takes into <code>dir</code> */
+  public static Counts generate( Properties options, File dir ) throws IOException
+    {
+    double scale = Double.parseDouble( options.getProperty( "scale", "1" ) );
+    long seed = Long.parseLong( options.getProperty( "seed", "42" ) );
+    double trees = Double.parseDouble( options.getProperty( "trees", "5" ) );
+    long pings = Long.parseLong( options.getProperty( "pings", "20000" ) );
+    double downtown = Double.parseDouble( options.getProperty( "downtown", "0.4" ) );
+    File meta = new File( options.getProperty( "meta", "data" ) );
+
+    SyntheticCity city = new SyntheticCity( scale, seed, trees, pings, downtown );
+    return city.write( meta, dir );
+    }
+
+  public Counts write( File meta, File dir ) throws IOException
+    {
+    if( !dir.isDirectory() && !dir.mkdirs() )
+      throw new IOException( "unable to create: " + dir );
+
+    Counts counts = new Counts();
+    copyMeta( new File( meta, "meta_tree.tsv" ), new File( dir, "meta_tree.tsv" ), species );
+    copyMeta( new File( meta, "meta_road.tsv" ), new File( dir, "meta_road.tsv" ), surfaces );
+
+    Writer gis = writer( new File( dir, "gis.csv" ) );
+
+    try
+      {
+      writeGis( gis, counts );
+      }
+    finally
+      {
+      gis.close();
+      }
+
+    Writer gps = writer( new File( dir, "gps.csv" ) );
+
+    try
+      {
+      writeGps( gps, counts );
+      }
+    finally
+      {
+      gps.close();
+      }
+
+    return counts;
+    }
+
+  // copies a metadata file, collecting the key in its first column
+  private static void copyMeta( File from, File to, List<String> keys ) throws IOException
+    {
+    BufferedReader reader = new BufferedReader( new InputStreamReader( new FileInputStream( from ), "UTF-8" ) );
+    Writer writer = writer( to );
+
+    try
+      {
+      String line = reader.readLine();
+      writer.write( line + "\n" );
+
+      while( ( line = reader.readLine() ) != null )
+        {
+        writer.write( line + "\n" );
+        keys.add( line.substring( 0, line.indexOf( '\t' ) ) );
+        }
+      }
+    finally
+      {
+      reader.close();
+      writer.close();
+      }
+    }
+
+  private void writeGis( Writer gis, Counts counts ) throws IOException
+    {
+    int id = 0;
+
+    // each horizontal edge, then each vertical one, from the south west corner
+    for( int horizontal = 1; horizontal >= 0; horizontal-- )
+      {
+      for( int row = 0; row <= side; row++ )
+        {
+        for( int col = 0; col < side; col++ )
+          {
+          double lat0 = latitude( horizontal == 1 ? row : col ), lng0 = longitude( horizontal == 1 ? col : row );
+          double lat1 = horizontal == 1 ? lat0 : lat0 + BLOCK_LAT, lng1 = horizontal == 1 ? lng0 + BLOCK_LNG : lng0;
+
+          gis.write( SyntheticInputs.roadLine( id++, 1950 + random.nextInt( 60 ), surfaces.get( random.nextInt( surfaces.size() ) ), polyline( lat0, lng0, lat1, lng1 ) ) );
+          gis.write( '\n' );
+          counts.roads++;
+
+          // street trees some 8 to 15 meters out, on either side
+          for( int curb = -1; curb <= 1; curb += 2 )
+            {
+            long count = poisson( trees );
+
+            for( int t = 0; t < count; t++ )
+              {
+              double along = random.nextDouble();
+              double offset = curb * ( 8.0 + 7.0 * random.nextDouble() ) / GeoDistance.METERS_PER_DEGREE;
+              double lat = lat0 + along * ( lat1 - lat0 ) + ( horizontal == 1 ? offset : 0.0 );
+              double lng = lng0 + along * ( lng1 - lng0 ) + ( horizontal == 1 ? 0.0 : offset / Math.cos( Math.toRadians( lat ) ) );
+
+              gis.write( SyntheticInputs.treeLine( id++, species(), lat, lng ) );
+              gis.write( '\n' );
+              counts.trees++;
+              }
+            }
+          }
+        }
+      }
+
+    for( int block = 0; block < side * side; block += 50 )
+      {
+      gis.write( SyntheticInputs.parkLine( "Park " + block, latitude( block / side ) + BLOCK_LAT / 2, longitude( block % side ) + BLOCK_LNG / 2 ) );
+      gis.write( '\n' );
+      counts.parks++;
+      }
+    }
+
+  // a road's polyline, lng,lat,alt points, split into 2 to 4 segments with a little jitter
+  private String polyline( double lat0, double lng0, double lat1, double lng1 )
+    {
+    int segments = 2 + random.nextInt( 3 );
+    StringBuilder geo = new StringBuilder();
+
+    for( int i = 0; i <= segments; i++ )
+      {
+      double along = (double) i / segments;
+      double jitter = i == 0 || i == segments ? 0.0 : ( random.nextDouble() - 0.5 ) * 0.00002;
+
+      geo.append( String.format( Locale.ROOT, "%.12f,%.12f,0.0 ", lng0 + along * ( lng1 - lng0 ) + jitter, lat0 + along * ( lat1 - lat0 ) + jitter ) );
+      }
+
+    return geo.toString();
+    }
+
+  // a few species are planted far more often than the rest, as on real streets
+  private String species()
+    {
+    int index = (int) ( species.size() * Math.pow( random.nextDouble(), 3.0 ) );
+    String name = species.get( index );
+
+    return Character.toUpperCase( name.charAt( 0 ) ) + name.substring( 1 );
+    }
+
+  private void writeGps( Writer gps, Counts counts ) throws IOException
+    {
+    SimpleDateFormat format = new SimpleDateFormat( "yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.ROOT );
+    format.setTimeZone( TimeZone.getTimeZone( "UTC" ) );
+    long epoch = 1346601600000L; // 2012-09-02T16:00:00Z, as in the sample logs
+
+    gps.write( "date,uuid,lat,lng,alt,speed,heading,elapsed,distance\n" );
+
+    while( counts.pings < pings )
+      {
+      String uuid = String.format( Locale.ROOT, "%016x%016x", random.nextLong(), random.nextLong() );
+      boolean central = random.nextDouble() < downtown;
+      int reach = central ? Math.min( 3, side / 2 ) : side / 2;
+      int row = side / 2 + ( random.nextInt( 2 * reach + 1 ) - reach );
+      int col = side / 2 + ( random.nextInt( 2 * reach + 1 ) - reach );
+      double speed = random.nextDouble() < 0.7 ? 1.2 + 0.4 * random.nextDouble() : 4.0 + 2.0 * random.nextDouble();
+      int length = 20 + random.nextInt( 300 );
+      long time = epoch + (long) ( random.nextDouble() * 7 * 86400000L );
+      double lat = latitude( row ), lng = longitude( col );
+      double elapsed = 0.0, distance = 0.0;
+      int heading = turn( random.nextInt( 4 ), row, col, reach );
+      double along = 0.0;
+
+      for( int p = 0; p < length && counts.pings < pings; p++ )
+        {
+        int interval = 5 + random.nextInt( 11 );
+
+        if( p > 0 )
+          {
+          double step = speed * interval;
+          distance += step;
+          elapsed += interval;
+          time += interval * 1000L;
+          along += step;
+
+          // turn at each corner, keeping a downtown track near the center
+          double edge = heading % 2 == 0 ? BLOCK_LAT * GeoDistance.METERS_PER_DEGREE : BLOCK_LNG * GeoDistance.METERS_PER_DEGREE * Math.cos( Math.toRadians( lat ) );
+
+          while( along >= edge )
+            {
+            along -= edge;
+            row += heading == 0 ? 1 : heading == 2 ? -1 : 0;
+            col += heading == 1 ? 1 : heading == 3 ? -1 : 0;
+            heading = turn( heading, row, col, central ? reach : side / 2 );
+            edge = heading % 2 == 0 ? BLOCK_LAT * GeoDistance.METERS_PER_DEGREE : BLOCK_LNG * GeoDistance.METERS_PER_DEGREE * Math.cos( Math.toRadians( lat ) );
+            }
+
+          double share = along / edge;
+          lat = latitude( row ) + ( heading == 0 ? share : heading == 2 ? -share : 0.0 ) * BLOCK_LAT;
+          lng = longitude( col ) + ( heading == 1 ? share : heading == 3 ? -share : 0.0 ) * BLOCK_LNG;
+          }
+
+        // the first event of a track has no speed yet, as in the sample logs
+        gps.write( String.format( Locale.ROOT, "%s,%s,%.12f,%.12f,%.1f,%s,%d,%.3f,%.3f\n", format.format( new Date( time ) ), uuid, lat, lng,
+          30.0 + 10.0 * random.nextDouble(), p == 0 ? "-1" : String.format( Locale.ROOT, "%.2f", speed ), 90 * heading, elapsed, distance ) );
+        counts.pings++;
+        }
+
+      counts.tracks++;
+      }
+    }
+
+  // the next heading at a corner: any way but back, staying within reach of the center
+  private int turn( int heading, int row, int col, int reach )
+    {
+    int center = side / 2;
+
+    for( int attempt = 0; attempt < 8; attempt++ )
+      {
+      int next = ( heading + 3 + random.nextInt( 3 ) ) % 4;
+      int to_row = row + ( next == 0 ? 1 : next == 2 ? -1 : 0 );
+      int to_col = col + ( next == 1 ? 1 : next == 3 ? -1 : 0 );
+
+      if( Math.abs( to_row - center ) <= reach && Math.abs( to_col - center ) <= reach )
+        return next;
+      }
+
+    return ( heading + 2 ) % 4;
+    }
+
+  private double latitude( int row )
+    {
+    return CENTER_LAT + ( row - side / 2.0 ) * BLOCK_LAT;
+    }
+
+  private double longitude( int col )
+    {
+    return CENTER_LNG + ( col - side / 2.0 ) * BLOCK_LNG;
+    }
+
+  private long poisson( double mean )
+    {
+    double limit = Math.exp( -mean ), product = random.nextDouble();
+    long count = 0;
+
+    while( product > limit )
+      {
+      product *= random.nextDouble();
+      count++;
+      }
+
+    return count;
+    }
+
+  private static Writer writer( File file ) throws IOException
+    {
+    return new BufferedWriter( new OutputStreamWriter( new FileOutputStream( file ), "UTF-8" ) );
+    }
+  }
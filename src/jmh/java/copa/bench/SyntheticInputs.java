@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package copa.bench;
+
+import java.util.Locale;
+import java.util.Random;
+
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+
+/**
+ * Argument entries for each copa Function, drawn around Palo Alto so geohash cells, segment
+ * lengths and tree distances look like the real data.
+ */
+public class SyntheticInputs
+  {
+  public static final Fields ALBEDO = new Fields( "year_construct", "albedo_new", "albedo_worn" );
+  public static final Fields POINT = new Fields( "lat", "lng" );
+  public static final Fields SEGMENT = new Fields( "lat0", "lng0", "lat1", "lng1" );
+  public static final Fields GEO = new Fields( "geo" );
+  public static final Fields DISTANCE = new Fields( "tree_lat", "tree_lng", "lat0", "lng0", "lat1", "lng1" );
+  public static final Fields LINE = new Fields( "line" );
+  public static final Fields SHADE = new Fields( "road_name", "year_construct", "traffic_count", "traffic_index", "traffic_class", "paving_length", "paving_width", "paving_area", "surface_type", "bike_lane", "bus_route", "truck_route", "albedo", "lat0", "lng0", "lat1", "lng1", "tree_name", "priv", "tree_id", "situs", "tree_site", "species", "wikipedia", "calflora", "min_height", "max_height", "tree_lat", "tree_lng", "tree_alt", "tree_dist", "tree_geohash" );
+
+  public static TupleEntry[] albedo( Random random, int count )
+    {
+    TupleEntry[] inputs = new TupleEntry[ count ];
+
+    for( int i = 0; i < count; i++ )
+      inputs[ i ] = new TupleEntry( ALBEDO, new Tuple( 1950 + random.nextInt( 60 ), 0.05, 0.12 ) );
+
+    return inputs;
+    }
+
+  public static TupleEntry[] points( Random random, int count )
+    {
+    TupleEntry[] inputs = new TupleEntry[ count ];
+
+    for( int i = 0; i < count; i++ )
+      inputs[ i ] = new TupleEntry( POINT, new Tuple( lat( random ), lng( random ) ) );
+
+    return inputs;
+    }
+
+  /** segments of about 150 meters */
+  public static TupleEntry[] segments( Random random, int count )
+    {
+    TupleEntry[] inputs = new TupleEntry[ count ];
+
+    for( int i = 0; i < count; i++ )
+      {
+      double lat = lat( random ), lng = lng( random );
+      inputs[ i ] = new TupleEntry( SEGMENT, new Tuple( lat, lng, lat + 0.001, lng + 0.001 ) );
+      }
+
+    return inputs;
+    }
+
+  /** "geo" fields of <code>vertices</code> points each, or between 2 and 5 when zero */
+  public static TupleEntry[] polylines( Random random, int count, int vertices )
+    {
+    TupleEntry[] inputs = new TupleEntry[ count ];
+
+    for( int i = 0; i < count; i++ )
+      inputs[ i ] = new TupleEntry( GEO, new Tuple( RoadSegmentBenchmark.polyline( random, vertices > 0 ? vertices : 2 + random.nextInt( 4 ) ) ) );
+
+    return inputs;
+    }
+
+  /** trees about 20 meters from a segment */
+  public static TupleEntry[] distances( Random random, int count )
+    {
+    TupleEntry[] inputs = new TupleEntry[ count ];
+
+    for( int i = 0; i < count; i++ )
+      {
+      double lat = lat( random ), lng = lng( random );
+      inputs[ i ] = new TupleEntry( DISTANCE, new Tuple( lat + 0.0002, lng, lat, lng, lat + 0.001, lng + 0.001 ) );
+      }
+
+    return inputs;
+    }
+
+  /**
+   * rows of the shade output, typed as the flow produces them: text parsed from the GIS dump and
+   * metadata, tree_lat, tree_lng and tree_alt among it, and doubles for the road coordinates,
+   * albedo and tree_dist computed along the way
+   */
+  public static Tuple[] shadeRows( Random random, int count )
+    {
+    String[] species = {"liquidambar styraciflua", "quercus agrifolia", "platanus acerifolia", "pistacia chinensis", "magnolia grandiflora"};
+    String[] surfaces = {"asphalt concrete", "portland cement concrete"};
+    Tuple[] rows = new Tuple[ count ];
+
+    for( int i = 0; i < count; i++ )
+      {
+      double lat0 = lat( random ), lng0 = lng( random );
+      double tree_lat = lat0 + random.nextDouble() * 0.0002, tree_lng = lng0 + random.nextDouble() * 0.0002;
+      String tree_species = species[ random.nextInt( species.length ) ];
+
+      rows[ i ] = new Tuple( "Hawthorne Avenue from Alma Street to High Street", String.valueOf( 1950 + random.nextInt( 60 ) ), "3110",
+        "residential local", "local residential", "261", "36", "9396", surfaces[ random.nextInt( surfaces.length ) ], "0", "0", "0",
+        0.05 + random.nextDouble() * 0.07, lat0, lng0, lat0 + 0.0009, lng0 + 0.0011,
+        "Tree: " + i + " site 1 at 115 HAWTHORNE AV, on HAWTHORNE AV 22 from pl", "-1", String.valueOf( i ), "115", "1", tree_species,
+        "http://en.wikipedia.org/wiki/" + tree_species.replace( ' ', '_' ), "http://www.calflora.org/cgi-bin/species_query.cgi?where-calrecnum=" + random.nextInt( 10000 ),
+        "10", "25", String.valueOf( tree_lat ), String.valueOf( tree_lng ), "0.0", random.nextDouble() * 25.0, "9q9jh" + (char) ( 'a' + random.nextInt( 20 ) ) );
+      }
+
+    return rows;
+    }
+
+  /** lines of the GIS export, alternating between tree and road records */
+  public static TupleEntry[] gisLines( Random random, int count )
+    {
+    TupleEntry[] inputs = new TupleEntry[ count ];
+
+    for( int i = 0; i < count; i++ )
+      inputs[ i ] = new TupleEntry( LINE, new Tuple( i % 2 == 0 ? treeLine( random, i ) : roadLine( random, i ) ) );
+
+    return inputs;
+    }
+
+  static String treeLine( Random random, int id )
+    {
+    return treeLine( id, "Liquidambar styraciflua", lat( random ), lng( random ) );
+    }
+
+  /** a tree record as the GIS export writes it, its point given as lat,lng */
+  static String treeLine( int id, String species, double lat, double lng )
+    {
+    return String.format( Locale.ROOT, "\"Tree: %1$d site 1 at 115 HAWTHORNE AV, on HAWTHORNE AV 22 from pl\",\"   Private:   -1    Tree ID:   %1$d    "
+      + "Street_Name:   HAWTHORNE AV    Situs Number:   115    Tree Site:   1    Species:   %2$s    Source:   davey tree    "
+      + "Protected:       Designated:       Heritage:       Appraised Value:       Hardscape:   None    Identifier:   474    Active Numeric:   1    "
+      + "Location Feature ID:   18583    Provisional:       Install Date:      \",\"%3$.12f,%4$.12f,0.0 \",\"Point\"", id, species, lat, lng );
+    }
+
+  static String roadLine( Random random, int id )
+    {
+    return roadLine( id, 1950 + random.nextInt( 60 ), "asphalt concrete", RoadSegmentBenchmark.polyline( random, 2 + random.nextInt( 4 ) ) );
+    }
+
+  /** a road record as the GIS export writes it, its polyline given as lng,lat,alt points */
+  static String roadLine( int id, int year, String surface, String geo )
+    {
+    return String.format( Locale.ROOT, "\"Hawthorne Avenue from Alma Street to High Street\",\"   Sequence:   %d    Street_Name:   Hawthorne Avenue    "
+      + "From Street PMMS:   Alma Street    To Street PMMS:   High Street    Street ID:   264 (Hawthorne Av, Palo Alto)    From Street ID PMMS:   14    "
+      + "To Street ID PMMS:   269    Year Constructed:   %d    Traffic Count:   3110    Traffic Index:   residential local    "
+      + "Traffic Class:   local residential    Traffic Date:   5/19/99    Paving Length:   261    Paving Width:   36    Paving Area:   9396    "
+      + "Surface Type:   %s    Surface Thickness:   2.0    Base Type Pvmt:   portland cement concrete    Base Thickness:   6.0    "
+      + "Soil Class:   2    Soil Value:   15    Curb Type:   vertical curb    Curb Thickness:   6.0    Gutter Width:   24.0    Book:   1    Page:   7    "
+      + "District Number:   55    Land Use PMMS:   1    Overlay Year:   1996    Overlay Thickness:   1.5    Base Failure Year:   1996    "
+      + "Base Failure Thickness:   6    Surface Treatment Year:       Surface Treatment Type:       Alligator Severity:   moderate    "
+      + "Alligator Extent:   2.1    Block Severity:   slight    Block Extent:   3.2    Road Performance:   UL (Urban Local)    Bike Lane:   0    "
+      + "Bus Route:   0    Truck Route:   0    Remediation:       Deduct Value:   84    Priority:       Pavement Condition:   good    "
+      + "Source Date:   6/3/2009    User Modified By:   mnicols    Identifier System:   9900   \",\"%s\",\"Line\"",
+      id, year, surface, geo );
+    }
+
+  /** a park record as the GIS export writes it */
+  static String parkLine( String name, double lat, double lng )
+    {
+    return String.format( Locale.ROOT, "\"%1$s\",\"   Community Type:   Park    Critical Type:       Noise Type:       Comments:       Reference:    %1$s    \","
+      + "\"%2$.12f,%3$.12f,0.0 \",\"Point\"", name, lat, lng );
+    }
+
+  static double lat( Random random )
+    {
+    return 37.44 + random.nextDouble() * 0.05;
+    }
+
+  static double lng( Random random )
+    {
+    return -122.15 + random.nextDouble() * 0.05;
+    }
+  }
@@ -24,32 +24,57 @@ import cascading.flow.FlowProcess;
 import cascading.operation.BaseOperation;
 import cascading.operation.Function;
 import cascading.operation.FunctionCall;
+import cascading.operation.OperationCall;
 import cascading.tuple.Fields;
 import cascading.tuple.Tuple;
 import cascading.tuple.TupleEntry;
 
 
-public class AlbedoFunction extends BaseOperation implements Function
+public class AlbedoFunction extends BaseOperation<AlbedoFunction.Context> implements Function<AlbedoFunction.Context>
   {
-  protected Integer year_new = 0;
+  public static class Context
+    {
+    Tuple result = Tuple.size( 1 );
+    OperationStats stats = new OperationStats( "AlbedoFunction", "worn" );
+    }
+
+  private static final int WORN = 0;
 
-  public AlbedoFunction( Fields fieldDeclaration, Integer year_new )
+  protected int year_new = 0;
+
+  public AlbedoFunction( Fields fieldDeclaration, int year_new )
     {
     super( 1, fieldDeclaration );
     this.year_new = year_new;
    }
 
-  public void operate( FlowProcess flowProcess, FunctionCall functionCall )
+  public void prepare( FlowProcess flowProcess, OperationCall<Context> operationCall )
     {
+    operationCall.setContext( new Context() );
+    }
+
+  public void operate( FlowProcess flowProcess, FunctionCall<Context> functionCall )
+    {
+    Context context = functionCall.getContext();
+    long start = context.stats.begin();
     TupleEntry argument = functionCall.getArguments();
-    Integer year_construct = argument.getInteger( 0 );
-    Double albedo_new = argument.getDouble( 1 );
-    Double albedo_worn = argument.getDouble( 2 );
+    int year_construct = argument.getInteger( 0 );
+    double albedo_new = argument.getDouble( 1 );
+    double albedo_worn = argument.getDouble( 2 );
+
+    double albedo = ( year_construct >= year_new ) ? albedo_new : albedo_worn;
 
-    Double albedo = ( year_construct >= year_new ) ? albedo_new : albedo_worn;
+    if( year_construct < year_new )
+      context.stats.increment( WORN, 1 );
 
-    Tuple result = new Tuple();
-    result.add( albedo );
+    Tuple result = context.result;
+    result.set( 0, albedo );
     functionCall.getOutputCollector().add( result );
+    context.stats.end( start, 1 );
+    }
+
+  public void cleanup( FlowProcess flowProcess, OperationCall<Context> operationCall )
+    {
+    operationCall.getContext().stats.flush( flowProcess );
     }
   }
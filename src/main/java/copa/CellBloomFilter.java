@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package copa;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+
+import org.apache.lucene.spatial.geohash.GeoHashUtils;
+
+import cascading.flow.FlowProcess;
+import cascading.tap.Tap;
+import cascading.tuple.TupleEntryIterator;
+
+/**
+ * A Bloom filter over geohash cells, small enough to ship inside an operation to every task:
+ * about 10 bits per cell at the default 1% rate of false positives. A cell that was added is
+ * always reported present; one that wasn't is reported present with about the given rate.
+ * <p>
+ * Cells are keyed by {@link #key}, so packed geohashes, base32 geohashes and the cell keys of
+ * varying length from {@link CellTree} all fit.
+ */
+public class CellBloomFilter implements Serializable
+  {
+  public static final double DEFAULT_FALSE_POSITIVES = 0.01;
+
+  private final long[] bits;
+  private final long size;
+  private final int hashes;
+  private int cells = 0;
+
+  /** sized for <code>expected</code> cells at a rate of <code>falsePositives</code> */
+  public CellBloomFilter( long expected, double falsePositives )
+    {
+    double ln2 = Math.log( 2.0 );
+    long wanted = (long) Math.ceil( -Math.max( expected, 1L ) * Math.log( falsePositives ) / ( ln2 * ln2 ) );
+
+    this.bits = new long[ (int) Math.max( 1L, ( wanted + 63 ) / 64 ) ];
+    this.size = 64L * bits.length;
+    this.hashes = (int) Math.max( 1L, Math.round( (double) size / Math.max( expected, 1L ) * ln2 ) );
+    }
+
+  /**
+   * @return the key of a cell: a packed geohash as is, a base32 one packed along with its
+   *         length, so cells of different lengths stay apart
+   */
+  public static long key( Object geohash, boolean packed )
+    {
+    if( packed )
+      return geohash instanceof Number ? ( (Number) geohash ).longValue() : Long.parseLong( geohash.toString() );
+
+    CharSequence value = geohash instanceof CharSequence ? (CharSequence) geohash : geohash.toString();
+
+    return GeoHashUtils.fromBase32( value ) << 4 | value.length();
+    }
+
+  public void add( long key )
+    {
+    long hash = mix( key );
+    long step = mix( hash ) | 1L;
+
+    for( int i = 0; i < hashes; i++ )
+      {
+      long bit = ( ( hash + i * step ) & Long.MAX_VALUE ) % size;
+      bits[ (int) ( bit >>> 6 ) ] |= 1L << bit;
+      }
+
+    cells++;
+    }
+
+  public boolean mightContain( long key )
+    {
+    long hash = mix( key );
+    long step = mix( hash ) | 1L;
+
+    for( int i = 0; i < hashes; i++ )
+      {
+      long bit = ( ( hash + i * step ) & Long.MAX_VALUE ) % size;
+
+      if( ( bits[ (int) ( bit >>> 6 ) ] & ( 1L << bit ) ) == 0 )
+        return false;
+      }
+
+    return true;
+    }
+
+  /** the number of cells added, counting repeats */
+  public int cells()
+    {
+    return cells;
+    }
+
+  public int bytes()
+    {
+    return 8 * bits.length;
+    }
+
+  // the 64 bit finalizer of MurmurHash3, spreading neighboring cells across the whole range
+  private static long mix( long key )
+    {
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    key *= 0xc4ceb9fe1a85ec53L;
+    key ^= key >>> 33;
+    return key;
+    }
+
+  /**
+   * Reads the distinct values of <code>field</code> from <code>tap</code>, then builds a filter
+   * holding just those, so repeats don't inflate its size.
+   */
+  public static CellBloomFilter read( FlowProcess flowProcess, Tap tap, String field, boolean packed, double falsePositives ) throws IOException
+    {
+    long[] keys = new long[ 1024 ];
+    int count = 0;
+    TupleEntryIterator iterator = flowProcess.openTapForRead( tap );
+
+    try
+      {
+      while( iterator.hasNext() )
+        {
+        // shade holds many rows per cell, so drop repeats before growing
+        if( count == keys.length )
+          {
+          count = distinct( keys, count );
+
+          if( count > keys.length / 2 )
+            keys = Arrays.copyOf( keys, 2 * keys.length );
+          }
+
+        keys[ count++ ] = key( iterator.next().getObject( field ), packed );
+        }
+      }
+    finally
+      {
+      iterator.close();
+      }
+
+    int distinct = distinct( keys, count );
+    CellBloomFilter filter = new CellBloomFilter( distinct, falsePositives );
+
+    for( int i = 0; i < distinct; i++ )
+      filter.add( keys[ i ] );
+
+    return filter;
+    }
+
+  // sorts the first count keys and moves one of each to the front, returning how many there are
+  private static int distinct( long[] keys, int count )
+    {
+    Arrays.sort( keys, 0, count );
+    int distinct = 0;
+
+    for( int i = 0; i < count; i++ )
+      {
+      if( i == 0 || keys[ i ] != keys[ i - 1 ] )
+        keys[ distinct++ ] = keys[ i ];
+      }
+
+    return distinct;
+    }
+  }
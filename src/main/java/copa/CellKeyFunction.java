@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package copa;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Function;
+import cascading.operation.FunctionCall;
+import cascading.operation.OperationCall;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+
+/**
+ * Emits the key of the {@link CellTree} leaf holding a point, in place of a fixed length
+ * geohash. The tree is built in the driver and set by {@link #setCells} before the flow is
+ * connected, so it's serialized with the operation rather than rebuilt in every task.
+ * <p>
+ * Expects arguments lat, lng.
+ */
+public class CellKeyFunction extends BaseOperation<CellKeyFunction.Context> implements Function<CellKeyFunction.Context>
+  {
+  public static class Context
+    {
+    CellTree cells;
+    Tuple result = Tuple.size( 1 );
+    }
+
+  protected CellTree cells;
+
+  public CellKeyFunction( Fields fieldDeclaration )
+    {
+    super( 2, fieldDeclaration );
+    }
+
+  public void setCells( CellTree cells )
+    {
+    this.cells = cells;
+    }
+
+  public void prepare( FlowProcess flowProcess, OperationCall<Context> operationCall )
+    {
+    if( cells == null )
+      throw new IllegalStateException( "no cell tree was set before the flow was connected" );
+
+    Context context = new Context();
+    context.cells = cells;
+    operationCall.setContext( context );
+    }
+
+  public void operate( FlowProcess flowProcess, FunctionCall<Context> functionCall )
+    {
+    TupleEntry argument = functionCall.getArguments();
+    Context context = functionCall.getContext();
+
+    context.result.set( 0, context.cells.leaf( argument.getDouble( 0 ), argument.getDouble( 1 ) ) );
+    functionCall.getOutputCollector().add( context.result );
+    }
+
+  public void cleanup( FlowProcess flowProcess, OperationCall<Context> operationCall )
+    {
+    operationCall.setContext( null );
+    }
+  }
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package copa;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Function;
+import cascading.operation.FunctionCall;
+import cascading.operation.OperationCall;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+
+/**
+ * The {@link CellTree} counterpart of {@link GeoHashNeighborFunction}: emits the key of every
+ * leaf holding trees that comes within <code>radius</code> meters of a road segment's bounding
+ * box, so a join on leaf keys meets every tree near the segment once. Segments far from any
+ * tree aren't emitted at all. As with {@link CellKeyFunction}, the tree is set by
+ * {@link #setCells} in the driver.
+ * <p>
+ * Expects arguments lat0, lng0, lat1, lng1.
+ */
+public class CellNeighborFunction extends BaseOperation<CellNeighborFunction.Context> implements Function<CellNeighborFunction.Context>
+  {
+  public static class Context implements CellTree.Visitor
+    {
+    CellTree cells;
+    Tuple result = Tuple.size( 1 );
+    FunctionCall<Context> call;
+
+    public void visit( String leaf )
+      {
+      result.set( 0, leaf );
+      call.getOutputCollector().add( result );
+      }
+    }
+
+  protected CellTree cells;
+  protected double radius = 0.0;
+
+  public CellNeighborFunction( Fields fieldDeclaration, double radius )
+    {
+    super( 4, fieldDeclaration );
+    this.radius = radius;
+    }
+
+  public void setCells( CellTree cells )
+    {
+    this.cells = cells;
+    }
+
+  public void prepare( FlowProcess flowProcess, OperationCall<Context> operationCall )
+    {
+    if( cells == null )
+      throw new IllegalStateException( "no cell tree was set before the flow was connected" );
+
+    Context context = new Context();
+    context.cells = cells;
+    operationCall.setContext( context );
+    }
+
+  public void operate( FlowProcess flowProcess, FunctionCall<Context> functionCall )
+    {
+    TupleEntry argument = functionCall.getArguments();
+    double lat0 = argument.getDouble( 0 );
+    double lng0 = argument.getDouble( 1 );
+    double lat1 = argument.getDouble( 2 );
+    double lng1 = argument.getDouble( 3 );
+
+    double lat_radius = radius / GeoHashNeighborFunction.METERS_PER_DEGREE;
+    double lng_radius = radius / ( GeoHashNeighborFunction.METERS_PER_DEGREE * Math.cos( Math.toRadians( ( lat0 + lat1 ) / 2.0 ) ) );
+
+    Context context = functionCall.getContext();
+    context.call = functionCall;
+    context.cells.cover( Math.min( lat0, lat1 ) - lat_radius, Math.min( lng0, lng1 ) - lng_radius,
+      Math.max( lat0, lat1 ) + lat_radius, Math.max( lng0, lng1 ) + lng_radius, context );
+    }
+
+  public void cleanup( FlowProcess flowProcess, OperationCall<Context> operationCall )
+    {
+    operationCall.setContext( null );
+    }
+  }
@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package copa;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.lucene.spatial.geohash.GeoHashUtils;
+
+import cascading.flow.FlowProcess;
+import cascading.tap.Tap;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryIterator;
+
+/**
+ * A quadtree-like partition of the map into geohash cells of varying length, fine where points
+ * (trees) are dense and coarse where they're sparse, so no cell holds many more than a target
+ * number of points.
+ * <p>
+ * Cells start at a base precision, and any holding more than the target is split into its 32
+ * children, down to a greatest precision. Every point then lies in exactly one leaf cell, found
+ * by {@link #leaf}, and {@link #cover} lists the leaves holding points within a box; a join on
+ * leaf keys matches each tree with the segments covering it, as a join on fixed length geohashes
+ * would.
+ * <p>
+ * The partition is built once, in the driver, and serialized with the operations using it, so
+ * every task looks points up in the same leaves. Not thread safe, as lookups share a buffer.
+ */
+public class CellTree implements Serializable
+  {
+  /** the settings a CellTree is built with, small enough to serialize with an operation */
+  public static class Settings implements Serializable
+    {
+    public final int base;
+    public final int max;
+    public final int target;
+
+    public Settings( int base, int max, int target )
+      {
+      if( base < 1 || max < base || max > MAX_PRECISION )
+        throw new IllegalArgumentException( "precisions must be within 1 <= base <= max <= " + MAX_PRECISION + ", got: " + base + ", " + max );
+
+      this.base = base;
+      this.max = max;
+      this.target = target;
+      }
+    }
+
+  /** the longest cell allowed, leaving room to pack a cell and its length into a long */
+  public static final int MAX_PRECISION = 11;
+
+  private final Settings settings;
+  // cells split into children, and leaves holding points, each packed by key()
+  private final LongSet split = new LongSet();
+  private final LongSet populated = new LongSet();
+  private final char[] buffer;
+  private long[] base_cells = new long[ 9 ];
+
+  private CellTree( Settings settings )
+    {
+    this.settings = settings;
+    this.buffer = new char[ settings.max ];
+    }
+
+  /** builds the partition of the given points */
+  public static CellTree build( Settings settings, double[] lats, double[] lngs, int count )
+    {
+    CellTree tree = new CellTree( settings );
+
+    // each point's cell at the greatest precision, and whether it's still in a split cell
+    long[] finest = new long[ count ];
+    boolean[] active = new boolean[ count ];
+
+    for( int i = 0; i < count; i++ )
+      {
+      finest[ i ] = GeoHashUtils.encodeLong( lats[ i ], lngs[ i ], settings.max );
+      active[ i ] = true;
+      }
+
+    Map<Long, int[]> counts = new HashMap<Long, int[]>();
+
+    for( int level = settings.base; level <= settings.max; level++ )
+      {
+      counts.clear();
+      int shift = 5 * ( settings.max - level );
+
+      for( int i = 0; i < count; i++ )
+        {
+        if( !active[ i ] )
+          continue;
+
+        int[] cell_count = counts.get( finest[ i ] >>> shift );
+
+        if( cell_count == null )
+          counts.put( finest[ i ] >>> shift, cell_count = new int[ 1 ] );
+
+        cell_count[ 0 ]++;
+        }
+
+      for( int i = 0; i < count; i++ )
+        {
+        if( !active[ i ] )
+          continue;
+
+        long cell = finest[ i ] >>> shift;
+
+        if( level < settings.max && counts.get( cell )[ 0 ] > settings.target )
+          {
+          tree.split.add( key( cell, level ) );
+          }
+        else
+          {
+          tree.populated.add( key( cell, level ) );
+          active[ i ] = false;
+          }
+        }
+      }
+
+    return tree;
+    }
+
+  /** reads the points from the given fields of <code>tap</code>, then builds their partition */
+  public static CellTree read( FlowProcess flowProcess, Tap tap, String lat, String lng, Settings settings ) throws IOException
+    {
+    double[] lats = new double[ 1024 ];
+    double[] lngs = new double[ 1024 ];
+    int count = 0;
+    TupleEntryIterator iterator = flowProcess.openTapForRead( tap );
+
+    try
+      {
+      while( iterator.hasNext() )
+        {
+        TupleEntry entry = iterator.next();
+
+        if( count == lats.length )
+          {
+          lats = Arrays.copyOf( lats, 2 * count );
+          lngs = Arrays.copyOf( lngs, 2 * count );
+          }
+
+        lats[ count ] = entry.getDouble( lat );
+        lngs[ count ] = entry.getDouble( lng );
+        count++;
+        }
+      }
+    finally
+      {
+      iterator.close();
+      }
+
+    return build( settings, lats, lngs, count );
+    }
+
+  /** @return the base32 key of the leaf holding the point */
+  public String leaf( double lat, double lng )
+    {
+    long finest = GeoHashUtils.encodeLong( lat, lng, settings.max );
+    int level = settings.base;
+
+    while( level < settings.max && split.contains( key( finest >>> 5 * ( settings.max - level ), level ) ) )
+      level++;
+
+    GeoHashUtils.toBase32( finest >>> 5 * ( settings.max - level ), level, buffer );
+    return new String( buffer, 0, level );
+    }
+
+  public interface Visitor
+    {
+    void visit( String leaf );
+    }
+
+  /** passes the key of each leaf that holds points and meets the box to <code>visitor</code> */
+  public int cover( double min_lat, double min_lng, double max_lat, double max_lng, Visitor visitor )
+    {
+    int level = settings.base;
+    int cells = GeoHashUtils.cover( min_lat, min_lng, max_lat, max_lng, level, base_cells );
+
+    if( cells > base_cells.length )
+      {
+      base_cells = new long[ cells ];
+      GeoHashUtils.cover( min_lat, min_lng, max_lat, max_lng, level, base_cells );
+      }
+
+    double[] bounds = new double[ 4 ];
+    int visited = 0;
+
+    for( int i = 0; i < cells; i++ )
+      visited += cover( base_cells[ i ], level, min_lat, min_lng, max_lat, max_lng, bounds, visitor );
+
+    return visited;
+    }
+
+  private int cover( long cell, int level, double min_lat, double min_lng, double max_lat, double max_lng, double[] bounds, Visitor visitor )
+    {
+    long key = key( cell, level );
+
+    if( populated.contains( key ) )
+      {
+      GeoHashUtils.toBase32( cell, level, buffer );
+      visitor.visit( new String( buffer, 0, level ) );
+      return 1;
+      }
+
+    if( !split.contains( key ) )
+      return 0;
+
+    int visited = 0;
+
+    for( int child = 0; child < 32; child++ )
+      {
+      long next = ( cell << 5 ) | child;
+      GeoHashUtils.bounds( next, level + 1, bounds );
+
+      if( bounds[ 0 ] <= max_lat && bounds[ 2 ] >= min_lat && bounds[ 1 ] <= max_lng && bounds[ 3 ] >= min_lng )
+        visited += cover( next, level + 1, min_lat, min_lng, max_lat, max_lng, bounds, visitor );
+      }
+
+    return visited;
+    }
+
+  public int splitCells()
+    {
+    return split.size();
+    }
+
+  public int leaves()
+    {
+    return populated.size();
+    }
+
+  // a cell and its length in one long, as cells of different lengths may share bits
+  private static long key( long cell, int level )
+    {
+    return ( cell << 4 ) | level;
+    }
+
+  /** an open addressing set of longs, none of them Long.MIN_VALUE */
+  static class LongSet implements Serializable
+    {
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] slots = newSlots( 64 );
+    private int size = 0;
+
+    void add( long value )
+      {
+      if( 2 * ( size + 1 ) > slots.length )
+        rehash();
+
+      int slot = slot( slots, value );
+
+      if( slots[ slot ] == EMPTY )
+        {
+        slots[ slot ] = value;
+        size++;
+        }
+      }
+
+    boolean contains( long value )
+      {
+      return slots[ slot( slots, value ) ] == value;
+      }
+
+    int size()
+      {
+      return size;
+      }
+
+    private void rehash()
+      {
+      long[] old = slots;
+      slots = newSlots( 2 * old.length );
+
+      for( long value : old )
+        {
+        if( value != EMPTY )
+          slots[ slot( slots, value ) ] = value;
+        }
+      }
+
+    private static int slot( long[] slots, long value )
+      {
+      int mask = slots.length - 1;
+      int slot = mix( value ) & mask;
+
+      while( slots[ slot ] != EMPTY && slots[ slot ] != value )
+        slot = ( slot + 1 ) & mask;
+
+      return slot;
+      }
+
+    private static long[] newSlots( int capacity )
+      {
+      long[] slots = new long[ capacity ];
+      Arrays.fill( slots, EMPTY );
+      return slots;
+      }
+    }
+
+  private static int mix( long key )
+    {
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    return (int) key;
+    }
+  }
@@ -0,0 +1,462 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package copa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import cascading.flow.FlowDef;
+import cascading.operation.Identity;
+import cascading.operation.expression.ExpressionFilter;
+import cascading.operation.regex.RegexFilter;
+import cascading.pipe.CoGroup;
+import cascading.pipe.Checkpoint;
+import cascading.pipe.Each;
+import cascading.pipe.Every;
+import cascading.pipe.GroupBy;
+import cascading.pipe.HashJoin;
+import cascading.pipe.Pipe;
+import cascading.pipe.assembly.Discard;
+import cascading.pipe.assembly.Rename;
+import cascading.pipe.assembly.Retain;
+import cascading.pipe.joiner.InnerJoin;
+import cascading.pipe.joiner.LeftJoin;
+import cascading.tuple.Fields;
+
+/**
+ * Assembles the pipes of the copa flows over a set of {@link CopaTaps}, stage by stage: the GIS
+ * parse into parks, trees and roads; the shade join of trees to road segments; the geohashing of
+ * the GPS logs; and the recommendation join of the logs to the shade. The flow definitions then
+ * bind the pipes to the taps, split into flows as the {@link CopaOptions} require.
+ */
+public class CopaAssembly
+  {
+  private final CopaOptions options;
+  private final CopaTaps taps;
+  private Set<String> hotCells = Collections.emptySet();
+
+  // the GIS stage
+  private Pipe gisPipe;
+  private Checkpoint tsvCheck;
+  private Pipe parkPipe;
+  private Pipe metaTreePipe;
+  private Pipe metaRoadPipe;
+  private Pipe treePipe;
+  private Pipe roadPipe;
+  private Pipe treeSinkPipe;
+  private Pipe roadSinkPipe;
+
+  // the shade stage, whose heads read back the tree and road sinks when the GIS stage runs first
+  private Pipe shadeHead;
+  private Pipe shadeTreeHead;
+  private Pipe metaShadePipe;
+  private Pipe shadePipe;
+  private Checkpoint shadeCheck;
+  private Pipe shadeSource;
+  private Pipe shadeJoinPipe;
+
+  // the operations keying by the cells of the tree sink, given the tree by setCells
+  private final List<CellKeyFunction> cellKeys = new ArrayList<CellKeyFunction>();
+  private CellNeighborFunction cellNeighbors;
+
+  // the logs and reco stages
+  private Pipe logsPipe;
+  private ShadeCellFilter cellFilter;
+  private Pipe recoPipe;
+
+  public CopaAssembly( CopaOptions options, CopaTaps taps )
+    {
+    this.options = options;
+    this.taps = taps;
+
+    assembleGis();
+    assembleShade();
+    assembleLogs();
+    assembleReco();
+    }
+
+  /** parses the GIS dump into parks, and trees and roads joined with their metadata */
+  private void assembleGis()
+    {
+    // split the GIS dump into known fields, parsing the tree and road details in the same pass
+    gisPipe = new Each( new Pipe( "gis" ), new Fields( "line" ), new GisParseFunction() );
+
+    // checkpoint the cleaned-up GIS data
+    tsvCheck = new Checkpoint( "tsv", gisPipe );
+
+    // parse the "park" output
+    parkPipe = new Pipe( "park", tsvCheck );
+    parkPipe = new Each( parkPipe, new Fields( "gis_type" ), new RegexFilter( "^" + GisParseFunction.PARK + "$" ) );
+    parkPipe = new Retain( parkPipe, new Fields( "blurb", "misc", "geo", "kind" ) );
+
+    // parse the "tree" output
+    treePipe = new Pipe( "tree", tsvCheck );
+    treePipe = new Each( treePipe, new Fields( "gis_type" ), new RegexFilter( "^" + GisParseFunction.TREE + "$" ) );
+
+    // join with tree metadata
+    metaTreePipe = new Pipe( "meta_tree" );
+    treePipe = new HashJoin( treePipe, new Fields( "tree_species" ), metaTreePipe, new Fields( "species" ), new InnerJoin() );
+    treePipe = new Rename( treePipe, new Fields( "blurb" ), new Fields( "tree_name" ) );
+
+    // determine a tree geohash
+    Fields geohashArguments = new Fields( "tree_lat", "tree_lng" );
+    treePipe = new Each( treePipe, geohashArguments, new GeoHashFunction( new Fields( "tree_geohash" ), 6, options.binaryGeohash ), Fields.ALL );
+
+    treePipe = new Retain( treePipe, CopaTaps.TREE_FIELDS );
+
+    // parse the "road" output
+    roadPipe = new Pipe( "road", tsvCheck );
+    roadPipe = new Each( roadPipe, new Fields( "gis_type" ), new RegexFilter( "^" + GisParseFunction.ROAD + "$" ) );
+
+    // join with road metadata
+    metaRoadPipe = new Pipe( "meta_road" );
+    roadPipe = new HashJoin( roadPipe, new Fields( "surface_type" ), metaRoadPipe, new Fields( "pavement_type" ), new InnerJoin() );
+    roadPipe = new Rename( roadPipe, new Fields( "blurb" ), new Fields( "road_name" ) );
+
+    // estimate albedo based on the road surface age and pavement type
+    Fields albedoArguments = new Fields( "year_construct", "albedo_new", "albedo_worn" );
+    roadPipe = new Each( roadPipe, albedoArguments, new AlbedoFunction( new Fields( "albedo" ), 2002 ), Fields.ALL );
+
+    // generate road segments, with midpoint, y=mx+b, and road_geohash for each
+    Fields segmentArguments = new Fields( "geo" );
+    Fields segmentResults = new Fields( "lat0", "lng0", "alt0", "lat1", "lng1", "alt1", "lat_mid", "lng_mid" );
+    roadPipe = new Each( roadPipe, segmentArguments, new RoadSegmentFunction( segmentResults ), Fields.ALL );
+
+    geohashArguments = new Fields( "lat_mid", "lng_mid" );
+    roadPipe = new Each( roadPipe, geohashArguments, new GeoHashFunction( new Fields( "road_geohash" ), 6, options.binaryGeohash ), Fields.ALL );
+
+    roadPipe = new Retain( roadPipe, CopaTaps.ROAD_FIELDS );
+
+    treeSinkPipe = partitionPipe( treePipe, "tree_geohash" );
+    roadSinkPipe = partitionPipe( roadPipe, "road_geohash" );
+    }
+
+  /** joins trees to the road segments they may shade, keeping those within {@link CopaOptions#shadeDistance} */
+  private void assembleShade()
+    {
+    CellTree.Settings cellSettings = options.cellSettings;
+
+    // join the tree and road pipes to estimate shade, looking into neighboring cells
+    // NB: SHADE_RADIUS is in meters, enough to cover the tree_dist cutoff below in every distance mode
+    if( options.treeIndex )
+      {
+      // read the road sink back in a second flow, and find nearby trees from an index of the tree sink
+      shadeHead = new Pipe( "shade_road" );
+      Fields segmentFields = new Fields( "lat0", "lng0", "lat1", "lng1" );
+      Fields indexFields = options.pruneShuffle ? CopaTaps.TREE_FIELDS.subtract( CopaTaps.TREE_META_FIELDS ) : CopaTaps.TREE_FIELDS;
+      shadePipe = new Each( shadeHead, segmentFields, new TreeIndexFunction( indexFields, taps.tree, Main.SHADE_RADIUS ), Fields.ALL );
+
+      // key each tree by its leaf cell, as the logs will be
+      if( cellSettings != null )
+        shadePipe = new Each( shadePipe, new Fields( "tree_lat", "tree_lng" ), cellKey( "tree_geohash" ), Fields.REPLACE );
+      }
+    else
+      {
+      Pipe roadJoinPipe = roadPipe;
+      Pipe treeJoinPipe = treePipe;
+
+      // the cells are built from the tree sink, so read both sinks back in a second flow and key trees by their leaf
+      if( cellSettings != null )
+        {
+        shadeHead = new Pipe( "shade_road" );
+        shadeTreeHead = new Pipe( "shade_tree" );
+        roadJoinPipe = shadeHead;
+        treeJoinPipe = new Each( shadeTreeHead, new Fields( "tree_lat", "tree_lng" ), cellKey( "tree_geohash" ), Fields.REPLACE );
+        }
+
+      // leave the species details and the unused altitudes out of the CoGroup, which replicates road segments
+      if( options.pruneShuffle )
+        {
+        roadJoinPipe = new Discard( new Pipe( "road_join", roadJoinPipe ), new Fields( "alt0", "alt1" ) );
+        treeJoinPipe = new Discard( new Pipe( "tree_join", treeJoinPipe ), CopaTaps.TREE_META_FIELDS );
+        }
+
+      shadePipe = new Pipe( "shade", roadJoinPipe );
+
+      if( cellSettings != null )
+        {
+        cellNeighbors = new CellNeighborFunction( new Fields( "road_geohash" ), Main.SHADE_RADIUS );
+        shadePipe = new NeighborCellJoin( shadePipe, treeJoinPipe, cellNeighbors );
+        }
+      else
+        shadePipe = new NeighborCellJoin( shadePipe, treeJoinPipe, 6, Main.SHADE_RADIUS, options.binaryGeohash );
+      }
+
+    // calculate the distance from tree to road, then filter for "< ~1 block"
+    // NB: the midpoint estimate is in degrees * 61290, the other modes in meters, each with its own cutoff
+    Fields treeDistArguments = new Fields( "tree_lat", "tree_lng", "lat0", "lng0", "lat1", "lng1" );
+    Fields tree_dist = new Fields( "tree_dist" );
+    shadePipe = new Each( shadePipe, treeDistArguments, new TreeDistanceFunction( tree_dist, options.distanceMode, options.shadeDistance ), Fields.ALL );
+
+    ExpressionFilter distFilter = new ExpressionFilter( "tree_dist > " + options.shadeDistance, Double.class );
+    shadePipe = new Each( shadePipe, tree_dist, distFilter );
+
+    // checkpoint this (big) calculation too
+    if( options.pruneShuffle )
+      {
+      // sort without the species details, then look them up again from the (small) tree metadata
+      // NB: trees without metadata were already dropped by the tree join, so this join only re-attaches details
+      shadePipe = new Retain( shadePipe, CopaTaps.SHADE_FIELDS.subtract( CopaTaps.TREE_META_FIELDS ) );
+      shadePipe = new GroupBy( shadePipe, new Fields( "tree_name" ), new Fields( "tree_dist" ) );
+
+      metaShadePipe = new Pipe( "meta_tree_shade" );
+      Pipe metaJoinPipe = new Rename( metaShadePipe, new Fields( "species" ), new Fields( "meta_species" ) );
+      shadePipe = new HashJoin( shadePipe, new Fields( "species" ), metaJoinPipe, new Fields( "meta_species" ), new LeftJoin() );
+      }
+
+    shadePipe = new Retain( shadePipe, CopaTaps.SHADE_FIELDS );
+
+    if( !options.pruneShuffle )
+      shadePipe = new GroupBy( shadePipe, new Fields( "tree_name" ), new Fields( "tree_dist" ) );
+
+    // whether the shade output is small enough to broadcast is only known once it's written, and
+    // an incremental run may reuse it, so it becomes a sink, read back by a separate reco flow
+    if( options.stagedReco )
+      {
+      shadeSource = new Pipe( "shade_reco" );
+      shadeJoinPipe = shadeSource;
+      }
+    else
+      {
+      shadeCheck = new Checkpoint( "shade", shadePipe );
+      shadeJoinPipe = shadeCheck;
+      }
+
+    // the shade output may be re-read as text, so restore the packed geohash type before joining
+    if( options.binaryGeohash )
+      shadeJoinPipe = new Each( shadeJoinPipe, new Fields( "tree_geohash" ), new Identity( Long.class ), Fields.REPLACE );
+    }
+
+  private void assembleLogs()
+    {
+    logsPipe = keyLogs( new Pipe( "logs" ), options.prefilterReco );
+    }
+
+  /** keys each GPS event by its cell, then filters and compacts the events as the options ask */
+  private Pipe keyLogs( Pipe pipe, boolean prefilter )
+    {
+    // determine the geohash for GPS tracks log events
+    Fields geohashArguments = new Fields( "lat", "lng" );
+
+    if( options.cellSettings != null )
+      pipe = new Each( pipe, geohashArguments, cellKey( "gps_geohash" ), Fields.ALL );
+    else
+      pipe = new Each( pipe, geohashArguments, new GeoHashFunction( new Fields( "gps_geohash" ), 6, options.binaryGeohash ), Fields.ALL );
+
+    // most events land where there's no shade, so drop those before any shuffle
+    if( prefilter )
+      {
+      cellFilter = new ShadeCellFilter( options.binaryGeohash );
+      pipe = new Each( pipe, new Fields( "gps_geohash" ), cellFilter );
+      }
+
+    // a device usually pings several times per cell, so join one visit per run of pings instead
+    if( options.compactTracks )
+      {
+      pipe = new GroupBy( pipe, new Fields( "uuid" ), new Fields( "date" ) );
+      pipe = new Every( pipe, TrackCompactionBuffer.ARGUMENTS, new TrackCompactionBuffer(), Fields.RESULTS );
+      }
+
+    return pipe;
+    }
+
+  /** joins each GPS event to the shade of its cell */
+  private void assembleReco()
+    {
+    // prepare data for recommendations
+    // NB: RHS is large given the sample data, but in practice the logs on the LHS could be much larger
+    recoPipe = new Pipe( "reco", logsPipe );
+
+    if( options.recoSummary )
+      {
+      // roll the shade up into one row per cell, few enough for a HashJoin to hold in memory,
+      // so the logs aren't shuffled and each event meets one row rather than every shaded tree
+      Pipe summaryPipe = new Pipe( "shade_summary", shadeJoinPipe );
+      summaryPipe = new GroupBy( summaryPipe, new Fields( "tree_geohash" ) );
+      summaryPipe = new Every( summaryPipe, ShadeSummaryBuffer.ARGUMENTS, new ShadeSummaryBuffer(), Fields.RESULTS );
+
+      recoPipe = new HashJoin( recoPipe, new Fields( "gps_geohash" ), summaryPipe, new Fields( "tree_geohash" ), new InnerJoin() );
+      }
+    else
+      {
+      // dense cells would otherwise each land on a single reducer
+      if( hotCells.isEmpty() )
+        recoPipe = new CoGroup( recoPipe, new Fields( "gps_geohash" ), shadeJoinPipe, new Fields( "tree_geohash" ), new InnerJoin() );
+      else
+        recoPipe = new SaltedJoin( recoPipe, "gps_geohash", shadeJoinPipe, "tree_geohash", hotCells, options.salts );
+      }
+    }
+
+  /**
+   * @return the flow counting the cells of a sample of the logs for {@link Main#SALT_HOT_CELLS},
+   *         keyed and compacted as the reco join will see them; the events whose coordinates
+   *         don't parse go to the trap rather than failing it
+   */
+  public FlowDef hotCellsFlowDef()
+    {
+    Pipe head = new Pipe( "hot_cells" );
+    Pipe pipe = HotCellSampler.sample( head, options.compactTracks ? "uuid" : null, options.hotCellSample );
+    pipe = HotCellSampler.count( keyLogs( pipe, false ), "gps_geohash" );
+
+    return FlowDef.flowDef().setName( "copa-hot-cells" )
+     .addSource( head, taps.logs )
+     .addTrap( head, taps.hotCellsTrap )
+     .addTailSink( pipe, taps.hotCells )
+    ;
+    }
+
+  /** @return the GIS parse as a flow of its own when {@link CopaOptions#gisStaged}, otherwise null, it being part of {@link #copaFlowDef} */
+  public FlowDef gisFlowDef()
+    {
+    if( !options.gisStaged )
+      return null;
+
+    FlowDef flowDef = FlowDef.flowDef().setName( "copa-gis" );
+    addGis( flowDef );
+
+    return flowDef
+     .addTailSink( treeSinkPipe, taps.treeSink )
+     .addTailSink( roadSinkPipe, taps.roadSink )
+    ;
+    }
+
+  /** @return the shade flow, which also parses the GIS dump unless that's staged, and joins the logs unless the reco flow is */
+  public FlowDef copaFlowDef()
+    {
+    FlowDef flowDef = FlowDef.flowDef().setName( "copa" );
+
+    if( options.gisStaged )
+      {
+      flowDef.addSource( shadeHead, taps.road );
+
+      if( shadeTreeHead != null )
+        flowDef.addSource( shadeTreeHead, taps.tree );
+      }
+    else
+      {
+      addGis( flowDef );
+      flowDef
+       .addSink( treeSinkPipe, taps.treeSink )
+       .addSink( roadSinkPipe, taps.roadSink )
+      ;
+      }
+
+    if( options.pruneShuffle )
+      flowDef.addSource( metaShadePipe, taps.metaTree );
+
+    if( options.stagedReco )
+      {
+      flowDef.addTailSink( partitionPipe( shadePipe, "tree_geohash" ), taps.shadeSink );
+      }
+    else
+      {
+      flowDef
+       .addCheckpoint( shadeCheck, taps.shade )
+       .addSource( logsPipe, taps.logs )
+       .addTailSink( recoPipe, taps.recoSink )
+      ;
+      }
+
+    return flowDef;
+    }
+
+  /**
+   * @param broadcast whether to join map-side against a table of the written shade output,
+   *                  rather than with a CoGroup
+   * @return the reco flow, when {@link CopaOptions#stagedReco}
+   */
+  public FlowDef recoFlowDef( boolean broadcast )
+    {
+    FlowDef flowDef = FlowDef.flowDef().setName( "copa-reco" ).addSource( logsPipe, taps.logs );
+
+    // or join map-side, against a table of the shade output loaded into every task
+    if( broadcast )
+      {
+      Pipe broadcastPipe = new Pipe( "reco_broadcast", logsPipe );
+      broadcastPipe = new Each( broadcastPipe, new Fields( "gps_geohash" ), new ShadeLookupFunction( CopaTaps.SHADE_FIELDS, taps.shade, options.binaryGeohash ), Fields.ALL );
+
+      return flowDef.addTailSink( partitionPipe( broadcastPipe, "gps_geohash" ), taps.recoSink );
+      }
+
+    return flowDef
+     .addSource( shadeSource, taps.shade )
+     .addTailSink( partitionPipe( recoPipe, "gps_geohash" ), taps.recoSink )
+    ;
+    }
+
+  /**
+   * spreads the events of the given cells over {@link CopaOptions#salts} reducers in the reco
+   * join, assembling it again, which must be done before the flow joining the logs is connected
+   */
+  public void setHotCells( Set<String> hotCells )
+    {
+    this.hotCells = hotCells;
+    assembleReco();
+    }
+
+  /** gives the {@link Main#PREFILTER_RECO} filter the shaded cells, which must be done before the reco flow is connected */
+  public void setShadeCells( CellBloomFilter cells )
+    {
+    cellFilter.setCells( cells );
+    }
+
+  /** gives the {@link Main#ADAPTIVE_CELLS} operations the tree built from the tree sink, which must be done before the shade and reco flows are connected */
+  public void setCells( CellTree cells )
+    {
+    for( CellKeyFunction cellKey : cellKeys )
+      cellKey.setCells( cells );
+
+    if( cellNeighbors != null )
+      cellNeighbors.setCells( cells );
+    }
+
+  private CellKeyFunction cellKey( String field )
+    {
+    CellKeyFunction cellKey = new CellKeyFunction( new Fields( field ) );
+    cellKeys.add( cellKey );
+    return cellKey;
+    }
+
+  private void addGis( FlowDef flowDef )
+    {
+    flowDef
+     .addSource( gisPipe, taps.gis )
+     .addTrap( gisPipe, taps.trap )
+     .addCheckpoint( tsvCheck, taps.tsv )
+     .addTailSink( parkPipe, taps.park )
+     .addSource( metaTreePipe, taps.metaTree )
+     .addSource( metaRoadPipe, taps.metaRoad )
+    ;
+    }
+
+  /** @return <code>pipe</code> with the partition of each row, the prefix of its <code>geohash</code>, or just <code>pipe</code> when not partitioning */
+  private Pipe partitionPipe( Pipe pipe, String geohash )
+    {
+    if( options.partitionChars == 0 )
+      return pipe;
+
+    Pipe partitionPipe = new Pipe( pipe.getName() + "_" + GeoHashPartitions.FIELD, pipe );
+
+    return new Each( partitionPipe, new Fields( geohash ), new GeoHashPrefixFunction( new Fields( GeoHashPartitions.FIELD ), options.partitionChars, 6, options.binaryGeohash ), Fields.ALL );
+    }
+  }
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package copa;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The command line options of {@link Main}, resolved once into the settings the flows are
+ * assembled from, including those implied by others, such as which stages run as flows of their
+ * own. Combinations that can't work are rejected here, before anything is planned.
+ * <p>
+ * Loads no Cascading classes, so {@link ShadeService} can parse its options the same way.
+ */
+public class CopaOptions
+  {
+  /** the options shaping only the join of the logs to the shade, which incremental batches may change */
+  private static final Set<String> RECO_ONLY = new HashSet<String>( Arrays.asList( Main.INCREMENTAL, Main.BROADCAST_RECO,
+    Main.RECO_SUMMARY, Main.SALT_HOT_CELLS, Main.HOT_CELL_SAMPLE, Main.COMPACT_TRACKS, Main.PREFILTER_RECO, Main.REGION, Main.MAPPED_LOGS ) );
+
+  public final Properties properties;
+
+  public final boolean local;
+  public final boolean binaryGeohash;
+  public final boolean treeIndex;
+  public final GeoDistance.Mode distanceMode;
+
+  /** the greatest tree_dist kept in the shade output, in the units of {@link #distanceMode} */
+  public final double shadeDistance;
+  public final boolean recoSummary;
+  public final boolean broadcastReco;
+  public final long broadcastLimit;
+  public final boolean incremental;
+  public final boolean binaryCheckpoints;
+  public final boolean pruneShuffle;
+  public final int salts;
+
+  /** the logs are sampled for hot cells to salt; they're sampled at a fixed length, so adaptive cells go without */
+  public final boolean saltHotCells;
+
+  /** the share of the logs, or of the devices when compacting tracks, sampled for hot cells */
+  public final double hotCellSample;
+  public final int cellTarget;
+  public final CellTree.Settings cellSettings;
+  public final boolean compactTracks;
+  public final boolean prefilterReco;
+  public final double falsePositives;
+  public final int partitionChars;
+  public final String region;
+  public final int logThreads;
+
+  /** the GIS parse runs as a flow of its own, as the tree index and adaptive cells read the tree sink */
+  public final boolean gisStaged;
+
+  /** the shade output is written, then read back by a reco flow of its own */
+  public final boolean stagedReco;
+
+  /**
+   * @param properties options as collected by {@link #parseOptions}
+   * @throws IllegalArgumentException on a combination of options that can't work
+   */
+  public CopaOptions( Properties properties )
+    {
+    this.properties = properties;
+
+    local = flag( Main.LOCAL );
+    String adaptive = properties.getProperty( Main.ADAPTIVE_CELLS, "false" );
+    cellTarget = adaptive.equals( "true" ) ? Main.DEFAULT_CELL_TARGET : adaptive.equals( "false" ) ? 0 : Integer.parseInt( adaptive );
+    cellSettings = cellTarget > 0 ? new CellTree.Settings( Main.ADAPTIVE_BASE_PRECISION, Main.ADAPTIVE_MAX_PRECISION, cellTarget ) : null;
+    // cell keys of varying length are only held as Strings
+    binaryGeohash = cellSettings == null && flag( Main.BINARY_GEOHASH );
+    treeIndex = flag( Main.TREE_INDEX );
+    distanceMode = GeoDistance.Mode.valueOf( properties.getProperty( Main.DISTANCE, "midpoint" ).toUpperCase() );
+    shadeDistance = distanceMode == GeoDistance.Mode.MIDPOINT ? Main.SHADE_DISTANCE : Main.SHADE_METERS;
+
+    String broadcast = properties.getProperty( Main.BROADCAST_RECO, "false" );
+    recoSummary = flag( Main.RECO_SUMMARY );
+    broadcastReco = !recoSummary && !broadcast.equals( "false" );
+    broadcastLimit = broadcast.equals( "true" ) || !broadcastReco ? Main.BROADCAST_LIMIT : Long.parseLong( broadcast );
+
+    incremental = flag( Main.INCREMENTAL );
+    binaryCheckpoints = !local && flag( Main.BINARY_CHECKPOINTS );
+    pruneShuffle = flag( Main.PRUNE_SHUFFLE );
+    String salt = properties.getProperty( Main.SALT_HOT_CELLS, "false" );
+    salts = salt.equals( "false" ) ? 1 : salt.equals( "true" ) ? Main.DEFAULT_SALTS : Integer.parseInt( salt );
+    saltHotCells = salts > 1 && cellSettings == null && !recoSummary;
+    hotCellSample = Double.parseDouble( properties.getProperty( Main.HOT_CELL_SAMPLE, String.valueOf( Main.DEFAULT_HOT_CELL_SAMPLE ) ) );
+    compactTracks = flag( Main.COMPACT_TRACKS );
+
+    String prefilter = properties.getProperty( Main.PREFILTER_RECO, "false" );
+    prefilterReco = !prefilter.equals( "false" );
+    falsePositives = prefilter.equals( "true" ) || !prefilterReco ? CellBloomFilter.DEFAULT_FALSE_POSITIVES : Double.parseDouble( prefilter );
+
+    String partition = properties.getProperty( Main.PARTITION_SINKS, "false" );
+    partitionChars = partition.equals( "false" ) ? 0 : partition.equals( "true" ) ? Main.DEFAULT_PARTITION_CHARS : Integer.parseInt( partition );
+    region = properties.getProperty( Main.REGION );
+
+    String mapped = properties.getProperty( Main.MAPPED_LOGS, "false" );
+    logThreads = !local || mapped.equals( "false" ) ? 0 : mapped.equals( "true" ) ? Runtime.getRuntime().availableProcessors() : Integer.parseInt( mapped );
+
+    gisStaged = treeIndex || cellSettings != null;
+    stagedReco = broadcastReco || incremental || prefilterReco || partitionChars > 0;
+
+    // partitions are named by a prefix of the 6 character geohashes, or of the shortest adaptive cells
+    int keyLength = cellSettings != null ? Main.ADAPTIVE_BASE_PRECISION : 6;
+
+    if( partitionChars > keyLength )
+      throw new IllegalArgumentException( Main.PARTITION_SINKS + " takes at most " + keyLength + " characters, got: " + partitionChars );
+
+    // the partitions are written through Hadoop's TemplateTap and read back through a GlobHfs
+    if( local && partitionChars > 0 )
+      throw new IllegalArgumentException( Main.PARTITION_SINKS + " writes through Hadoop taps, so isn't supported with " + Main.LOCAL );
+
+    if( hotCellSample <= 0.0 || hotCellSample > 1.0 )
+      throw new IllegalArgumentException( Main.HOT_CELL_SAMPLE + " takes a share within 0 < share <= 1, got: " + hotCellSample );
+
+    if( region != null && partitionChars == 0 )
+      throw new IllegalArgumentException( Main.REGION + " needs " + Main.PARTITION_SINKS );
+    }
+
+  /**
+   * @return every option given but those in {@link #RECO_ONLY}, as name=value in name order, so an
+   *         {@link Main#INCREMENTAL} run can tell whether the GIS, tree, road and shade outputs were
+   *         written with the same settings
+   */
+  public String gisSettings()
+    {
+    Map<String, String> settings = new TreeMap<String, String>();
+
+    for( String name : properties.stringPropertyNames() )
+      {
+      if( !RECO_ONLY.contains( name ) )
+        settings.put( name, properties.getProperty( name ) );
+      }
+
+    StringBuilder builder = new StringBuilder();
+
+    for( Map.Entry<String, String> setting : settings.entrySet() )
+      builder.append( builder.length() == 0 ? "" : " " ).append( setting.getKey() ).append( '=' ).append( setting.getValue() );
+
+    return builder.toString();
+    }
+
+  private boolean flag( String name )
+    {
+    return Boolean.parseBoolean( properties.getProperty( name, "false" ) );
+    }
+
+  /**
+   * Collects leading <code>--name</code> and <code>--name=value</code> arguments into
+   * <code>options</code>, a bare flag being recorded as "true".
+   *
+   * @return the index of the first positional argument
+   */
+  public static int parseOptions( String[] args, Properties options )
+    {
+    int argc = 0;
+
+    for( ; argc < args.length && args[ argc ].startsWith( "--" ); argc++ )
+      {
+      String option = args[ argc ].substring( 2 );
+      int equals = option.indexOf( '=' );
+
+      if( equals < 0 )
+        options.setProperty( option, "true" );
+      else
+        options.setProperty( option.substring( 0, equals ), option.substring( equals + 1 ) );
+      }
+
+    return argc;
+    }
+  }
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package copa;
+
+import java.io.IOException;
+
+import cascading.flow.FlowProcess;
+import cascading.flow.hadoop.HadoopFlowProcess;
+import cascading.flow.local.LocalFlowProcess;
+import cascading.scheme.Scheme;
+import cascading.scheme.hadoop.SequenceFile;
+import cascading.scheme.hadoop.TextDelimited;
+import cascading.scheme.hadoop.TextLine;
+import cascading.tap.SinkMode;
+import cascading.tap.Tap;
+import cascading.tap.hadoop.GlobHfs;
+import cascading.tap.hadoop.Hfs;
+import cascading.tap.hadoop.TemplateTap;
+import cascading.tap.local.FileTap;
+import cascading.tuple.Fields;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.JobConf;
+
+/**
+ * The sources, sinks and trap of the copa flows, on the local or Hadoop platform as the
+ * {@link CopaOptions} say, over the eleven paths given on the command line. Outputs that later
+ * steps read back have a sink tap, which partitioned outputs write through, and a source tap,
+ * which reads them back; otherwise the two are the same tap.
+ */
+public class CopaTaps
+  {
+  public static final Fields TREE_FIELDS = new Fields( "tree_name", "priv", "tree_id", "situs", "tree_site", "species", "wikipedia", "calflora", "min_height", "max_height", "tree_lat", "tree_lng", "tree_alt", "tree_geohash" );
+  public static final Fields ROAD_FIELDS = new Fields( "road_name", "year_construct", "traffic_count", "traffic_index", "traffic_class", "paving_length", "paving_width", "paving_area", "surface_type", "bike_lane", "bus_route", "truck_route", "albedo", "lat0", "lng0", "alt0", "lat1", "lng1", "alt1", "road_geohash" );
+  public static final Fields SHADE_FIELDS = new Fields( "road_name", "year_construct", "traffic_count", "traffic_index", "traffic_class", "paving_length", "paving_width", "paving_area", "surface_type", "bike_lane", "bus_route", "truck_route", "albedo", "lat0", "lng0", "lat1", "lng1", "tree_name", "priv", "tree_id", "situs", "tree_site", "species", "wikipedia", "calflora", "min_height", "max_height", "tree_lat", "tree_lng", "tree_alt", "tree_dist", "tree_geohash" );
+
+  /** the species details the tree output takes from meta_tree */
+  public static final Fields TREE_META_FIELDS = new Fields( "wikipedia", "calflora", "min_height", "max_height" );
+
+  /** the GPS log columns {@link Main#MAPPED_LOGS} keeps, as text and as numbers */
+  public static final Fields LOG_TEXT = new Fields( "date", "uuid" );
+  public static final Fields LOG_NUMBERS = new Fields( "lat", "lng", "speed" );
+
+  public final String gisPath;
+  public final String metaTreePath;
+  public final String metaRoadPath;
+  public final String logsPath;
+  public final String trapPath;
+  public final String tsvPath;
+  public final String treePath;
+  public final String roadPath;
+  public final String parkPath;
+  public final String shadePath;
+  public final String recoPath;
+
+  public final Tap gis;
+  public final Tap metaTree;
+  public final Tap metaRoad;
+  public final Tap logs;
+  public final Tap trap;
+  public final Tap tsv;
+  public final Tap park;
+  public final Tap tree;
+  public final Tap road;
+  public final Tap shade;
+  public final Tap treeSink;
+  public final Tap roadSink;
+  public final Tap shadeSink;
+  public final Tap recoSink;
+
+  /** the sampled GPS events of each cell, and the events whose coordinates didn't parse, beside reco */
+  public final Tap hotCells;
+  public final Tap hotCellsTrap;
+
+  /** @param paths the inputs gis, meta_tree, meta_road and logs, then the outputs trap, tsv, tree, road, park, shade and reco */
+  public CopaTaps( CopaOptions options, String... paths )
+    {
+    if( paths.length != 11 )
+      throw new IllegalArgumentException( "expected 4 input and 7 output paths, got " + paths.length );
+
+    gisPath = paths[ 0 ];
+    metaTreePath = paths[ 1 ];
+    metaRoadPath = paths[ 2 ];
+    logsPath = paths[ 3 ];
+    trapPath = paths[ 4 ];
+    tsvPath = paths[ 5 ];
+    treePath = paths[ 6 ];
+    roadPath = paths[ 7 ];
+    parkPath = paths[ 8 ];
+    shadePath = paths[ 9 ];
+    recoPath = paths[ 10 ];
+
+    boolean local = options.local;
+    boolean binary = options.binaryCheckpoints;
+
+    // NB: an incremental run rebuilds the GIS outputs in place once its inputs change
+    SinkMode gisSinkMode = options.incremental ? SinkMode.REPLACE : SinkMode.KEEP;
+
+    gis = lineTap( local, gisPath );
+    metaTree = delimitedTap( local, Fields.ALL, "\t", metaTreePath );
+    metaRoad = delimitedTap( local, Fields.ALL, "\t", metaRoadPath );
+
+    if( options.logThreads > 0 )
+      logs = new FileTap( new MappedLogScheme( LOG_TEXT, LOG_NUMBERS, options.logThreads ), logsPath );
+    else
+      logs = delimitedTap( local, Fields.ALL, ",", logsPath );
+
+    trap = delimitedTap( local, Fields.ALL, "\t", trapPath, gisSinkMode );
+    tsv = checkpointTap( local, binary, GisParseFunction.FIELDS, tsvPath, gisSinkMode );
+    park = delimitedTap( local, Fields.ALL, "\t", parkPath, gisSinkMode );
+    Tap treeTap = checkpointTap( local, binary, TREE_FIELDS, treePath, gisSinkMode );
+    Tap roadTap = checkpointTap( local, binary, ROAD_FIELDS, roadPath, gisSinkMode );
+    Tap shadeTap = checkpointTap( local, binary, SHADE_FIELDS, shadePath, gisSinkMode );
+    Tap recoTap = delimitedTap( local, Fields.ALL, "\t", recoPath );
+    hotCells = delimitedTap( local, Fields.ALL, "\t", recoPath + ".hot-cells", SinkMode.REPLACE );
+    hotCellsTrap = delimitedTap( local, Fields.ALL, "\t", recoPath + ".hot-cells-trap", SinkMode.REPLACE );
+
+    // partitioned outputs are written through a TemplateTap, then read back through a glob of their part files
+    if( options.partitionChars > 0 )
+      {
+      treeSink = partitionSinkTap( treeTap, gisSinkMode );
+      roadSink = partitionSinkTap( roadTap, gisSinkMode );
+      shadeSink = partitionSinkTap( shadeTap, gisSinkMode );
+      recoSink = partitionSinkTap( recoTap, SinkMode.KEEP );
+      tree = partitionSourceTap( binary, TREE_FIELDS, treePath, null );
+      road = partitionSourceTap( binary, ROAD_FIELDS, roadPath, null );
+      shade = partitionSourceTap( binary, SHADE_FIELDS, shadePath, options.region == null ? null : GeoHashPartitions.prefixes( options.region, options.partitionChars ) );
+      }
+    else
+      {
+      treeSink = tree = treeTap;
+      roadSink = road = roadTap;
+      shadeSink = shade = shadeTap;
+      recoSink = recoTap;
+      }
+
+    }
+
+  /** @return a FlowProcess for reading taps outside of a flow */
+  public static FlowProcess
+  flowProcess( boolean local )
+    {
+    if( local )
+      return new LocalFlowProcess();
+
+    return new HadoopFlowProcess( new JobConf() );
+    }
+
+  /** @return a tap reading each line of <code>path</code> as the field "line" */
+  public static Tap
+  lineTap( boolean local, String path )
+    {
+    if( local )
+      return new FileTap( new cascading.scheme.local.TextLine( new Fields( "line" ) ), path );
+
+    return new Hfs( new TextLine( new Fields( "line" ) ), path );
+    }
+
+  /** @return a tap for delimited text with a header line, on the local or Hadoop platform */
+  public static Tap
+  delimitedTap( boolean local, Fields fields, String delimiter, String path )
+    {
+    return delimitedTap( local, fields, delimiter, path, SinkMode.KEEP );
+    }
+
+  public static Tap
+  delimitedTap( boolean local, Fields fields, String delimiter, String path, SinkMode sinkMode )
+    {
+    if( local )
+      return new FileTap( new cascading.scheme.local.TextDelimited( fields, true, delimiter ), path, sinkMode );
+
+    return new Hfs( new TextDelimited( fields, true, delimiter ), path, sinkMode );
+    }
+
+  /**
+   * @return a tap for an output read back by later steps: a SequenceFile of the given fields,
+   *         keeping the type of each value, when <code>binary</code>, otherwise headered TSV
+   */
+  public static Tap
+  checkpointTap( boolean local, boolean binary, Fields fields, String path, SinkMode sinkMode )
+    {
+    if( binary && !local )
+      return new Hfs( new SequenceFile( fields ), path, sinkMode );
+
+    return delimitedTap( local, fields, "\t", path, sinkMode );
+    }
+
+  /**
+   * @return a tap writing each row beneath the directory of its {@link GeoHashPartitions#FIELD}, within the path of <code>parent</code>,
+   *         which must be a Hadoop tap, as {@link CopaOptions} ensures by rejecting {@link Main#PARTITION_SINKS} with {@link Main#LOCAL}
+   */
+  public static Tap
+  partitionSinkTap( Tap parent, SinkMode sinkMode )
+    {
+    if( !( parent instanceof Hfs ) )
+      throw new IllegalArgumentException( "partitions can only be written beneath a Hadoop tap, got: " + parent );
+
+    return new TemplateTap( (Hfs) parent, "%s", new Fields( GeoHashPartitions.FIELD ), sinkMode );
+    }
+
+  /** @return a tap reading the given partitions of an output written by {@link #partitionSinkTap}, or all of them for null */
+  public static Tap
+  partitionSourceTap( boolean binary, Fields fields, String path, String[] prefixes )
+    {
+    Scheme scheme = binary ? new SequenceFile( fields ) : new TextDelimited( fields, true, "\t" );
+
+    return new GlobHfs( scheme, GeoHashPartitions.glob( path, prefixes ) );
+    }
+
+  /** @return whether any file matches the Hadoop glob, such as one from {@link GeoHashPartitions#glob} */
+  public static boolean
+  globMatches( String glob ) throws IOException
+    {
+    Path path = new Path( glob );
+    FileStatus[] matches = path.getFileSystem( new JobConf() ).globStatus( path );
+
+    return matches != null && matches.length > 0;
+    }
+  }
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package copa;
+
+/**
+ * Allocation-free distance kernels between a point and a road segment, all in degrees in
+ * and, except for {@link Mode#MIDPOINT}, meters out.
+ */
+public class GeoDistance
+  {
+  public enum Mode
+    {
+      /** euclidean distance in degrees to the segment midpoint, scaled by 61290 (legacy) */
+      MIDPOINT,
+      /** distance in meters to the nearest point of the segment, on an equirectangular projection */
+      SEGMENT,
+      /** great circle distance in meters to the nearest point of the segment */
+      HAVERSINE
+    }
+
+  public static final double EARTH_RADIUS = 6371008.8;
+  public static final double METERS_PER_DEGREE = EARTH_RADIUS * Math.PI / 180.0;
+
+  // cos( latitude ) in steps of 0.1 degree, interpolated linearly in between
+  private static final double COS_STEP = 0.1;
+  private static final double[] COS_LAT = new double[ (int) ( 180.0 / COS_STEP ) + 2 ];
+
+  static
+    {
+    for( int i = 0; i < COS_LAT.length; i++ )
+      COS_LAT[ i ] = Math.cos( Math.toRadians( -90.0 + i * COS_STEP ) );
+    }
+
+  /** @return cos( lat ), from a precomputed table, to within about 1e-6 */
+  public static double cosLatitude( double lat )
+    {
+    double x = ( Math.max( -90.0, Math.min( 90.0, lat ) ) + 90.0 ) / COS_STEP;
+    int i = (int) x;
+    double f = x - i;
+    return COS_LAT[ i ] + f * ( COS_LAT[ i + 1 ] - COS_LAT[ i ] );
+    }
+
+  public static double distance( Mode mode, double lat, double lng, double lat0, double lng0, double lat1, double lng1 )
+    {
+    switch( mode )
+      {
+      case SEGMENT:
+        return segment( lat, lng, lat0, lng0, lat1, lng1 );
+      case HAVERSINE:
+        return haversineSegment( lat, lng, lat0, lng0, lat1, lng1 );
+      default:
+        return midpoint( lat, lng, lat0, lng0, lat1, lng1 );
+      }
+    }
+
+  /** the original approximation: degrees to the segment midpoint times 61290 */
+  public static double midpoint( double lat, double lng, double lat0, double lng0, double lat1, double lng1 )
+    {
+    return Math.hypot( lat - ( ( lat0 + lat1 ) / 2.0 ), lng - ( ( lng0 + lng1 ) / 2.0 ) ) * 61290.0;
+    }
+
+  /** meters from the point to the nearest point of the segment, clamped to its end points */
+  public static double segment( double lat, double lng, double lat0, double lng0, double lat1, double lng1 )
+    {
+    double k = cosLatitude( lat );
+
+    // project onto a local plane in degrees of latitude, centered on the point
+    double x0 = ( lng0 - lng ) * k, y0 = lat0 - lat;
+    double dx = ( lng1 - lng0 ) * k, dy = lat1 - lat0;
+    double t = clampedProjection( x0, y0, dx, dy );
+
+    double x = x0 + t * dx, y = y0 + t * dy;
+    return Math.sqrt( x * x + y * y ) * METERS_PER_DEGREE;
+    }
+
+  /** great circle meters from the point to the nearest point of the segment, found on the plane */
+  public static double haversineSegment( double lat, double lng, double lat0, double lng0, double lat1, double lng1 )
+    {
+    double k = cosLatitude( lat );
+    double t = clampedProjection( ( lng0 - lng ) * k, lat0 - lat, ( lng1 - lng0 ) * k, lat1 - lat0 );
+
+    return haversine( lat, lng, lat0 + t * ( lat1 - lat0 ), lng0 + t * ( lng1 - lng0 ) );
+    }
+
+  public static double haversine( double lat0, double lng0, double lat1, double lng1 )
+    {
+    double sin_lat = Math.sin( Math.toRadians( lat1 - lat0 ) / 2.0 );
+    double sin_lng = Math.sin( Math.toRadians( lng1 - lng0 ) / 2.0 );
+    double a = sin_lat * sin_lat + cosLatitude( lat0 ) * cosLatitude( lat1 ) * sin_lng * sin_lng;
+
+    return 2.0 * EARTH_RADIUS * Math.asin( Math.min( 1.0, Math.sqrt( a ) ) );
+    }
+
+  // fraction along (dx, dy) from (x0, y0) of the point nearest the origin, within [0, 1]
+  private static double clampedProjection( double x0, double y0, double dx, double dy )
+    {
+    double len2 = dx * dx + dy * dy;
+
+    if( len2 == 0.0 )
+      return 0.0;
+
+    double t = -( x0 * dx + y0 * dy ) / len2;
+    return t < 0.0 ? 0.0 : ( t > 1.0 ? 1.0 : t );
+    }
+  }
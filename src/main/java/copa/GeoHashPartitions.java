@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package copa;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.spatial.geohash.GeoHashUtils;
+
+/**
+ * The layout of outputs partitioned by geohash prefix: each row is written beneath a directory
+ * named for the first few characters of its geohash, as <code>tree/9q9j/part-00000</code>, so a
+ * reader interested in one area can open only the directories of the prefixes covering it.
+ * <p>
+ * Kept free of Cascading, for readers such as {@link ShadeService} that run without it.
+ */
+public class GeoHashPartitions
+  {
+  /** the field holding each row's partition, written by {@link GeoHashPrefixFunction} */
+  public static final String FIELD = "partition";
+
+  /** @return the prefixes of <code>chars</code> characters whose cells meet the box */
+  public static String[] prefixes( double min_lat, double min_lng, double max_lat, double max_lng, int chars )
+    {
+    long[] cells = new long[ 64 ];
+    int count = GeoHashUtils.cover( min_lat, min_lng, max_lat, max_lng, chars, cells );
+
+    if( count > cells.length )
+      {
+      cells = new long[ count ];
+      GeoHashUtils.cover( min_lat, min_lng, max_lat, max_lng, chars, cells );
+      }
+
+    char[] buffer = new char[ chars ];
+    String[] prefixes = new String[ count ];
+
+    for( int i = 0; i < count; i++ )
+      {
+      GeoHashUtils.toBase32( cells[ i ], chars, buffer );
+      prefixes[ i ] = new String( buffer );
+      }
+
+    return prefixes;
+    }
+
+  /** @return the prefixes meeting a box given as <code>min_lat,min_lng,max_lat,max_lng</code> */
+  public static String[] prefixes( String box, int chars )
+    {
+    double[] corners = box( box );
+
+    return prefixes( corners[ 0 ], corners[ 1 ], corners[ 2 ], corners[ 3 ], chars );
+    }
+
+  /** @return the corners of a box given as <code>min_lat,min_lng,max_lat,max_lng</code> */
+  public static double[] box( String box )
+    {
+    String[] corners = box.split( "," );
+
+    if( corners.length != 4 )
+      throw new IllegalArgumentException( "expected min_lat,min_lng,max_lat,max_lng, got: " + box );
+
+    double[] values = new double[ 4 ];
+
+    for( int i = 0; i < 4; i++ )
+      values[ i ] = Double.parseDouble( corners[ i ].trim() );
+
+    return values;
+    }
+
+  /**
+   * @return a Hadoop glob matching the part files of the given partitions beneath
+   *         <code>path</code>, or of every partition for null
+   */
+  public static String glob( String path, String[] prefixes )
+    {
+    if( prefixes == null )
+      return path + "/*/part-*";
+
+    StringBuilder glob = new StringBuilder( path ).append( "/{" );
+
+    for( int i = 0; i < prefixes.length; i++ )
+      glob.append( i == 0 ? "" : "," ).append( prefixes[ i ] );
+
+    return glob.append( "}/part-*" ).toString();
+    }
+
+  /**
+   * @return the partition directories of a local copy of a partitioned output that meet the
+   *         box, the prefix length being taken from the directory names, or null when
+   *         <code>path</code> isn't partitioned
+   */
+  public static List<File> directories( File path, double min_lat, double min_lng, double max_lat, double max_lng )
+    {
+    List<File> directories = new ArrayList<File>();
+    File[] children = path.listFiles();
+    int chars = 0;
+
+    for( File child : children == null ? new File[ 0 ] : children )
+      {
+      if( child.isDirectory() && !child.getName().startsWith( "_" ) && !child.getName().startsWith( "." ) )
+        chars = child.getName().length();
+      }
+
+    if( chars == 0 )
+      return null;
+
+    for( String prefix : prefixes( min_lat, min_lng, max_lat, max_lng, chars ) )
+      {
+      File directory = new File( path, prefix );
+
+      if( directory.isDirectory() )
+        directories.add( directory );
+      }
+
+    return directories;
+    }
+  }
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package copa;
+
+import org.apache.lucene.spatial.geohash.GeoHashUtils;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Function;
+import cascading.operation.FunctionCall;
+import cascading.operation.OperationCall;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+
+/**
+ * Emits the first <code>chars</code> characters of a geohash, naming the partition a row is
+ * written to; see {@link GeoHashPartitions}.
+ * <p>
+ * Expects one argument: a base32 geohash or cell key at least <code>chars</code> long, or, when
+ * <code>packed</code>, a Long holding a geohash of <code>hash_length</code> characters.
+ */
+public class GeoHashPrefixFunction extends BaseOperation<GeoHashPrefixFunction.Context> implements Function<GeoHashPrefixFunction.Context>
+  {
+  public static class Context
+    {
+    char[] buffer;
+    Tuple result = Tuple.size( 1 );
+    }
+
+  protected int chars = 0;
+  protected int hash_length = 0;
+  protected boolean packed = false;
+
+  public GeoHashPrefixFunction( Fields fieldDeclaration, int chars, int hash_length, boolean packed )
+    {
+    super( 1, fieldDeclaration );
+    this.chars = chars;
+    this.hash_length = hash_length;
+    this.packed = packed;
+    }
+
+  public void prepare( FlowProcess flowProcess, OperationCall<Context> operationCall )
+    {
+    Context context = new Context();
+    context.buffer = new char[ chars ];
+    operationCall.setContext( context );
+    }
+
+  public void operate( FlowProcess flowProcess, FunctionCall<Context> functionCall )
+    {
+    Context context = functionCall.getContext();
+    Tuple result = context.result;
+
+    if( packed )
+      {
+      long geohash = functionCall.getArguments().getLong( 0 );
+      GeoHashUtils.toBase32( geohash >>> 5 * ( hash_length - chars ), chars, context.buffer );
+      result.set( 0, new String( context.buffer ) );
+      }
+    else
+      {
+      result.set( 0, functionCall.getArguments().getString( 0 ).substring( 0, chars ) );
+      }
+
+    functionCall.getOutputCollector().add( result );
+    }
+  }
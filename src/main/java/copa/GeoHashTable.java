@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package copa;
+
+/**
+ * A multimap from packed geohash cells to the int row numbers added under them, held in
+ * primitive arrays.
+ * <p>
+ * Rows are added first, then on the first query they're grouped by cell with a counting sort,
+ * so each cell's rows sit together in one <code>int[]</code>, found through an open addressing
+ * table of cells. At 32 bytes or so per cell plus 12 per row, this is far smaller than a HashMap
+ * of boxed Longs to Lists, and a cell's rows are read sequentially.
+ * <p>
+ * Not thread safe, as the hits of the last query are held by the table. Once grouped, though,
+ * {@link #find(long)} and the accessors after it only read, so may be shared between threads.
+ */
+public class GeoHashTable
+  {
+  private long[] added = new long[ 1024 ];
+  private int rows = 0;
+
+  // after grouping: the cell in each slot, and the range of sorted holding its rows
+  private long[] keys;
+  private int[] starts;
+  private int[] ends;
+  private int[] sorted;
+  private int cells = 0;
+
+  private int hitStart = 0;
+  private int hitCount = 0;
+
+  /** @return the number assigned to the new row under <code>geohash</code>, counting from 0 */
+  public int add( long geohash )
+    {
+    if( sorted != null )
+      throw new IllegalStateException( "rows can't be added once the table is queried" );
+
+    if( rows == added.length )
+      {
+      long[] grown = new long[ added.length * 2 ];
+      System.arraycopy( added, 0, grown, 0, rows );
+      added = grown;
+      }
+
+    added[ rows ] = geohash;
+    return rows++;
+    }
+
+  /** @return the number of rows under <code>geohash</code>, each then available from {@link #getHit(int)} */
+  public int query( long geohash )
+    {
+    if( sorted == null )
+      group();
+
+    int slot = slot( geohash );
+    hitStart = starts[ slot ];
+    hitCount = ends[ slot ] - starts[ slot ];
+
+    return hitCount;
+    }
+
+  /** @return the i-th row found by the last query, in the order rows were added */
+  public int getHit( int i )
+    {
+    return sorted[ hitStart + i ];
+    }
+
+  /**
+   * Looks up a cell without recording it as the last query's hits. Call {@link #group()} once
+   * beforehand if other threads will be reading.
+   *
+   * @return a handle on the rows under <code>geohash</code>, which are {@link #row(int)} for
+   *         {@link #start(int)} &lt;= i &lt; {@link #end(int)}
+   */
+  public int find( long geohash )
+    {
+    if( sorted == null )
+      group();
+
+    return slot( geohash );
+    }
+
+  public int start( int handle )
+    {
+    return starts[ handle ];
+    }
+
+  public int end( int handle )
+    {
+    return ends[ handle ];
+    }
+
+  public int row( int i )
+    {
+    return sorted[ i ];
+    }
+
+  public int cells()
+    {
+    if( sorted == null )
+      group();
+
+    return cells;
+    }
+
+  public int rows()
+    {
+    return rows;
+    }
+
+  /** groups the rows added so far by cell, which otherwise happens on the first query */
+  public void group()
+    {
+    if( sorted != null )
+      return;
+
+    int capacity = 16;
+
+    while( capacity < 2 * Math.min( rows, 1024 ) )
+      capacity <<= 1;
+
+    keys = new long[ capacity ];
+    starts = new int[ capacity ];
+    ends = new int[ capacity ];
+
+    // count the rows in each cell, in ends for now
+    for( int row = 0; row < rows; row++ )
+      {
+      if( 2 * ( cells + 1 ) > keys.length )
+        rehash( keys.length * 2 );
+
+      int slot = slot( added[ row ] );
+
+      if( ends[ slot ] == 0 )
+        {
+        keys[ slot ] = added[ row ];
+        cells++;
+        }
+
+      ends[ slot ]++;
+      }
+
+    // then lay the cells out one after another, and fill each in the order its rows were added
+    int offset = 0;
+
+    for( int slot = 0; slot < keys.length; slot++ )
+      {
+      starts[ slot ] = offset;
+      offset += ends[ slot ];
+      ends[ slot ] = offset;
+      }
+
+    int[] fill = starts.clone();
+    sorted = new int[ rows ];
+
+    for( int row = 0; row < rows; row++ )
+      sorted[ fill[ slot( added[ row ] ) ]++ ] = row;
+
+    added = null;
+    }
+
+  // the slot holding geohash, or the empty slot where it belongs
+  private int slot( long geohash )
+    {
+    int mask = keys.length - 1;
+    int slot = mix( geohash ) & mask;
+
+    while( ends[ slot ] != starts[ slot ] && keys[ slot ] != geohash )
+      slot = ( slot + 1 ) & mask;
+
+    return slot;
+    }
+
+  private void rehash( int capacity )
+    {
+    long[] oldKeys = keys;
+    int[] oldCounts = ends;
+
+    keys = new long[ capacity ];
+    starts = new int[ capacity ];
+    ends = new int[ capacity ];
+
+    for( int i = 0; i < oldKeys.length; i++ )
+      {
+      if( oldCounts[ i ] == 0 )
+        continue;
+
+      int slot = slot( oldKeys[ i ] );
+      keys[ slot ] = oldKeys[ i ];
+      ends[ slot ] = oldCounts[ i ];
+      }
+    }
+
+  // neighboring cells share their high bits, so scramble them all into the low ones
+  private static int mix( long key )
+    {
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    return (int) key;
+    }
+  }
@@ -0,0 +1,430 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package copa;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Function;
+import cascading.operation.FunctionCall;
+import cascading.operation.OperationCall;
+import cascading.operation.OperationException;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+
+/**
+ * Parses a line of the GIS dump in one pass: splits the four quoted CSV columns, classifies the
+ * record as a park, tree or road by the start of its "misc" column, and pulls out the labeled
+ * <code>Key: value</code> fields that kind of record carries.
+ * <p>
+ * This stands in for the chain of regular expressions previously applied to each line, and
+ * follows them field for field. Where those expressions skip ahead with a greedy <code>.*</code>,
+ * the scan moves on to the next occurrence of the label rather than the last; the two only
+ * differ if a label is repeated within a record.
+ * <p>
+ * Declares {@link #FIELDS}. Fields that don't apply to the kind of record are null, as are all
+ * the parsed fields of records that don't match their expected layout, with gis_type null too.
+ * Lines that aren't four quoted columns throw, so they go to the trap.
+ */
+public class GisParseFunction extends BaseOperation<GisParseFunction.Context> implements Function<GisParseFunction.Context>
+  {
+  public static class Context
+    {
+    Tuple result = Tuple.size( FIELDS.size() );
+    OperationStats stats = new OperationStats( "GisParseFunction", "parse_failures", "unrecognized", PARK, TREE, ROAD );
+    }
+
+  public static final String PARK = "park";
+  public static final String TREE = "tree";
+  public static final String ROAD = "road";
+
+  public static final Fields GIS_FIELDS = new Fields( "blurb", "misc", "geo", "kind", "gis_type" );
+  public static final Fields TREE_FIELDS = new Fields( "priv", "tree_id", "situs", "tree_site", "raw_species", "tree_species", "tree_lat", "tree_lng", "tree_alt" );
+  public static final Fields ROAD_FIELDS = new Fields( "year_construct", "traffic_count", "traffic_index", "traffic_class", "paving_length", "paving_width", "paving_area", "surface_type", "bike_lane", "bus_route", "truck_route" );
+  public static final Fields FIELDS = GIS_FIELDS.append( TREE_FIELDS ).append( ROAD_FIELDS );
+
+  private static final int TREE_POS = GIS_FIELDS.size();
+  private static final int ROAD_POS = TREE_POS + TREE_FIELDS.size();
+
+  // positions of the operation's own counters
+  private static final int PARSE_FAILURES = 0;
+  private static final int UNRECOGNIZED = 1;
+  private static final int PARK_RECORDS = 2;
+  private static final int TREE_RECORDS = 3;
+  private static final int ROAD_RECORDS = 4;
+
+  // the gis_type of each kind of record, by the position of its counter
+  private static final String[] GIS_TYPES = {null, null, PARK, TREE, ROAD};
+
+  public GisParseFunction()
+    {
+    super( 1, FIELDS );
+    }
+
+  public void prepare( FlowProcess flowProcess, OperationCall<Context> operationCall )
+    {
+    operationCall.setContext( new Context() );
+    }
+
+  public void operate( FlowProcess flowProcess, FunctionCall<Context> functionCall )
+    {
+    Context context = functionCall.getContext();
+    long start = context.stats.begin();
+    String line = functionCall.getArguments().getString( 0 );
+    Tuple result = context.result;
+
+    for( int i = 0; i < result.size(); i++ )
+      result.set( i, null );
+
+    try
+      {
+      splitColumns( line, result );
+      }
+    catch( OperationException exception )
+      {
+      // counted here, then on to the trap
+      context.stats.increment( PARSE_FAILURES, 1 );
+      throw exception;
+      }
+
+    Scanner misc = new Scanner( result.getString( 1 ) );
+    int record = UNRECOGNIZED;
+
+    if( misc.startsWith( "Community Type:" ) )
+      record = parsePark( misc ) ? PARK_RECORDS : UNRECOGNIZED;
+    else if( misc.startsWith( "Private:" ) )
+      record = parseTree( misc, result.getString( 2 ), result ) ? TREE_RECORDS : UNRECOGNIZED;
+    else if( misc.startsWith( "Sequence:" ) )
+      record = parseRoad( misc, result ) ? ROAD_RECORDS : UNRECOGNIZED;
+
+    if( record == UNRECOGNIZED )
+      {
+      for( int i = TREE_POS; i < result.size(); i++ )
+        result.set( i, null );
+      }
+
+    context.stats.increment( record, 1 );
+    result.set( 4, GIS_TYPES[ record ] );
+    functionCall.getOutputCollector().add( result );
+    context.stats.end( start, 1 );
+    }
+
+  public void cleanup( FlowProcess flowProcess, OperationCall<Context> operationCall )
+    {
+    operationCall.getContext().stats.flush( flowProcess );
+    }
+
+  /**
+   * Splits <code>"blurb","misc","geo","kind"</code> into the first four positions of
+   * <code>result</code>. Like a greedy regex, the columns break at the last three
+   * <code>","</code> separators.
+   */
+  static void splitColumns( String line, Tuple result )
+    {
+    int end = line.length() - 1;
+
+    if( end < 1 || line.charAt( 0 ) != '"' || line.charAt( end ) != '"' )
+      throw new OperationException( "not a quoted GIS record: " + line );
+
+    int sep3 = line.lastIndexOf( "\",\"", end - 3 );
+    int sep2 = sep3 < 3 ? -1 : line.lastIndexOf( "\",\"", sep3 - 3 );
+    int sep1 = sep2 < 3 ? -1 : line.lastIndexOf( "\",\"", sep2 - 3 );
+
+    if( sep1 < 1 )
+      throw new OperationException( "not a quoted GIS record: " + line );
+
+    result.set( 0, line.substring( 1, sep1 ) );
+    result.set( 1, line.substring( sep1 + 3, sep2 ) );
+    result.set( 2, line.substring( sep2 + 3, sep3 ) );
+    result.set( 3, line.substring( sep3 + 3, end ) );
+    }
+
+  // ^\s+Community Type\:\s+Park.*$
+  static boolean parsePark( Scanner misc )
+    {
+    return misc.space() && misc.label( "Community Type:" ) && misc.space() && misc.label( "Park" );
+    }
+
+  // ^\s+Private\:\s+(\S+)\s+Tree ID\:\s+(\d+)\s+.*Situs Number\:\s+(\d+)\s+Tree Site\:\s+(\d+)\s+Species\:\s+(\S.*\S)\s+Source.*$
+  static boolean parseTree( Scanner misc, String geo, Tuple result )
+    {
+    String priv, tree_id, situs, tree_site, raw_species;
+
+    if( !( misc.space() && misc.label( "Private:" ) && misc.space() ) || ( priv = misc.token() ) == null )
+      return false;
+
+    if( !( misc.space() && misc.label( "Tree ID:" ) && misc.space() ) || ( tree_id = misc.digits() ) == null || !misc.space() )
+      return false;
+
+    if( !misc.seek( "Situs Number:" ) || !misc.space() || ( situs = misc.digits() ) == null )
+      return false;
+
+    if( !( misc.space() && misc.label( "Tree Site:" ) && misc.space() ) || ( tree_site = misc.digits() ) == null )
+      return false;
+
+    if( !( misc.space() && misc.label( "Species:" ) && misc.space() ) || ( raw_species = misc.textBefore( "Source", false ) ) == null )
+      return false;
+
+    // scrub "species" as a primary key: ^([\w\s]+).*$ then trim and lower case
+    int scrub = 0;
+
+    while( scrub < raw_species.length() && ( isWord( raw_species.charAt( scrub ) ) || Character.isWhitespace( raw_species.charAt( scrub ) ) ) )
+      scrub++;
+
+    if( scrub == 0 )
+      return false;
+
+    // tree geolocation: ^(\S+),(\S+),(\S+)\s*$
+    Scanner point = new Scanner( geo );
+    String tree_lat = point.tokenBefore( ',' );
+    String tree_lng = tree_lat == null ? null : point.tokenBefore( ',' );
+    String tree_alt = tree_lng == null ? null : point.token();
+
+    if( tree_alt == null || !point.atEnd() )
+      return false;
+
+    result.set( TREE_POS, priv );
+    result.set( TREE_POS + 1, tree_id );
+    result.set( TREE_POS + 2, situs );
+    result.set( TREE_POS + 3, tree_site );
+    result.set( TREE_POS + 4, raw_species );
+    result.set( TREE_POS + 5, raw_species.substring( 0, scrub ).trim().toLowerCase() );
+    result.set( TREE_POS + 6, tree_lat );
+    result.set( TREE_POS + 7, tree_lng );
+    result.set( TREE_POS + 8, tree_alt );
+
+    return true;
+    }
+
+  // ^\s+Sequence\:.*\s+Year Constructed\:\s+(\d+)\s+Traffic Count\:\s+(\d+)\s+Traffic Index\:\s+(\w.*\w)\s+Traffic Class\:\s+(\w.*\w)\s+Traffic Date.*
+  // \s+Paving Length\:\s+(\d+)\s+Paving Width\:\s+(\d+)\s+Paving Area\:\s+(\d+)\s+Surface Type\:\s+(\w.*\w)\s+Surface Thickness.*
+  // \s+Bike Lane\:\s+(\w+)\s+Bus Route\:\s+(\w+)\s+Truck Route\:\s+(\w+)\s+Remediation.*$
+  static boolean parseRoad( Scanner misc, Tuple result )
+    {
+    String[] values = new String[ ROAD_FIELDS.size() ];
+
+    if( !( misc.space() && misc.label( "Sequence:" ) ) )
+      return false;
+
+    if( !misc.seekAfterSpace( "Year Constructed:" ) || !misc.space() || ( values[ 0 ] = misc.digits() ) == null )
+      return false;
+
+    if( !( misc.space() && misc.label( "Traffic Count:" ) && misc.space() ) || ( values[ 1 ] = misc.digits() ) == null )
+      return false;
+
+    if( !( misc.space() && misc.label( "Traffic Index:" ) && misc.space() ) || ( values[ 2 ] = misc.textBefore( "Traffic Class:", true ) ) == null )
+      return false;
+
+    if( !( misc.label( "Traffic Class:" ) && misc.space() ) || ( values[ 3 ] = misc.textBefore( "Traffic Date", true ) ) == null )
+      return false;
+
+    if( !misc.seekAfterSpace( "Paving Length:" ) || !misc.space() || ( values[ 4 ] = misc.digits() ) == null )
+      return false;
+
+    if( !( misc.space() && misc.label( "Paving Width:" ) && misc.space() ) || ( values[ 5 ] = misc.digits() ) == null )
+      return false;
+
+    if( !( misc.space() && misc.label( "Paving Area:" ) && misc.space() ) || ( values[ 6 ] = misc.digits() ) == null )
+      return false;
+
+    if( !( misc.space() && misc.label( "Surface Type:" ) && misc.space() ) || ( values[ 7 ] = misc.textBefore( "Surface Thickness", true ) ) == null )
+      return false;
+
+    if( !misc.seekAfterSpace( "Bike Lane:" ) || !misc.space() || ( values[ 8 ] = misc.word() ) == null )
+      return false;
+
+    if( !( misc.space() && misc.label( "Bus Route:" ) && misc.space() ) || ( values[ 9 ] = misc.word() ) == null )
+      return false;
+
+    if( !( misc.space() && misc.label( "Truck Route:" ) && misc.space() ) || ( values[ 10 ] = misc.word() ) == null )
+      return false;
+
+    if( !( misc.space() && misc.label( "Remediation" ) ) )
+      return false;
+
+    for( int i = 0; i < values.length; i++ )
+      result.set( ROAD_POS + i, values[ i ] );
+
+    return true;
+    }
+
+  static boolean isWord( char c )
+    {
+    return ( c >= 'a' && c <= 'z' ) || ( c >= 'A' && c <= 'Z' ) || ( c >= '0' && c <= '9' ) || c == '_';
+    }
+
+  /** A forward-only cursor over one column, with the few regex building blocks the parse needs. */
+  static class Scanner
+    {
+    final String text;
+    int pos = 0;
+
+    Scanner( String text )
+      {
+      this.text = text;
+      }
+
+    /** @return true if the text, past any leading whitespace, begins with <code>prefix</code> */
+    boolean startsWith( String prefix )
+      {
+      int start = 0;
+
+      while( start < text.length() && Character.isWhitespace( text.charAt( start ) ) )
+        start++;
+
+      return text.startsWith( prefix, start );
+      }
+
+    boolean atEnd()
+      {
+      while( pos < text.length() && Character.isWhitespace( text.charAt( pos ) ) )
+        pos++;
+
+      return pos == text.length();
+      }
+
+    /** \s+ */
+    boolean space()
+      {
+      int start = pos;
+
+      while( pos < text.length() && Character.isWhitespace( text.charAt( pos ) ) )
+        pos++;
+
+      return pos > start;
+      }
+
+    /** a literal label at the cursor */
+    boolean label( String label )
+      {
+      if( !text.startsWith( label, pos ) )
+        return false;
+
+      pos += label.length();
+      return true;
+      }
+
+    /** .*label, stopping at the next occurrence */
+    boolean seek( String label )
+      {
+      int found = text.indexOf( label, pos );
+
+      if( found < 0 )
+        return false;
+
+      pos = found + label.length();
+      return true;
+      }
+
+    /** .*\s+label, stopping at the next occurrence preceded by whitespace */
+    boolean seekAfterSpace( String label )
+      {
+      int found = text.indexOf( label, pos );
+
+      while( found >= 0 && ( found == pos || !Character.isWhitespace( text.charAt( found - 1 ) ) ) )
+        found = text.indexOf( label, found + 1 );
+
+      if( found < 0 )
+        return false;
+
+      pos = found + label.length();
+      return true;
+      }
+
+    /** \S+ */
+    String token()
+      {
+      int start = pos;
+
+      while( pos < text.length() && !Character.isWhitespace( text.charAt( pos ) ) )
+        pos++;
+
+      return pos > start ? text.substring( start, pos ) : null;
+      }
+
+    /** \S+ up to, and consuming, the given separator */
+    String tokenBefore( char separator )
+      {
+      int start = pos;
+
+      while( pos < text.length() && text.charAt( pos ) != separator && !Character.isWhitespace( text.charAt( pos ) ) )
+        pos++;
+
+      if( pos == start || pos == text.length() || text.charAt( pos ) != separator )
+        return null;
+
+      return text.substring( start, pos++ );
+      }
+
+    /** \d+ */
+    String digits()
+      {
+      int start = pos;
+
+      while( pos < text.length() && text.charAt( pos ) >= '0' && text.charAt( pos ) <= '9' )
+        pos++;
+
+      return pos > start ? text.substring( start, pos ) : null;
+      }
+
+    /** \w+ */
+    String word()
+      {
+      int start = pos;
+
+      while( pos < text.length() && isWord( text.charAt( pos ) ) )
+        pos++;
+
+      return pos > start ? text.substring( start, pos ) : null;
+      }
+
+    /**
+     * (\w.*\w)\s+label or (\S.*\S)\s+label: the text up to the next label preceded by whitespace,
+     * trimmed, leaving the cursor on the label
+     */
+    String textBefore( String label, boolean word )
+      {
+      int found = text.indexOf( label, pos );
+
+      while( found >= 0 && ( found == pos || !Character.isWhitespace( text.charAt( found - 1 ) ) ) )
+        found = text.indexOf( label, found + 1 );
+
+      if( found < 0 )
+        return null;
+
+      int end = found;
+
+      while( end > pos && Character.isWhitespace( text.charAt( end - 1 ) ) )
+        end--;
+
+      if( end - pos < 2 )
+        return null;
+
+      char first = text.charAt( pos ), last = text.charAt( end - 1 );
+
+      if( word && !( isWord( first ) && isWord( last ) ) )
+        return null;
+
+      String value = text.substring( pos, end );
+      pos = found;
+      return value;
+      }
+    }
+  }
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package copa;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import cascading.flow.Flow;
+import cascading.flow.FlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Filter;
+import cascading.operation.FilterCall;
+import cascading.operation.aggregator.Count;
+import cascading.operation.filter.Sample;
+import cascading.pipe.Each;
+import cascading.pipe.Every;
+import cascading.pipe.GroupBy;
+import cascading.pipe.Pipe;
+import cascading.tuple.Fields;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryIterator;
+
+/**
+ * Finds the cells holding an outsized share of the GPS logs, from a Bernoulli sample drawn
+ * across every split. The sample is keyed and counted by cell in a flow of its own, assembled by
+ * {@link CopaAssembly#hotCellsFlowDef}, so only the counts come back to the driver. Cells are
+ * returned as Strings, packed hashes being given in decimal.
+ * <p>
+ * When the logs are compacted into visits before the join, whole devices are sampled rather
+ * than single rows, so each sampled track is compacted as the join will see it.
+ */
+public class HotCellSampler
+  {
+  /** seeds the sample, so a rerun over the same input finds the same cells */
+  public static final long SEED = 42L;
+
+  /** how many times the mean rows per sampled cell makes a cell hot */
+  public static final double HOT_FACTOR = 4.0;
+
+  /**
+   * Keeps every row of a Bernoulli sample of devices, chosen by a hash of the device, so the
+   * same devices are kept in every split.
+   * <p>
+   * Expects one argument, the device.
+   */
+  public static class DeviceSample extends BaseOperation implements Filter
+    {
+    protected long seed;
+    protected double fraction;
+
+    public DeviceSample( long seed, double fraction )
+      {
+      super( 1 );
+      this.seed = seed;
+      this.fraction = fraction;
+      }
+
+    public boolean isRemove( FlowProcess flowProcess, FilterCall filterCall )
+      {
+      String device = filterCall.getArguments().getString( 0 );
+      long hash = ( ( device == null ? 0 : device.hashCode() ) + seed ) * 0x9e3779b97f4a7c15L;
+      hash ^= hash >>> 29;
+      hash *= 0xbf58476d1ce4e5b9L;
+      hash ^= hash >>> 32;
+
+      // the top 53 bits as a double in [0, 1)
+      return ( hash >>> 11 ) * 0x1.0p-53 >= fraction;
+      }
+    }
+
+  /** @return <code>pipe</code> sampled at <code>fraction</code>, by rows or, given a <code>device</code> field, by devices */
+  public static Pipe sample( Pipe pipe, String device, double fraction )
+    {
+    if( device == null )
+      return new Each( pipe, new Sample( SEED, fraction ) );
+
+    return new Each( pipe, new Fields( device ), new DeviceSample( SEED, fraction ) );
+    }
+
+  /** @return the rows of <code>pipe</code> counted by <code>cell</code>, as the fields cell and count */
+  public static Pipe count( Pipe pipe, String cell )
+    {
+    pipe = new GroupBy( pipe, new Fields( cell ) );
+    return new Every( pipe, new Count( new Fields( "count" ) ), Fields.ALL );
+    }
+
+  /** reads back the counts a completed {@link #count} flow wrote, and returns the hot cells among them */
+  public static Set<String> read( Flow flow, String cell ) throws IOException
+    {
+    Map<String, int[]> cells = new HashMap<String, int[]>();
+    long rows = 0;
+    TupleEntryIterator iterator = flow.openSink();
+
+    try
+      {
+      while( iterator.hasNext() )
+        {
+        TupleEntry entry = iterator.next();
+        int count = entry.getInteger( "count" );
+        cells.put( entry.getString( cell ), new int[]{count} );
+        rows += count;
+        }
+      }
+    finally
+      {
+      iterator.close();
+      }
+
+    return hotCells( cells, rows, HOT_FACTOR );
+    }
+
+  /** @return the cells counted at least <code>factor</code> times the mean count of a cell */
+  public static <K> Set<K> hotCells( Map<K, int[]> counts, long rows, double factor )
+    {
+    Set<K> hot = new HashSet<K>();
+    double threshold = factor * rows / Math.max( counts.size(), 1 );
+
+    for( Map.Entry<K, int[]> entry : counts.entrySet() )
+      {
+      if( entry.getValue()[ 0 ] >= threshold )
+        hot.add( entry.getKey() );
+      }
+
+    return hot;
+    }
+  }
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package copa;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Fingerprints a set of input paths by their size and modification time, so a run can tell
+ * whether the outputs derived from them are still current, and stores the fingerprint as a
+ * small text file. Paths are local files when <code>local</code>, and otherwise resolved through
+ * the Hadoop FileSystem; a directory counts as the total size and latest time of its files.
+ */
+public class InputFingerprint
+  {
+  private final boolean local;
+  private final Configuration configuration = new Configuration();
+
+  public InputFingerprint( boolean local )
+    {
+    this.local = local;
+    }
+
+  /** @return one line per path giving its size and modification time, then the given settings */
+  public String compute( String settings, String... paths ) throws IOException
+    {
+    StringBuilder fingerprint = new StringBuilder();
+
+    for( String path : paths )
+      {
+      long[] sizeAndTime = local ? localSizeAndTime( new File( path ) ) : hadoopSizeAndTime( path );
+
+      if( sizeAndTime == null )
+        throw new IOException( "input does not exist: " + path );
+
+      fingerprint.append( path ).append( '\t' ).append( sizeAndTime[ 0 ] ).append( '\t' ).append( sizeAndTime[ 1 ] ).append( '\n' );
+      }
+
+    return fingerprint.append( settings ).append( '\n' ).toString();
+    }
+
+  public boolean exists( String path ) throws IOException
+    {
+    if( local )
+      return new File( path ).exists();
+
+    Path hadoopPath = new Path( path );
+    return hadoopPath.getFileSystem( configuration ).exists( hadoopPath );
+    }
+
+  /** @return the fingerprint stored at <code>path</code>, or null if there is none */
+  public String read( String path ) throws IOException
+    {
+    if( !exists( path ) )
+      return null;
+
+    InputStream input;
+
+    if( local )
+      {
+      input = new FileInputStream( path );
+      }
+    else
+      {
+      Path hadoopPath = new Path( path );
+      input = hadoopPath.getFileSystem( configuration ).open( hadoopPath );
+      }
+
+    try
+      {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[ 4096 ];
+
+      for( int read; ( read = input.read( buffer ) ) > 0; )
+        bytes.write( buffer, 0, read );
+
+      return bytes.toString( "UTF-8" );
+      }
+    finally
+      {
+      input.close();
+      }
+    }
+
+  public void write( String path, String fingerprint ) throws IOException
+    {
+    OutputStream output;
+
+    if( local )
+      {
+      output = new FileOutputStream( path );
+      }
+    else
+      {
+      Path hadoopPath = new Path( path );
+      output = hadoopPath.getFileSystem( configuration ).create( hadoopPath, true );
+      }
+
+    try
+      {
+      output.write( fingerprint.getBytes( "UTF-8" ) );
+      }
+    finally
+      {
+      output.close();
+      }
+    }
+
+  private static long[] localSizeAndTime( File file )
+    {
+    if( !file.exists() )
+      return null;
+
+    long[] sizeAndTime = { 0L, file.lastModified() };
+    File[] children = file.listFiles();
+
+    if( children == null )
+      {
+      sizeAndTime[ 0 ] = file.length();
+      return sizeAndTime;
+      }
+
+    for( File child : children )
+      {
+      long[] childSizeAndTime = localSizeAndTime( child );
+      sizeAndTime[ 0 ] += childSizeAndTime[ 0 ];
+      sizeAndTime[ 1 ] = Math.max( sizeAndTime[ 1 ], childSizeAndTime[ 1 ] );
+      }
+
+    return sizeAndTime;
+    }
+
+  private long[] hadoopSizeAndTime( String path ) throws IOException
+    {
+    Path hadoopPath = new Path( path );
+    FileSystem fileSystem = hadoopPath.getFileSystem( configuration );
+
+    if( !fileSystem.exists( hadoopPath ) )
+      return null;
+
+    FileStatus status = fileSystem.getFileStatus( hadoopPath );
+    long[] sizeAndTime = { status.getLen(), status.getModificationTime() };
+
+    if( status.isDir() )
+      {
+      for( FileStatus child : fileSystem.listStatus( hadoopPath ) )
+        {
+        long[] childSizeAndTime = hadoopSizeAndTime( child.getPath().toString() );
+        sizeAndTime[ 0 ] += childSizeAndTime[ 0 ];
+        sizeAndTime[ 1 ] = Math.max( sizeAndTime[ 1 ], childSizeAndTime[ 1 ] );
+        }
+      }
+
+    return sizeAndTime;
+    }
+  }
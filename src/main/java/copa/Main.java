@@ -6,197 +6,402 @@
 
 package copa;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 
 import cascading.flow.Flow;
+import cascading.flow.FlowConnector;
 import cascading.flow.FlowDef;
+import cascading.flow.FlowProcess;
 import cascading.flow.hadoop.HadoopFlowConnector;
-import cascading.operation.expression.ExpressionFilter;
-import cascading.operation.expression.ExpressionFunction;
-import cascading.operation.regex.RegexFilter;
-import cascading.operation.regex.RegexParser;
-import cascading.pipe.CoGroup;
-import cascading.pipe.Checkpoint;
-import cascading.pipe.Each;
-import cascading.pipe.Every;
-import cascading.pipe.GroupBy;
-import cascading.pipe.HashJoin;
-import cascading.pipe.Pipe;
-import cascading.pipe.assembly.Rename;
-import cascading.pipe.assembly.Retain;
-import cascading.pipe.joiner.InnerJoin;
+import cascading.flow.local.LocalFlowConnector;
 import cascading.property.AppProps;
-import cascading.scheme.Scheme;
-import cascading.scheme.hadoop.TextDelimited;
-import cascading.scheme.hadoop.TextLine;
-import cascading.tap.Tap;
-import cascading.tap.hadoop.Hfs;
-import cascading.tuple.Fields;
-
+import cascading.stats.FlowStats;
 
 public class
   Main
   {
+  /** join on geohashes packed into a Long, rather than 6 char Strings */
+  public static final String BINARY_GEOHASH = "binary-geohash";
+
+  /** look up trees near each road segment in a map-side index, rather than a CoGroup */
+  public static final String TREE_INDEX = "tree-index";
+
+  /** how to measure tree_dist: midpoint (the default), segment or haversine; see {@link GeoDistance.Mode} */
+  public static final String DISTANCE = "distance";
+
+  /** run in-process with the local planner and plain files, rather than on Hadoop */
+  public static final String LOCAL = "local";
+
+  /**
+   * join GPS events to the shade output map-side when it has at most the given number of rows,
+   * {@link #BROADCAST_LIMIT} for a bare flag, and otherwise with a CoGroup
+   */
+  public static final String BROADCAST_RECO = "broadcast-reco";
+
+  /** the default row limit for {@link #BROADCAST_RECO}, some 50MB of each task's heap at the shade row width */
+  public static final long BROADCAST_LIMIT = 100000L;
+
+  /** join GPS events to one summary row per geohash cell, rather than every shade row in it; overrides {@link #BROADCAST_RECO} */
+  public static final String RECO_SUMMARY = "reco-summary";
+
+  /**
+   * reuse the tree, road and shade outputs of an earlier incremental run while the GIS and
+   * metadata inputs, and the options shaping them, are unchanged, then join just the given logs;
+   * each batch of logs needs a reco path of its own, as an existing one is never replaced
+   */
+  public static final String INCREMENTAL = "incremental";
+
+  /**
+   * write the tsv checkpoint and the tree, road and shade outputs as SequenceFiles of typed
+   * tuples, rather than text; ignored with {@link #LOCAL}, which has no binary scheme
+   */
+  public static final String BINARY_CHECKPOINTS = "binary-checkpoints";
+
+  /**
+   * shuffle only the fields the shade joins and sort need, re-attaching the tree species details
+   * from the metadata afterwards, rather than carrying every field through
+   */
+  public static final String PRUNE_SHUFFLE = "prune-shuffle";
+
+  /**
+   * spread the GPS events of geohash cells found to be hot, by sampling the logs, over the given
+   * number of reducers in the reco CoGroup, {@link #DEFAULT_SALTS} for a bare flag, replicating
+   * the shade rows of those cells to each
+   */
+  public static final String SALT_HOT_CELLS = "salt-hot-cells";
+
+  public static final int DEFAULT_SALTS = 8;
+
+  /**
+   * with {@link #SALT_HOT_CELLS}, the share of the GPS events sampled for hot cells, or of the
+   * devices with {@link #COMPACT_TRACKS}, {@link #DEFAULT_HOT_CELL_SAMPLE} by default
+   */
+  public static final String HOT_CELL_SAMPLE = "hot-cell-sample";
+
+  public static final double DEFAULT_HOT_CELL_SAMPLE = 0.01;
+
+  /**
+   * join on geohash cells of varying length, split from {@link #ADAPTIVE_BASE_PRECISION} until each
+   * holds no more than the given number of trees, {@link #DEFAULT_CELL_TARGET} for a bare flag, or
+   * reaches {@link #ADAPTIVE_MAX_PRECISION}; see {@link CellTree}
+   */
+  public static final String ADAPTIVE_CELLS = "adaptive-cells";
+
+  public static final int ADAPTIVE_BASE_PRECISION = 5;
+  public static final int ADAPTIVE_MAX_PRECISION = 8;
+  public static final int DEFAULT_CELL_TARGET = 1000;
+
+  /**
+   * collapse each device's consecutive GPS events in the same cell into a single visit, sorting
+   * the logs by uuid and date, before joining them for recommendations; see {@link TrackCompactionBuffer}
+   */
+  public static final String COMPACT_TRACKS = "compact-tracks";
+
+  /**
+   * drop GPS events in cells without shade map-side, ahead of the reco join, using a Bloom filter
+   * of the shaded cells with the given rate of false positives, {@link CellBloomFilter#DEFAULT_FALSE_POSITIVES}
+   * for a bare flag; the shade output must then be written before the reco flow is planned
+   */
+  public static final String PREFILTER_RECO = "prefilter-reco";
+
+  /**
+   * write the tree, road, shade and reco outputs beneath a directory per geohash prefix of the
+   * given length, {@link #DEFAULT_PARTITION_CHARS} for a bare flag; see {@link GeoHashPartitions}.
+   * Not supported with {@link #LOCAL}
+   */
+  public static final String PARTITION_SINKS = "partition-sinks";
+
+  public static final int DEFAULT_PARTITION_CHARS = 4;
+
+  /**
+   * with {@link #PARTITION_SINKS}, join the logs against only the shade partitions meeting the
+   * given box, as min_lat,min_lng,max_lat,max_lng
+   */
+  public static final String REGION = "region";
+
+  /**
+   * with {@link #LOCAL}, read the GPS logs through a {@link MappedLogScheme} parsing on the given
+   * number of threads, one per core for a bare flag, and keeping only {@link CopaTaps#LOG_TEXT} and
+   * {@link CopaTaps#LOG_NUMBERS}, the columns the flow uses. The reco output then lacks the log
+   * columns the default scheme passes through, alt, heading, elapsed and distance among them
+   */
+  public static final String MAPPED_LOGS = "mapped-logs";
+
+  /** how far from a road segment, in meters, to look for trees in neighboring geohash cells */
+  public static final double SHADE_RADIUS = 50.0;
+
+  /**
+   * the greatest tree_dist for a tree to shade a road with {@link GeoDistance.Mode#MIDPOINT}, in its
+   * degrees times 61290, as the original flow filtered: some 45 meters north or south of the midpoint
+   */
+  public static final double SHADE_DISTANCE = 25.0;
+
+  /** the greatest tree_dist for a tree to shade a road with the other distance modes, in meters to the nearest point of the road */
+  public static final double SHADE_METERS = 25.0;
+
   public static void
-  main( String[] args )
+  main( String[] args ) throws IOException
     {
-    String gisPath = args[ 0 ];
-    String metaTreePath = args[ 1 ];
-    String metaRoadPath = args[ 2 ];
-    String logsPath = args[ 3 ];
-    String trapPath = args[ 4 ];
-    String tsvPath = args[ 5 ];
-    String treePath = args[ 6 ];
-    String roadPath = args[ 7 ];
-    String parkPath = args[ 8 ];
-    String shadePath = args[ 9 ];
-    String recoPath = args[ 10 ];
+    run( args );
+    }
 
+  /**
+   * Plans and completes the flows for the given options and paths, as the command line does.
+   *
+   * @return the flows run, in order, for their stats
+   */
+  public static List<Flow>
+  run( String[] args ) throws IOException
+    {
     Properties properties = new Properties();
-    AppProps.setApplicationJarClass( properties, Main.class );
-    HadoopFlowConnector flowConnector = new HadoopFlowConnector( properties );
-
-    // create taps for sources, sinks, traps
-    Tap gisTap = new Hfs( new TextLine( new Fields( "line" ) ), gisPath );
-    Tap metaTreeTap = new Hfs( new TextDelimited( true, "\t" ), metaTreePath );
-    Tap metaRoadTap = new Hfs( new TextDelimited( true, "\t" ), metaRoadPath );
-    Tap logsTap = new Hfs( new TextDelimited( true, "," ), logsPath );
-    Tap trapTap = new Hfs( new TextDelimited( true, "\t" ), trapPath );
-    Tap tsvTap = new Hfs( new TextDelimited( true, "\t" ), tsvPath );
-    Tap treeTap = new Hfs( new TextDelimited( true, "\t" ), treePath );
-    Tap roadTap = new Hfs( new TextDelimited( true, "\t" ), roadPath );
-    Tap parkTap = new Hfs( new TextDelimited( true, "\t" ), parkPath );
-    Tap shadeTap = new Hfs( new TextDelimited( true, "\t" ), shadePath );
-    Tap recoTap = new Hfs( new TextDelimited( true, "\t" ), recoPath );
-
-    // specify a regex to split the GIS dump into known fields
-    Fields fieldDeclaration = new Fields( "blurb", "misc", "geo", "kind" );
-    String regex =  "^\"(.*)\",\"(.*)\",\"(.*)\",\"(.*)\"$";
-    int[] gisGroups = { 1, 2, 3, 4 };
-    RegexParser parser = new RegexParser( fieldDeclaration, regex, gisGroups );
-    Pipe gisPipe = new Each( new Pipe( "gis" ), new Fields( "line" ), parser );
-
-    // checkpoint the cleaned-up GIS data
-    Checkpoint tsvCheck = new Checkpoint( "tsv", gisPipe );
-
-    // parse the "park" output
-    Pipe parkPipe = new Pipe( "park", tsvCheck );
-    regex = "^\\s+Community Type\\:\\s+Park.*$";
-    parkPipe = new Each( parkPipe, new Fields( "misc" ), new RegexFilter( regex ) );
-
-    // parse the "tree" output
-    Pipe treePipe = new Pipe( "tree", tsvCheck );
-    regex = "^\\s+Private\\:\\s+(\\S+)\\s+Tree ID\\:\\s+(\\d+)\\s+.*Situs Number\\:\\s+(\\d+)\\s+Tree Site\\:\\s+(\\d+)\\s+Species\\:\\s+(\\S.*\\S)\\s+Source.*$";
-    treePipe = new Each( treePipe, new Fields( "misc" ), new RegexFilter( regex ) );
-
-    Fields treeFields = new Fields( "priv", "tree_id", "situs", "tree_site", "raw_species" );
-    int[] treeGroups = { 1, 2, 3, 4, 5 };
-    parser = new RegexParser( treeFields, regex, treeGroups );
-    treePipe = new Each( treePipe, new Fields( "misc" ), parser, Fields.ALL );
-
-    // scrub "species" as a primary key
-    regex = "^([\\w\\s]+).*$";
-    int[] speciesGroups = { 1 };
-    parser = new RegexParser( new Fields( "scrub_species" ), regex, speciesGroups );
-    treePipe = new Each( treePipe, new Fields( "raw_species" ), parser, Fields.ALL );
-    String expression = "scrub_species.trim().toLowerCase()";
-    ExpressionFunction exprFunc = new ExpressionFunction( new Fields( "tree_species" ), expression, String.class );
-    treePipe = new Each( treePipe, new Fields( "scrub_species" ), exprFunc, Fields.ALL );
-
-    // join with tree metadata
-    Pipe metaTreePipe = new Pipe( "meta_tree" );
-    treePipe = new HashJoin( treePipe, new Fields( "tree_species" ), metaTreePipe, new Fields( "species" ), new InnerJoin() );
-    treePipe = new Rename( treePipe, new Fields( "blurb" ), new Fields( "tree_name" ) );
-
-    regex = "^(\\S+),(\\S+),(\\S+)\\s*$";
-    int[] gpsGroups = { 1, 2, 3 };
-    parser = new RegexParser( new Fields( "tree_lat", "tree_lng", "tree_alt" ), regex, gpsGroups );
-    treePipe = new Each( treePipe, new Fields( "geo" ), parser, Fields.ALL );
-
-    // determine a tree geohash
-    Fields geohashArguments = new Fields( "tree_lat", "tree_lng" );
-    treePipe = new Each( treePipe, geohashArguments, new GeoHashFunction( new Fields( "tree_geohash" ), 6 ), Fields.ALL );
-
-    Fields fieldSelector = new Fields( "tree_name", "priv", "tree_id", "situs", "tree_site", "species", "wikipedia", "calflora", "min_height", "max_height", "tree_lat", "tree_lng", "tree_alt", "tree_geohash" );
-    treePipe = new Retain( treePipe, fieldSelector );
-
-    // parse the "road" output
-    Pipe roadPipe = new Pipe( "road", tsvCheck );
-    regex = "^\\s+Sequence\\:.*\\s+Year Constructed\\:\\s+(\\d+)\\s+Traffic Count\\:\\s+(\\d+)\\s+Traffic Index\\:\\s+(\\w.*\\w)\\s+Traffic Class\\:\\s+(\\w.*\\w)\\s+Traffic Date.*\\s+Paving Length\\:\\s+(\\d+)\\s+Paving Width\\:\\s+(\\d+)\\s+Paving Area\\:\\s+(\\d+)\\s+Surface Type\\:\\s+(\\w.*\\w)\\s+Surface Thickness.*\\s+Bike Lane\\:\\s+(\\w+)\\s+Bus Route\\:\\s+(\\w+)\\s+Truck Route\\:\\s+(\\w+)\\s+Remediation.*$";
-    roadPipe = new Each( roadPipe, new Fields( "misc" ), new RegexFilter( regex ) );
-    Fields roadFields = new Fields( "year_construct", "traffic_count", "traffic_index", "traffic_class", "paving_length", "paving_width", "paving_area", "surface_type", "bike_lane", "bus_route", "truck_route" );
-    int[] roadGroups = { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11 };
-    parser = new RegexParser( roadFields, regex, roadGroups );
-    roadPipe = new Each( roadPipe, new Fields( "misc" ), parser, Fields.ALL );
-
-    // join with road metadata
-    Pipe metaRoadPipe = new Pipe( "meta_road" );
-    roadPipe = new HashJoin( roadPipe, new Fields( "surface_type" ), metaRoadPipe, new Fields( "pavement_type" ), new InnerJoin() );
-    roadPipe = new Rename( roadPipe, new Fields( "blurb" ), new Fields( "road_name" ) );
-
-    // estimate albedo based on the road surface age and pavement type
-    Fields albedoArguments = new Fields( "year_construct", "albedo_new", "albedo_worn" );
-    roadPipe = new Each( roadPipe, albedoArguments, new AlbedoFunction( new Fields( "albedo" ), 2002 ), Fields.ALL );
-
-    // generate road segments, with midpoint, y=mx+b, and road_geohash for each
-    Fields segmentArguments = new Fields( "geo" );
-    Fields segmentResults = new Fields( "lat0", "lng0", "alt0", "lat1", "lng1", "alt1", "lat_mid", "lng_mid" );
-    roadPipe = new Each( roadPipe, segmentArguments, new RoadSegmentFunction( segmentResults ), Fields.ALL );
-
-    geohashArguments = new Fields( "lat_mid", "lng_mid" );
-    roadPipe = new Each( roadPipe, geohashArguments, new GeoHashFunction( new Fields( "road_geohash" ), 6 ), Fields.ALL );
-
-    fieldSelector = new Fields( "road_name", "year_construct", "traffic_count", "traffic_index", "traffic_class", "paving_length", "paving_width", "paving_area", "surface_type", "bike_lane", "bus_route", "truck_route", "albedo", "lat0", "lng0", "alt0", "lat1", "lng1", "alt1", "road_geohash" );
-    roadPipe = new Retain( roadPipe, fieldSelector );
-
-    // join the tree and road pipes to estimate shade
-    Pipe shadePipe = new Pipe( "shade", roadPipe );
-    shadePipe = new CoGroup( shadePipe, new Fields( "road_geohash" ), treePipe, new Fields( "tree_geohash" ), new InnerJoin() );
-
-    // calculate a rough estimate for distance from tree to road, then filter for "< ~1 block"
-    Fields treeDistArguments = new Fields( "tree_lat", "tree_lng", "lat0", "lng0", "lat1", "lng1" );
-    Fields tree_dist = new Fields( "tree_dist" );
-    shadePipe = new Each( shadePipe, treeDistArguments, new TreeDistanceFunction( tree_dist ), Fields.ALL );
-
-    ExpressionFilter distFilter = new ExpressionFilter( "tree_dist > 25.0", Double.class );
-    shadePipe = new Each( shadePipe, tree_dist, distFilter );
-
-    // checkpoint this (big) calculation too
-    fieldSelector = new Fields( "road_name", "year_construct", "traffic_count", "traffic_index", "traffic_class", "paving_length", "paving_width", "paving_area", "surface_type", "bike_lane", "bus_route", "truck_route", "albedo", "lat0", "lng0", "lat1", "lng1", "tree_name", "priv", "tree_id", "situs", "tree_site", "species", "wikipedia", "calflora", "min_height", "max_height", "tree_lat", "tree_lng", "tree_alt", "tree_dist", "tree_geohash" );
-    shadePipe = new Retain( shadePipe, fieldSelector );
-    shadePipe = new GroupBy( shadePipe, new Fields( "tree_name" ), new Fields( "tree_dist" ) );
-
-    Checkpoint shadeCheck = new Checkpoint( "shade", shadePipe );
-
-    // determine the geohash for GPS tracks log events
-    Pipe logsPipe = new Pipe( "logs" );
-    geohashArguments = new Fields( "lat", "lng" );
-    logsPipe = new Each( logsPipe, geohashArguments, new GeoHashFunction( new Fields( "gps_geohash" ), 6 ), Fields.ALL );
-
-    // prepare data for recommendations
-    // NB: RHS is large given the sample data, but in practice the logs on the LHS could be much larger
-    Pipe recoPipe = new Pipe( "reco", logsPipe );
-    recoPipe = new CoGroup( recoPipe, new Fields( "gps_geohash" ), shadeCheck, new Fields( "tree_geohash" ), new InnerJoin() );
-
-    // connect the taps, pipes, etc., into a flow
-    FlowDef flowDef = FlowDef.flowDef()
-     .setName( "copa" )
-     .addSource( gisPipe, gisTap )
-     .addTrap( gisPipe, trapTap )
-     .addCheckpoint( tsvCheck, tsvTap )
-     .addTailSink( parkPipe, parkTap )
-     .addSource( metaTreePipe, metaTreeTap )
-     .addSource( metaRoadPipe, metaRoadTap )
-     .addSink( treePipe, treeTap )
-     .addSink( roadPipe, roadTap )
-     .addCheckpoint( shadeCheck, shadeTap )
-     .addSource( logsPipe, logsTap )
-     .addTailSink( recoPipe, recoTap )
-    ;
+    int argc = CopaOptions.parseOptions( args, properties );
+    CopaOptions options = new CopaOptions( properties );
+    String[] paths = new String[ args.length - argc ];
+    System.arraycopy( args, argc, paths, 0, paths.length );
+    CopaTaps taps = new CopaTaps( options, paths );
+
+    Properties flowProperties = new Properties();
+    AppProps.setApplicationJarClass( flowProperties, Main.class );
+    FlowConnector flowConnector = options.local ? new LocalFlowConnector( flowProperties ) : new HadoopFlowConnector( flowProperties );
+
+    return complete( options, taps, flowConnector );
+    }
+
+  /**
+   * Assembles the copa flows over the given taps, then connects and completes them in turn,
+   * reporting on each.
+   *
+   * @return the flows run, in order, for their stats; none when an incremental run reuses the
+   *         GIS outputs and there's no separate reco flow
+   */
+  public static List<Flow>
+  complete( CopaOptions options, CopaTaps taps, FlowConnector flowConnector ) throws IOException
+    {
+    List<Flow> flows = new ArrayList<Flow>();
+    // an incremental run skips the GIS flows while their inputs and settings match the last run
+    InputFingerprint inputFingerprint = new InputFingerprint( options.local );
+    String fingerprintPath = taps.shadePath + ".fingerprint";
+    String fingerprint = null;
+    boolean gisCurrent = false;
+
+    if( options.incremental )
+      {
+      // fail before rebuilding anything, rather than when the reco flow is planned
+      if( inputFingerprint.exists( taps.recoPath ) )
+        throw new IllegalArgumentException( INCREMENTAL + " joins each batch of logs into a new reco path, but it exists: " + taps.recoPath );
+
+      fingerprint = inputFingerprint.compute( options.gisSettings(), taps.gisPath, taps.metaTreePath, taps.metaRoadPath );
+      gisCurrent = fingerprint.equals( inputFingerprint.read( fingerprintPath ) )
+        && inputFingerprint.exists( taps.treePath ) && inputFingerprint.exists( taps.roadPath ) && inputFingerprint.exists( taps.shadePath );
+      }
+
+    CopaAssembly assembly = new CopaAssembly( options, taps );
+
+    // the shade flow joins the logs too unless the reco flow is staged, which samples for itself
+    if( options.saltHotCells && !options.stagedReco )
+      saltHotCells( options, assembly, flowConnector );
+
+    if( gisCurrent )
+      {
+      System.out.println( "incremental: GIS inputs unchanged, reusing " + taps.shadePath );
+
+      if( options.cellSettings != null )
+        setCells( options, taps, assembly );
+      }
+    else
+      {
+      // forget the last fingerprint first, so a rebuild that fails part way is never reused
+      if( options.incremental )
+        inputFingerprint.write( fingerprintPath, "" );
+
+      completeShade( options, taps, assembly, flowConnector, flows );
+
+      if( options.incremental )
+        inputFingerprint.write( fingerprintPath, fingerprint );
+      }
+
+    if( options.stagedReco )
+      flows.add( completeReco( options, taps, assembly, flowConnector ) );
+
+    return flows;
+    }
+
+  // runs the GIS flow, when staged, then the shade flow, which joins the logs too unless the reco flow is staged
+  private static void
+  completeShade( CopaOptions options, CopaTaps taps, CopaAssembly assembly, FlowConnector flowConnector, List<Flow> flows ) throws IOException
+    {
+    FlowDef gisFlowDef = assembly.gisFlowDef();
+
+    // the shade flow can only be connected once the cells are built from the tree sink the GIS flow writes
+    if( gisFlowDef != null )
+      {
+      Flow gisFlow = flowConnector.connect( gisFlowDef );
+      gisFlow.writeDOT( "dot/copa-gis.dot" );
+      gisFlow.complete();
+      flows.add( gisFlow );
+      reportOperations( gisFlow );
+      reportShuffle( gisFlow );
+
+      if( options.cellSettings != null )
+        setCells( options, taps, assembly );
+      }
 
     // write a DOT file and run the flow
-    Flow copaFlow = flowConnector.connect( flowDef );
+    Flow copaFlow = flowConnector.connect( assembly.copaFlowDef() );
     copaFlow.writeDOT( "dot/copa.dot" );
     copaFlow.complete();
+    flows.add( copaFlow );
+
+    // includes how far the neighbor join replicated road segments, as GeoHashNeighborFunction's cells out per segment in
+    reportOperations( copaFlow );
+    reportShuffle( copaFlow );
+    }
+
+  // dense cells would otherwise each land on a single reducer, so count the cells of a sample of the logs first
+  private static void
+  saltHotCells( CopaOptions options, CopaAssembly assembly, FlowConnector flowConnector ) throws IOException
+    {
+    Flow flow = flowConnector.connect( assembly.hotCellsFlowDef() );
+    flow.complete();
+
+    Set<String> hotCells = HotCellSampler.read( flow, "gps_geohash" );
+    assembly.setHotCells( hotCells );
+    System.out.println( String.format( "reco join: %d hot cells in the sampled logs, spreading each over %d reducers", hotCells.size(), options.salts ) );
+    }
+
+  // builds the adaptive cells once from the tree sink, to be serialized with each operation keying by them
+  private static void
+  setCells( CopaOptions options, CopaTaps taps, CopaAssembly assembly ) throws IOException
+    {
+    CellTree cells = CellTree.read( CopaTaps.flowProcess( options.local ), taps.tree, "tree_lat", "tree_lng", options.cellSettings );
+    assembly.setCells( cells );
+    System.out.println( String.format( "adaptive cells: %d leaves, %d split cells", cells.leaves(), cells.splitCells() ) );
+    }
+
+  // joins the logs to the written shade output, map-side when it's small enough to broadcast
+  private static Flow
+  completeReco( CopaOptions options, CopaTaps taps, CopaAssembly assembly, FlowConnector flowConnector ) throws IOException
+    {
+    FlowProcess flowProcess = CopaTaps.flowProcess( options.local );
+
+    // an empty glob would only fail once the flow is planned, with no word of the region
+    if( options.region != null && !CopaTaps.globMatches( GeoHashPartitions.glob( taps.shadePath, GeoHashPartitions.prefixes( options.region, options.partitionChars ) ) ) )
+      throw new IllegalArgumentException( REGION + " " + options.region + " meets no partition of: " + taps.shadePath );
+
+    // the filter is serialized with the flow, so its cells must be in place before connecting
+    if( options.prefilterReco )
+      {
+      CellBloomFilter cells = CellBloomFilter.read( flowProcess, taps.shade, "tree_geohash", options.binaryGeohash, options.falsePositives );
+      assembly.setShadeCells( cells );
+      System.out.println( String.format( "reco prefilter: %d shaded cells in a %d byte filter", cells.cells(), cells.bytes() ) );
+      }
+
+    // broadcast the shade output if it's within the limit, otherwise fall back to the CoGroup
+    boolean broadcast = false;
+
+    if( options.broadcastReco )
+      {
+      long shadeRows = ShadeLookupFunction.countRows( flowProcess, taps.shade, options.broadcastLimit + 1 );
+      broadcast = shadeRows <= options.broadcastLimit;
+
+      if( broadcast )
+        System.out.println( String.format( "reco join: broadcasting %d shade rows", shadeRows ) );
+      else
+        System.out.println( String.format( "reco join: more than %d shade rows, using a CoGroup", options.broadcastLimit ) );
+      }
+
+    // a map-side join has no reducers to spread cells over, so only the CoGroup needs the sample
+    if( options.saltHotCells && !broadcast )
+      saltHotCells( options, assembly, flowConnector );
+
+    Flow recoFlow = flowConnector.connect( assembly.recoFlowDef( broadcast ) );
+    recoFlow.writeDOT( "dot/copa-reco.dot" );
+    recoFlow.complete();
+    reportOperations( recoFlow );
+    reportShuffle( recoFlow );
+
+    if( options.prefilterReco )
+      reportPrefilter( recoFlow );
+
+    return recoFlow;
+    }
+
+  /**
+   * prints the counts each copa operation in a flow kept through {@link OperationStats}: records
+   * in and out, the mean time of the sampled calls, and the operation's own counters
+   */
+  public static void
+  reportOperations( Flow flow )
+    {
+    FlowStats flowStats = flow.getFlowStats();
+
+    for( String group : flowStats.getCounterGroups() )
+      {
+      if( !group.startsWith( OperationStats.GROUP_PREFIX ) )
+        continue;
+
+      long in = flowStats.getCounterValue( group, OperationStats.RECORDS_IN );
+      long out = flowStats.getCounterValue( group, OperationStats.RECORDS_OUT );
+      long timed = flowStats.getCounterValue( group, OperationStats.TIMED );
+      long nanos = flowStats.getCounterValue( group, OperationStats.TIMED_NANOS );
+
+      StringBuilder line = new StringBuilder( String.format( "%s %s: %d in, %d out, %.2f out per in, %.0f ns per call",
+        flow.getName(), group.substring( OperationStats.GROUP_PREFIX.length() ), in, out,
+        in == 0 ? 0.0 : (double) out / in, timed == 0 ? 0.0 : (double) nanos / timed ) );
+
+      for( String counter : flowStats.getCountersFor( group ) )
+        {
+        if( counter.equals( OperationStats.RECORDS_IN ) || counter.equals( OperationStats.RECORDS_OUT )
+          || counter.equals( OperationStats.TIMED ) || counter.equals( OperationStats.TIMED_NANOS ) )
+          continue;
+
+        line.append( ", " ).append( counter ).append( " " ).append( flowStats.getCounterValue( group, counter ) );
+        }
+
+      System.out.println( line );
+      }
+    }
+
+  /** prints the bytes a Hadoop flow's mappers wrote for its reducers, for comparing plans such as {@link #PRUNE_SHUFFLE} */
+  public static void
+  reportShuffle( Flow flow )
+    {
+    FlowStats flowStats = flow.getFlowStats();
+    long bytes = flowStats.getCounterValue( "org.apache.hadoop.mapred.Task$Counter", "MAP_OUTPUT_BYTES" );
+    long records = flowStats.getCounterValue( "org.apache.hadoop.mapred.Task$Counter", "MAP_OUTPUT_RECORDS" );
+
+    // the local planner has no shuffle, nor these counters
+    if( records > 0 )
+      System.out.println( String.format( "%s shuffle: %d records, %d bytes, %.1f bytes per record", flow.getName(), records, bytes, (double) bytes / records ) );
+    }
+
+  /**
+   * prints the share of GPS events {@link #PREFILTER_RECO} dropped, and roughly the bytes that
+   * saved shuffling, taking each dropped event to be the size of the mean record the flow shuffled
+   */
+  public static void
+  reportPrefilter( Flow flow )
+    {
+    FlowStats flowStats = flow.getFlowStats();
+    String group = OperationStats.GROUP_PREFIX + ShadeCellFilter.OPERATION;
+    long in = flowStats.getCounterValue( group, OperationStats.RECORDS_IN );
+    long dropped = flowStats.getCounterValue( group, ShadeCellFilter.DROPPED );
+    long bytes = flowStats.getCounterValue( "org.apache.hadoop.mapred.Task$Counter", "MAP_OUTPUT_BYTES" );
+    long records = flowStats.getCounterValue( "org.apache.hadoop.mapred.Task$Counter", "MAP_OUTPUT_RECORDS" );
+
+    if( in == 0 )
+      return;
+
+    String line = String.format( "reco prefilter: dropped %d of %d GPS events, %.1f%%", dropped, in, 100.0 * dropped / in );
+
+    // the local planner has no shuffle to save
+    if( records > 0 )
+      line += String.format( ", about %d bytes not shuffled", Math.round( (double) bytes / records * dropped ) );
+
+    System.out.println( line );
     }
   }
@@ -0,0 +1,439 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package copa;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Reads the chosen columns of a comma separated file with a header line, such as the GPS logs,
+ * on several threads. The file is cut into chunks of about <code>chunk_bytes</code>, each ending
+ * at a line break, and each chunk is memory mapped and parsed by a pool thread into a
+ * {@link Batch} of columns. Numeric columns are parsed from the mapped bytes straight into a
+ * <code>double[]</code>, in the manner of {@link PolylineParser}, and columns that aren't named
+ * are skipped over without being decoded.
+ * <p>
+ * Batches come back in file order, and no more than two per thread are parsed ahead of the
+ * caller. Lines with too few columns, or a numeric column that isn't a number, are skipped and
+ * counted, and blank lines are ignored. Quoted fields aren't supported, which the GPS logs
+ * never use. Text is decoded as UTF-8.
+ * <p>
+ * Not thread safe: one caller reads the batches.
+ */
+public class MappedLogReader
+  {
+  public static final int DEFAULT_CHUNK_BYTES = 4 << 20;
+
+  private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+  private static final double[] POWERS_OF_TEN = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+    1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  private static final long MAX_EXACT = 1L << 53;
+
+  private static final int SKIP = 0;
+  private static final int TEXT = 1;
+  private static final int NUMBER = 2;
+
+  /** The rows of one chunk, by column, in the order the columns were asked for. */
+  public static class Batch
+    {
+    public int rows;
+    public int skipped;
+    public long bytes;
+    public String[][] text;
+    public double[][] numbers;
+
+    Batch( int texts, int numbers, int capacity )
+      {
+      this.text = new String[ texts ][ capacity ];
+      this.numbers = new double[ numbers ][ capacity ];
+      }
+
+    void grow()
+      {
+      int capacity = text.length > 0 ? text[ 0 ].length * 2 : numbers[ 0 ].length * 2;
+
+      for( int i = 0; i < text.length; i++ )
+        {
+        String[] grown = new String[ capacity ];
+        System.arraycopy( text[ i ], 0, grown, 0, rows );
+        text[ i ] = grown;
+        }
+
+      for( int i = 0; i < numbers.length; i++ )
+        {
+        double[] grown = new double[ capacity ];
+        System.arraycopy( numbers[ i ], 0, grown, 0, rows );
+        numbers[ i ] = grown;
+        }
+      }
+    }
+
+  private final String name;
+  private final FileChannel channel;
+  private final long size;
+  private final int chunk_bytes;
+  private final int ahead;
+  private final int texts;
+  private final int numbers;
+
+  // what to do with each column of a line, up to the last one wanted, and where it goes
+  private final int[] kinds;
+  private final int[] slots;
+
+  private final ExecutorService executor;
+  private final LinkedList<Future<Batch>> pending = new LinkedList<Future<Batch>>();
+  private long position;
+
+  public MappedLogReader( File file, String[] text, String[] numbers, int threads ) throws IOException
+    {
+    this( file.getPath(), new FileInputStream( file ).getChannel(), text, numbers, threads, DEFAULT_CHUNK_BYTES );
+    }
+
+  /**
+   * @param name the file's name, for messages
+   * @param channel the open file, closed with this reader
+   * @throws IllegalArgumentException when the header lacks one of the columns
+   */
+  public MappedLogReader( String name, FileChannel channel, String[] text, String[] numbers, int threads, int chunk_bytes ) throws IOException
+    {
+    if( text.length + numbers.length == 0 )
+      throw new IllegalArgumentException( "no columns to read from " + name );
+
+    this.name = name;
+    this.channel = channel;
+    this.size = channel.size();
+    this.chunk_bytes = chunk_bytes;
+    this.ahead = 2 * threads;
+    this.texts = text.length;
+    this.numbers = numbers.length;
+
+    position = lineEnd( 0 );
+    String[] header = new String( read( 0, (int) position ), UTF8 ).trim().split( "," );
+    int[] kinds = new int[ header.length ];
+    int[] slots = new int[ header.length ];
+    int columns = 0;
+
+    for( int i = 0; i < text.length + numbers.length; i++ )
+      {
+      String wanted = i < text.length ? text[ i ] : numbers[ i - text.length ];
+      int column = indexOf( header, wanted );
+
+      if( column < 0 )
+        throw new IllegalArgumentException( "no column '" + wanted + "' in the header of " + name );
+
+      kinds[ column ] = i < text.length ? TEXT : NUMBER;
+      slots[ column ] = i < text.length ? i : i - text.length;
+      columns = Math.max( columns, column + 1 );
+      }
+
+    this.kinds = new int[ columns ];
+    this.slots = new int[ columns ];
+    System.arraycopy( kinds, 0, this.kinds, 0, columns );
+    System.arraycopy( slots, 0, this.slots, 0, columns );
+
+    executor = Executors.newFixedThreadPool( threads, new ThreadFactory()
+    {
+    private int count = 0;
+
+    public Thread newThread( Runnable runnable )
+      {
+      Thread thread = new Thread( runnable, "copa-log-reader-" + count++ );
+      thread.setDaemon( true );
+      return thread;
+      }
+    } );
+    }
+
+  /** @return the next batch of rows in file order, or null past the end of the file */
+  public Batch next() throws IOException
+    {
+    submit();
+
+    if( pending.isEmpty() )
+      return null;
+
+    try
+      {
+      return pending.removeFirst().get();
+      }
+    catch( InterruptedException exception )
+      {
+      throw new InterruptedIOException( "interrupted reading " + name );
+      }
+    catch( ExecutionException exception )
+      {
+      if( exception.getCause() instanceof IOException )
+        throw (IOException) exception.getCause();
+
+      throw new IOException( "failed reading " + name, exception.getCause() );
+      }
+    finally
+      {
+      submit();
+      }
+    }
+
+  public void close() throws IOException
+    {
+    for( Future<Batch> future : pending )
+      future.cancel( true );
+
+    pending.clear();
+    executor.shutdownNow();
+    channel.close();
+    }
+
+  // keeps the pool busy with the chunks following the last one submitted
+  private void submit() throws IOException
+    {
+    while( pending.size() < ahead && position < size )
+      {
+      final long start = position;
+      final long end = lineEnd( Math.min( start + chunk_bytes, size ) - 1 );
+      position = end;
+
+      pending.addLast( executor.submit( new Callable<Batch>()
+      {
+      public Batch call() throws IOException
+        {
+        return parse( channel.map( FileChannel.MapMode.READ_ONLY, start, end - start ) );
+        }
+      } ) );
+      }
+    }
+
+  // the position just past the line break at or after offset, or the end of the file
+  private long lineEnd( long offset ) throws IOException
+    {
+    ByteBuffer buffer = ByteBuffer.allocate( 4096 );
+
+    while( offset < size )
+      {
+      buffer.clear();
+      int read = channel.read( buffer, offset );
+
+      for( int i = 0; i < read; i++ )
+        {
+        if( buffer.get( i ) == '\n' )
+          return offset + i + 1;
+        }
+
+      if( read <= 0 )
+        break;
+
+      offset += read;
+      }
+
+    return size;
+    }
+
+  private byte[] read( long offset, int length ) throws IOException
+    {
+    ByteBuffer buffer = ByteBuffer.allocate( length );
+
+    while( buffer.hasRemaining() )
+      {
+      if( channel.read( buffer, offset + buffer.position() ) <= 0 )
+        break;
+      }
+
+    return buffer.array();
+    }
+
+  Batch parse( ByteBuffer chunk )
+    {
+    int limit = chunk.limit();
+    Batch batch = new Batch( texts, numbers, limit / 64 + 16 );
+    batch.bytes = limit;
+    byte[] scratch = new byte[ 64 ];
+    int pos = 0;
+
+    while( pos < limit )
+      {
+      if( chunk.get( pos ) == '\n' || chunk.get( pos ) == '\r' )
+        {
+        pos++;
+        continue;
+        }
+
+      int column = 0;
+      int start = pos;
+      boolean valid = true;
+
+      if( batch.rows == ( texts > 0 ? batch.text[ 0 ].length : batch.numbers[ 0 ].length ) )
+        batch.grow();
+
+      // walk the fields up to the last one wanted, then skip to the end of the line
+      while( true )
+        {
+        byte c = pos < limit ? chunk.get( pos ) : (byte) '\n';
+
+        if( c != ',' && c != '\n' )
+          {
+          pos++;
+          continue;
+          }
+
+        if( column < kinds.length && kinds[ column ] != SKIP )
+          {
+          int end = pos > start && chunk.get( pos - 1 ) == '\r' ? pos - 1 : pos;
+
+          if( kinds[ column ] == TEXT )
+            {
+            if( end - start > scratch.length )
+              scratch = new byte[ 2 * ( end - start ) ];
+
+            for( int i = start; i < end; i++ )
+              scratch[ i - start ] = chunk.get( i );
+
+            batch.text[ slots[ column ] ][ batch.rows ] = new String( scratch, 0, end - start, UTF8 );
+            }
+          else
+            {
+            double value = parseNumber( chunk, start, end );
+
+            if( Double.isNaN( value ) )
+              valid = false;
+
+            batch.numbers[ slots[ column ] ][ batch.rows ] = value;
+            }
+          }
+
+        column++;
+        pos++;
+
+        if( c == '\n' )
+          break;
+
+        if( column == kinds.length )
+          {
+          while( pos < limit && chunk.get( pos ) != '\n' )
+            pos++;
+
+          pos++;
+          break;
+          }
+
+        start = pos;
+        }
+
+      if( valid && column >= kinds.length )
+        batch.rows++;
+      else
+        batch.skipped++;
+      }
+
+    return batch;
+    }
+
+  /** @return the number in the bytes from start to end, or NaN when they aren't one */
+  static double parseNumber( ByteBuffer chunk, int start, int end )
+    {
+    int pos = start;
+    boolean negative = false;
+
+    if( pos < end && ( chunk.get( pos ) == '-' || chunk.get( pos ) == '+' ) )
+      negative = chunk.get( pos++ ) == '-';
+
+    long mantissa = 0;
+    int scale = 0;
+    int digits = 0;
+    boolean exact = true;
+    boolean fraction = false;
+
+    for( ; pos < end; pos++ )
+      {
+      byte c = chunk.get( pos );
+
+      if( c >= '0' && c <= '9' )
+        {
+        digits++;
+
+        if( mantissa < MAX_EXACT / 10 )
+          mantissa = mantissa * 10 + ( c - '0' );
+        else
+          exact = false;
+
+        if( fraction )
+          scale++;
+        }
+      else if( c == '.' && !fraction )
+        {
+        fraction = true;
+        }
+      else
+        {
+        // exponents, NaN and the like are left to the JDK
+        exact = false;
+        break;
+        }
+      }
+
+    if( exact && digits > 0 && scale < POWERS_OF_TEN.length )
+      {
+      double value = mantissa / POWERS_OF_TEN[ scale ];
+
+      return negative ? -value : value;
+      }
+
+    byte[] bytes = new byte[ end - start ];
+
+    for( int i = start; i < end; i++ )
+      bytes[ i - start ] = chunk.get( i );
+
+    // a NaN in the data can't be told apart from a bad number, so both skip the line
+    try
+      {
+      return Double.parseDouble( new String( bytes, UTF8 ).trim() );
+      }
+    catch( NumberFormatException exception )
+      {
+      return Double.NaN;
+      }
+    }
+
+  private static int indexOf( String[] header, String name )
+    {
+    for( int i = 0; i < header.length; i++ )
+      {
+      if( header[ i ].trim().equals( name ) )
+        return i;
+      }
+
+    return -1;
+    }
+  }
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package copa;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import cascading.flow.FlowProcess;
+import cascading.scheme.Scheme;
+import cascading.scheme.SinkCall;
+import cascading.scheme.SourceCall;
+import cascading.tap.Tap;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+
+/**
+ * A local mode source scheme for headered CSV logs, reading only the named text and numeric
+ * columns through a {@link MappedLogReader}, so the file is parsed on several threads and
+ * columns the flow never uses aren't decoded at all. Numeric columns come out as Doubles
+ * rather than Strings, and any other column is left out of the tuples altogether. Lines the
+ * reader skips are counted as {@link Counters#SKIPPED}.
+ * <p>
+ * The file is mapped from the stream a <code>FileTap</code> opens on it, so the scheme can't
+ * read from any other kind of stream, nor sink.
+ */
+public class MappedLogScheme extends Scheme<Properties, InputStream, OutputStream, MappedLogScheme.Context, Void>
+  {
+  public enum Counters
+    {
+      ROWS, SKIPPED, BYTES
+    }
+
+  public static class Context
+    {
+    public MappedLogReader reader;
+    public MappedLogReader.Batch batch;
+    public int row;
+    public Tuple tuple;
+    }
+
+  protected String[] text;
+  protected String[] numbers;
+  protected int threads;
+
+  public MappedLogScheme( Fields text, Fields numbers, int threads )
+    {
+    super( text.append( numbers ) );
+    this.text = names( text );
+    this.numbers = names( numbers );
+    this.threads = threads;
+    }
+
+  public boolean isSink()
+    {
+    return false;
+    }
+
+  public void sourceConfInit( FlowProcess<Properties> flowProcess, Tap<Properties, InputStream, OutputStream> tap, Properties conf )
+    {
+    }
+
+  public void sinkConfInit( FlowProcess<Properties> flowProcess, Tap<Properties, InputStream, OutputStream> tap, Properties conf )
+    {
+    throw new UnsupportedOperationException( "MappedLogScheme only reads" );
+    }
+
+  public void sourcePrepare( FlowProcess<Properties> flowProcess, SourceCall<Context, InputStream> sourceCall ) throws IOException
+    {
+    if( !( sourceCall.getInput() instanceof FileInputStream ) )
+      throw new IOException( "MappedLogScheme only reads files, not " + sourceCall.getInput().getClass().getName() );
+
+    Context context = new Context();
+    FileInputStream input = (FileInputStream) sourceCall.getInput();
+    context.reader = new MappedLogReader( "the logs", input.getChannel(), text, numbers, threads, MappedLogReader.DEFAULT_CHUNK_BYTES );
+    context.tuple = Tuple.size( text.length + numbers.length );
+    sourceCall.setContext( context );
+    }
+
+  public boolean source( FlowProcess<Properties> flowProcess, SourceCall<Context, InputStream> sourceCall ) throws IOException
+    {
+    Context context = sourceCall.getContext();
+
+    while( context.batch == null || context.row == context.batch.rows )
+      {
+      context.batch = context.reader.next();
+      context.row = 0;
+
+      if( context.batch == null )
+        return false;
+
+      flowProcess.increment( Counters.ROWS, context.batch.rows );
+      flowProcess.increment( Counters.SKIPPED, context.batch.skipped );
+      flowProcess.increment( Counters.BYTES, context.batch.bytes );
+      }
+
+    // one tuple for every row, as TextDelimited does; a GroupBy downstream, as with compact-tracks,
+    // selects its own copies of the keys and values it holds, so nothing keeps this one
+    // NB: each number is still boxed, a Tuple only holding Objects
+    MappedLogReader.Batch batch = context.batch;
+    Tuple tuple = context.tuple;
+
+    for( int i = 0; i < text.length; i++ )
+      tuple.set( i, batch.text[ i ][ context.row ] );
+
+    for( int i = 0; i < numbers.length; i++ )
+      tuple.set( text.length + i, batch.numbers[ i ][ context.row ] );
+
+    sourceCall.getIncomingEntry().setTuple( tuple );
+    context.row++;
+
+    return true;
+    }
+
+  public void sourceCleanup( FlowProcess<Properties> flowProcess, SourceCall<Context, InputStream> sourceCall ) throws IOException
+    {
+    Context context = sourceCall.getContext();
+
+    if( context != null && context.reader != null )
+      context.reader.close();
+
+    sourceCall.setContext( null );
+    }
+
+  public void sink( FlowProcess<Properties> flowProcess, SinkCall<Void, OutputStream> sinkCall ) throws IOException
+    {
+    throw new UnsupportedOperationException( "MappedLogScheme only reads" );
+    }
+
+  private static String[] names( Fields fields )
+    {
+    String[] names = new String[ fields.size() ];
+
+    for( int i = 0; i < names.length; i++ )
+      names[ i ] = fields.get( i ).toString();
+
+    return names;
+    }
+  }
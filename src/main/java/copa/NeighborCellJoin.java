@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package copa;
+
+import cascading.operation.Function;
+import cascading.pipe.CoGroup;
+import cascading.pipe.Each;
+import cascading.pipe.Pipe;
+import cascading.pipe.SubAssembly;
+import cascading.pipe.assembly.Discard;
+import cascading.pipe.joiner.InnerJoin;
+import cascading.tuple.Fields;
+
+/**
+ * Joins road segments with the trees in their own geohash cell and in any neighboring cell
+ * within <code>radius</code> meters, so trees just across a cell edge from a road are not lost.
+ * The road segment's <code>road_geohash</code> is replaced by each cell it is emitted into;
+ * see {@link GeoHashNeighborFunction}.
+ */
+public class NeighborCellJoin extends SubAssembly
+  {
+  public NeighborCellJoin( Pipe roadPipe, Pipe treePipe, Integer hash_length, double radius, boolean packed )
+    {
+    this( roadPipe, treePipe, new GeoHashNeighborFunction( new Fields( "road_geohash" ), hash_length, radius, packed ) );
+    }
+
+  /**
+   * Joins on whatever cells <code>neighbors</code> declares as road_geohash for each segment,
+   * given lat0, lng0, lat1, lng1, such as the {@link CellTree} leaves of a {@link CellNeighborFunction}.
+   */
+  public NeighborCellJoin( Pipe roadPipe, Pipe treePipe, Function neighbors )
+    {
+    setPrevious( roadPipe, treePipe );
+
+    Pipe pipe = new Discard( roadPipe, new Fields( "road_geohash" ) );
+
+    Fields segmentArguments = new Fields( "lat0", "lng0", "lat1", "lng1" );
+    pipe = new Each( pipe, segmentArguments, neighbors, Fields.ALL );
+
+    pipe = new CoGroup( pipe, new Fields( "road_geohash" ), treePipe, new Fields( "tree_geohash" ), new InnerJoin() );
+
+    setTails( pipe );
+    }
+  }
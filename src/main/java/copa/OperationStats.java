@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package copa;
+
+import java.util.Arrays;
+
+import cascading.flow.FlowProcess;
+
+/**
+ * Per task counts for one copa operation: the records in and out, a few operation specific
+ * counters, and the time taken by a sample of the calls. Everything is kept in plain fields and
+ * only passed to the FlowProcess as counters on cleanup, so the hot path pays for an increment
+ * and, one call in {@link #SAMPLE_INTERVAL}, two reads of the clock.
+ * <p>
+ * Counters are grouped by {@link #GROUP_PREFIX} and the operation's name, for
+ * {@link Main#reportOperations} to summarize.
+ */
+public class OperationStats
+  {
+  public static final String GROUP_PREFIX = "copa.";
+
+  public static final String RECORDS_IN = "records_in";
+  public static final String RECORDS_OUT = "records_out";
+  public static final String TIMED = "timed";
+  public static final String TIMED_NANOS = "timed_nanos";
+
+  /** time one call in this many, a power of two */
+  public static final int SAMPLE_INTERVAL = 1024;
+
+  private static final long UNTIMED = Long.MIN_VALUE;
+
+  private final String group;
+  private final String[] names;
+  private final long[] values;
+
+  private long calls = 0;
+  private long records_in = 0;
+  private long records_out = 0;
+  private long timed = 0;
+  private long timed_nanos = 0;
+
+  /** @param names the operation's own counters, incremented by their position */
+  public OperationStats( String operation, String... names )
+    {
+    this.group = GROUP_PREFIX + operation;
+    this.names = names;
+    this.values = new long[ names.length ];
+    }
+
+  /** counts a record in, @return the time to pass to {@link #end}, the clock only being read for sampled calls */
+  public long begin()
+    {
+    records_in++;
+    return beginGroup();
+    }
+
+  /**
+   * begins a call taking a group of records, as a Buffer does, each to be counted by
+   * {@link #recordIn} as it's read; @return the time to pass to {@link #end}
+   */
+  public long beginGroup()
+    {
+    if( ( calls++ & ( SAMPLE_INTERVAL - 1 ) ) != 0 )
+      return UNTIMED;
+
+    return System.nanoTime();
+    }
+
+  public void recordIn()
+    {
+    records_in++;
+    }
+
+  public void end( long start, int emitted )
+    {
+    records_out += emitted;
+
+    if( start == UNTIMED )
+      return;
+
+    timed++;
+    timed_nanos += System.nanoTime() - start;
+    }
+
+  public void increment( int counter, long amount )
+    {
+    values[ counter ] += amount;
+    }
+
+  /** passes the counts to <code>flowProcess</code> and resets them */
+  public void flush( FlowProcess flowProcess )
+    {
+    flowProcess.increment( group, RECORDS_IN, records_in );
+    flowProcess.increment( group, RECORDS_OUT, records_out );
+    flowProcess.increment( group, TIMED, timed );
+    flowProcess.increment( group, TIMED_NANOS, timed_nanos );
+
+    for( int i = 0; i < names.length; i++ )
+      flowProcess.increment( group, names[ i ], values[ i ] );
+
+    calls = records_in = records_out = timed = timed_nanos = 0;
+    Arrays.fill( values, 0L );
+    }
+  }
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package copa;
+
+/**
+ * A uniform grid over a fixed set of points, held entirely in primitive arrays.
+ * <p>
+ * Points are bucketed into square cells (in degrees) and stored cell by cell, so a box query
+ * scans a few contiguous runs of <code>lat</code>/<code>lng</code>. Queries return the original
+ * position of each point, for looking up whatever payload the caller keeps alongside.
+ * <p>
+ * Not thread safe: each query reuses an internal hit buffer.
+ */
+public class PointGridIndex
+  {
+  /** upper bound on the number of grid cells, to keep sparse inputs from exhausting memory */
+  public static final int MAX_CELLS = 1 << 22;
+
+  private final double min_lat;
+  private final double min_lng;
+  private final double cell_size;
+  private final int rows;
+  private final int cols;
+
+  // cell_start[ c ] .. cell_start[ c + 1 ] are the slots of the points within cell c
+  private final int[] cell_start;
+  private final double[] lat;
+  private final double[] lng;
+  private final int[] position;
+
+  private int[] hits = new int[ 64 ];
+
+  /**
+   * @param lats      point latitudes
+   * @param lngs      point longitudes
+   * @param count     number of points used from <code>lats</code> and <code>lngs</code>
+   * @param cell_size cell edge in degrees, ideally close to the usual query radius
+   */
+  public PointGridIndex( double[] lats, double[] lngs, int count, double cell_size )
+    {
+    double lat_lo = Double.MAX_VALUE, lat_hi = -Double.MAX_VALUE;
+    double lng_lo = Double.MAX_VALUE, lng_hi = -Double.MAX_VALUE;
+
+    for( int i = 0; i < count; i++ )
+      {
+      lat_lo = Math.min( lat_lo, lats[ i ] );
+      lat_hi = Math.max( lat_hi, lats[ i ] );
+      lng_lo = Math.min( lng_lo, lngs[ i ] );
+      lng_hi = Math.max( lng_hi, lngs[ i ] );
+      }
+
+    if( count == 0 )
+      lat_lo = lat_hi = lng_lo = lng_hi = 0.0;
+
+    // coarsen the grid until it fits within MAX_CELLS
+    while( ( (long) ( ( lat_hi - lat_lo ) / cell_size ) + 1 ) * ( (long) ( ( lng_hi - lng_lo ) / cell_size ) + 1 ) > MAX_CELLS )
+      cell_size *= 2.0;
+
+    this.min_lat = lat_lo;
+    this.min_lng = lng_lo;
+    this.cell_size = cell_size;
+    this.rows = (int) ( ( lat_hi - lat_lo ) / cell_size ) + 1;
+    this.cols = (int) ( ( lng_hi - lng_lo ) / cell_size ) + 1;
+
+    // counting sort of the points by cell
+    int[] cell = new int[ count ];
+    cell_start = new int[ rows * cols + 1 ];
+
+    for( int i = 0; i < count; i++ )
+      {
+      cell[ i ] = row( lats[ i ] ) * cols + col( lngs[ i ] );
+      cell_start[ cell[ i ] + 1 ]++;
+      }
+
+    for( int c = 0; c < rows * cols; c++ )
+      cell_start[ c + 1 ] += cell_start[ c ];
+
+    int[] next = new int[ rows * cols ];
+    System.arraycopy( cell_start, 0, next, 0, rows * cols );
+
+    lat = new double[ count ];
+    lng = new double[ count ];
+    position = new int[ count ];
+
+    for( int i = 0; i < count; i++ )
+      {
+      int slot = next[ cell[ i ] ]++;
+      lat[ slot ] = lats[ i ];
+      lng[ slot ] = lngs[ i ];
+      position[ slot ] = i;
+      }
+    }
+
+  public int size()
+    {
+    return lat.length;
+    }
+
+  /**
+   * Finds the points within the given box, inclusive.
+   *
+   * @return the number of hits, readable through {@link #getHit(int)} until the next query
+   */
+  public int query( double lat_lo, double lng_lo, double lat_hi, double lng_hi )
+    {
+    if( lat.length == 0 )
+      return 0;
+
+    int row_lo = row( lat_lo ), row_hi = row( lat_hi );
+    int col_lo = col( lng_lo ), col_hi = col( lng_hi );
+    int count = 0;
+
+    for( int r = row_lo; r <= row_hi; r++ )
+      {
+      for( int c = col_lo; c <= col_hi; c++ )
+        {
+        int cell = r * cols + c;
+
+        for( int slot = cell_start[ cell ]; slot < cell_start[ cell + 1 ]; slot++ )
+          {
+          double y = lat[ slot ], x = lng[ slot ];
+
+          if( y < lat_lo || y > lat_hi || x < lng_lo || x > lng_hi )
+            continue;
+
+          if( count == hits.length )
+            {
+            int[] grown = new int[ count * 2 ];
+            System.arraycopy( hits, 0, grown, 0, count );
+            hits = grown;
+            }
+
+          hits[ count++ ] = position[ slot ];
+          }
+        }
+      }
+
+    return count;
+    }
+
+  /** @return the original position of the i-th hit of the last query */
+  public int getHit( int i )
+    {
+    return hits[ i ];
+    }
+
+  private int row( double y )
+    {
+    return clamp( (int) Math.floor( ( y - min_lat ) / cell_size ), rows );
+    }
+
+  private int col( double x )
+    {
+    return clamp( (int) Math.floor( ( x - min_lng ) / cell_size ), cols );
+    }
+
+  private static int clamp( int i, int n )
+    {
+    return i < 0 ? 0 : ( i >= n ? n - 1 : i );
+    }
+  }
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package copa;
+
+/**
+ * Parses the GIS "geo" field, whitespace separated points of <code>lng,lat,alt</code>, in a
+ * single pass into a reusable <code>double[]</code>.
+ * <p>
+ * Numbers are read digit by digit; when the digits fit a double exactly, a single division by
+ * a power of ten gives the same correctly rounded result as {@link Double#parseDouble(String)}.
+ * Anything longer falls back to {@link Double#parseDouble(String)}.
+ * <p>
+ * Not thread safe: keep one instance per task.
+ */
+public class PolylineParser
+  {
+  private static final double[] POWERS_OF_TEN = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+    1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  private static final long MAX_EXACT = 1L << 53;
+
+  private double[] coords = new double[ 3 * 64 ];
+  private int size = 0;
+
+  /**
+   * @return the number of points parsed
+   * @throws NumberFormatException when a point is not three comma separated numbers
+   */
+  public int parse( CharSequence geo )
+    {
+    int length = geo.length();
+    int pos = 0;
+    size = 0;
+
+    while( true )
+      {
+      while( pos < length && Character.isWhitespace( geo.charAt( pos ) ) )
+        pos++;
+
+      if( pos == length )
+        break;
+
+      for( int i = 0; i < 3; i++ )
+        {
+        if( i > 0 )
+          {
+          if( pos == length || geo.charAt( pos ) != ',' )
+            throw new NumberFormatException( "expected lng,lat,alt at " + pos + " in: " + geo );
+
+          pos++;
+          }
+
+        pos = parseNumber( geo, pos, length );
+        }
+
+      if( pos < length && !Character.isWhitespace( geo.charAt( pos ) ) )
+        throw new NumberFormatException( "unexpected '" + geo.charAt( pos ) + "' at " + pos + " in: " + geo );
+      }
+
+    return size / 3;
+    }
+
+  public double getLng( int point )
+    {
+    return coords[ 3 * point ];
+    }
+
+  public double getLat( int point )
+    {
+    return coords[ 3 * point + 1 ];
+    }
+
+  public double getAlt( int point )
+    {
+    return coords[ 3 * point + 2 ];
+    }
+
+  // appends the number starting at pos, returning the position just past it
+  private int parseNumber( CharSequence geo, int pos, int length )
+    {
+    int start = pos;
+    boolean negative = false;
+
+    if( pos < length && ( geo.charAt( pos ) == '-' || geo.charAt( pos ) == '+' ) )
+      negative = geo.charAt( pos++ ) == '-';
+
+    long mantissa = 0;
+    int scale = 0;
+    int digits = 0;
+    boolean exact = true;
+    boolean fraction = false;
+
+    for( ; pos < length; pos++ )
+      {
+      char c = geo.charAt( pos );
+
+      if( c >= '0' && c <= '9' )
+        {
+        digits++;
+
+        if( mantissa < MAX_EXACT / 10 )
+          mantissa = mantissa * 10 + ( c - '0' );
+        else
+          exact = false;
+
+        if( fraction )
+          scale++;
+        }
+      else if( c == '.' && !fraction )
+        {
+        fraction = true;
+        }
+      else if( c == 'e' || c == 'E' )
+        {
+        // rare in GIS dumps, so leave exponents to the JDK
+        exact = false;
+        pos = skipExponent( geo, pos + 1, length );
+        break;
+        }
+      else
+        {
+        break;
+        }
+      }
+
+    if( digits == 0 )
+      throw new NumberFormatException( "expected a number at " + start + " in: " + geo );
+
+    double value;
+
+    if( exact && mantissa < MAX_EXACT && scale < POWERS_OF_TEN.length )
+      {
+      value = mantissa / POWERS_OF_TEN[ scale ];
+
+      if( negative )
+        value = -value;
+      }
+    else
+      {
+      value = Double.parseDouble( geo.subSequence( start, pos ).toString() );
+      }
+
+    if( size == coords.length )
+      {
+      double[] grown = new double[ coords.length * 2 ];
+      System.arraycopy( coords, 0, grown, 0, size );
+      coords = grown;
+      }
+
+    coords[ size++ ] = value;
+    return pos;
+    }
+
+  private static int skipExponent( CharSequence geo, int pos, int length )
+    {
+    if( pos < length && ( geo.charAt( pos ) == '-' || geo.charAt( pos ) == '+' ) )
+      pos++;
+
+    while( pos < length && geo.charAt( pos ) >= '0' && geo.charAt( pos ) <= '9' )
+      pos++;
+
+    return pos;
+    }
+  }
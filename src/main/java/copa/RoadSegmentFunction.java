@@ -24,52 +24,84 @@ import cascading.flow.FlowProcess;
 import cascading.operation.BaseOperation;
 import cascading.operation.Function;
 import cascading.operation.FunctionCall;
+import cascading.operation.OperationCall;
 import cascading.tuple.Fields;
 import cascading.tuple.Tuple;
 import cascading.tuple.TupleEntry;
 
 
-public class RoadSegmentFunction extends BaseOperation implements Function
+public class RoadSegmentFunction extends BaseOperation<RoadSegmentFunction.Context> implements Function<RoadSegmentFunction.Context>
   {
+  public static class Context
+    {
+    PolylineParser parser = new PolylineParser();
+    Tuple result = Tuple.size( 8 );
+    OperationStats stats = new OperationStats( "RoadSegmentFunction", "parse_failures", "no_segments" );
+    }
+
+  private static final int PARSE_FAILURES = 0;
+  private static final int NO_SEGMENTS = 1;
+
   public RoadSegmentFunction( Fields fieldDeclaration )
     {
     super( 1, fieldDeclaration );
    }
 
-  public void operate( FlowProcess flowProcess, FunctionCall functionCall )
+  public void prepare( FlowProcess flowProcess, OperationCall<Context> operationCall )
+    {
+    operationCall.setContext( new Context() );
+    }
+
+  public void operate( FlowProcess flowProcess, FunctionCall<Context> functionCall )
     {
     TupleEntry argument = functionCall.getArguments();
-    String[] geo_list = argument.getString( 0 ).split( "\\s" );
+    Context context = functionCall.getContext();
+    PolylineParser parser = context.parser;
+    Tuple result = context.result;
+    long start = context.stats.begin();
+    int points;
 
-    for( int i = 0; i < ( geo_list.length - 1 ); i++ )
+    // the collector copies each result out, so one tuple serves every segment
+    try
       {
-      String[] p0 = geo_list[i].split( "," );
-      Double lng0 = new Double( p0[0] );
-      Double lat0 = new Double( p0[1] );
-      Double alt0 = new Double( p0[2] );
-
-      String[] p1 = geo_list[i + 1].split( "," );
-      Double lng1 = new Double( p1[0] );
-      Double lat1 = new Double( p1[1] );
-      Double alt1 = new Double( p1[2] );
+      points = parser.parse( argument.getString( 0 ) );
+      }
+    catch( NumberFormatException exception )
+      {
+      // counted here, then on to the trap
+      context.stats.increment( PARSE_FAILURES, 1 );
+      throw exception;
+      }
 
-      Double lat_mid = ( lat0 + lat1 ) / 2.0;
-      Double lng_mid = ( lng0 + lng1 ) / 2.0;
+    if( points < 2 )
+      context.stats.increment( NO_SEGMENTS, 1 );
 
-      Tuple result = new Tuple();
+    for( int i = 0; i < ( points - 1 ); i++ )
+      {
+      double lat0 = parser.getLat( i );
+      double lng0 = parser.getLng( i );
+      double lat1 = parser.getLat( i + 1 );
+      double lng1 = parser.getLng( i + 1 );
 
-      result.add( lat0 );
-      result.add( lng0 );
-      result.add( alt0 );
+      result.set( 0, lat0 );
+      result.set( 1, lng0 );
+      result.set( 2, parser.getAlt( i ) );
 
-      result.add( lat1 );
-      result.add( lng1 );
-      result.add( alt1 );
+      result.set( 3, lat1 );
+      result.set( 4, lng1 );
+      result.set( 5, parser.getAlt( i + 1 ) );
 
-      result.add( lat_mid );
-      result.add( lng_mid );
+      result.set( 6, ( lat0 + lat1 ) / 2.0 );
+      result.set( 7, ( lng0 + lng1 ) / 2.0 );
 
       functionCall.getOutputCollector().add( result );
       }
+
+    context.stats.end( start, Math.max( points - 1, 0 ) );
+    }
+
+  public void cleanup( FlowProcess flowProcess, OperationCall<Context> operationCall )
+    {
+    operationCall.getContext().stats.flush( flowProcess );
     }
   }
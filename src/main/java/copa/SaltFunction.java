@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package copa;
+
+import java.util.Set;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Function;
+import cascading.operation.FunctionCall;
+import cascading.operation.OperationCall;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+
+/**
+ * Adds a salt to each tuple, for joining on a key plus salt so the rows of a hot key are spread
+ * over several reducers; see {@link SaltedJoin}. Cold keys always get salt 0. On the side being
+ * spread, each tuple of a hot key gets the next of <code>salts</code> salts in turn; on the side
+ * being replicated, it's emitted once under every salt.
+ * <p>
+ * Expects the join key as its one argument.
+ */
+public class SaltFunction extends BaseOperation<SaltFunction.Context> implements Function<SaltFunction.Context>
+  {
+  public static class Context
+    {
+    Tuple result = Tuple.size( 1 );
+    int next = 0;
+    }
+
+  protected Set<String> hot;
+  protected int salts = 1;
+  protected boolean replicate = false;
+
+  public SaltFunction( Fields fieldDeclaration, Set<String> hot, int salts, boolean replicate )
+    {
+    super( 1, fieldDeclaration );
+    this.hot = hot;
+    this.salts = salts;
+    this.replicate = replicate;
+    }
+
+  public void prepare( FlowProcess flowProcess, OperationCall<Context> operationCall )
+    {
+    operationCall.setContext( new Context() );
+    }
+
+  public void operate( FlowProcess flowProcess, FunctionCall<Context> functionCall )
+    {
+    Context context = functionCall.getContext();
+    Tuple result = context.result;
+    String key = functionCall.getArguments().getString( 0 );
+
+    if( key == null || !hot.contains( key ) )
+      {
+      result.set( 0, 0 );
+      functionCall.getOutputCollector().add( result );
+      }
+    else if( replicate )
+      {
+      for( int salt = 0; salt < salts; salt++ )
+        {
+        result.set( 0, salt );
+        functionCall.getOutputCollector().add( result );
+        }
+      }
+    else
+      {
+      result.set( 0, context.next );
+      context.next = ( context.next + 1 ) % salts;
+      functionCall.getOutputCollector().add( result );
+      }
+    }
+  }
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package copa;
+
+import java.util.Set;
+
+import cascading.pipe.CoGroup;
+import cascading.pipe.Each;
+import cascading.pipe.Pipe;
+import cascading.pipe.SubAssembly;
+import cascading.pipe.assembly.Discard;
+import cascading.pipe.joiner.InnerJoin;
+import cascading.tuple.Fields;
+
+/**
+ * An inner CoGroup on a single key that spreads each hot key over <code>salts</code> groups,
+ * and so reducers, rather than one. The rows of the spread side under a hot key are dealt out
+ * between the salts, while those of the replicated side, which should be the smaller, are copied
+ * to every salt; cold keys are joined as before. The result is the same as the plain join, the
+ * salt fields being discarded.
+ */
+public class SaltedJoin extends SubAssembly
+  {
+  public SaltedJoin( Pipe spread, String spreadKey, Pipe replicated, String replicatedKey, Set<String> hot, int salts )
+    {
+    setPrevious( spread, replicated );
+
+    Fields spreadSalt = new Fields( spreadKey + "_salt" );
+    Fields replicatedSalt = new Fields( replicatedKey + "_salt" );
+
+    spread = new Each( spread, new Fields( spreadKey ), new SaltFunction( spreadSalt, hot, salts, false ), Fields.ALL );
+    replicated = new Each( replicated, new Fields( replicatedKey ), new SaltFunction( replicatedSalt, hot, salts, true ), Fields.ALL );
+
+    Pipe pipe = new CoGroup( spread, new Fields( spreadKey ).append( spreadSalt ), replicated, new Fields( replicatedKey ).append( replicatedSalt ), new InnerJoin() );
+    pipe = new Discard( pipe, spreadSalt.append( replicatedSalt ) );
+
+    setTails( pipe );
+    }
+  }
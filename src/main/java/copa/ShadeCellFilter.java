@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package copa;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Filter;
+import cascading.operation.FilterCall;
+import cascading.operation.OperationCall;
+
+/**
+ * Drops GPS events in cells without any shade, map-side, so they aren't shuffled into the reco
+ * join only to find nothing to join with. The cells come from a {@link CellBloomFilter} built
+ * from the shade output once it's written, set through {@link #setCells} before the flow holding
+ * this filter is connected, and shipped to each task along with it. A few events in unshaded
+ * cells get through, at the filter's rate of false positives, to be dropped by the join as before.
+ * <p>
+ * Expects the argument gps_geohash, a Long when <code>packed</code> and otherwise a String.
+ */
+public class ShadeCellFilter extends BaseOperation<ShadeCellFilter.Context> implements Filter<ShadeCellFilter.Context>
+  {
+  public static final String OPERATION = "ShadeCellFilter";
+  public static final String DROPPED = "dropped";
+
+  public static class Context
+    {
+    OperationStats stats;
+    }
+
+  protected boolean packed = false;
+  protected CellBloomFilter cells;
+
+  public ShadeCellFilter( boolean packed )
+    {
+    super( 1 );
+    this.packed = packed;
+    }
+
+  public void setCells( CellBloomFilter cells )
+    {
+    this.cells = cells;
+    }
+
+  public void prepare( FlowProcess flowProcess, OperationCall<Context> operationCall )
+    {
+    if( cells == null )
+      throw new IllegalStateException( "no shaded cells were set before the flow was connected" );
+
+    Context context = new Context();
+    context.stats = new OperationStats( OPERATION, DROPPED );
+    operationCall.setContext( context );
+    }
+
+  public boolean isRemove( FlowProcess flowProcess, FilterCall<Context> filterCall )
+    {
+    OperationStats stats = filterCall.getContext().stats;
+    long start = stats.begin();
+    Object geohash = filterCall.getArguments().getObject( 0 );
+    boolean remove = geohash == null || !cells.mightContain( CellBloomFilter.key( geohash, packed ) );
+
+    if( remove )
+      stats.increment( 0, 1 );
+
+    stats.end( start, remove ? 0 : 1 );
+    return remove;
+    }
+
+  public void cleanup( FlowProcess flowProcess, OperationCall<Context> operationCall )
+    {
+    operationCall.getContext().stats.flush( flowProcess );
+    }
+  }
@@ -0,0 +1,501 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package copa;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.spatial.geohash.GeoHashUtils;
+
+/**
+ * An in-memory index of shaded road segments, read from the <code>shade</code> output (and
+ * optionally <code>road</code>, so unshaded segments are known too), for answering "which
+ * nearby road is shadiest" without running a flow.
+ * <p>
+ * Segments are keyed in a {@link GeoHashTable} by every geohash cell their bounding box meets,
+ * so a long segment costs a few more entries rather than widening every query, and each
+ * segment's trees are held as runs of distance and height in primitive arrays. A query walks
+ * the cells covering its radius, so costs microseconds for a city the size of Palo Alto.
+ * <p>
+ * The index is read only once built; each thread searches it through its own {@link Searcher}.
+ */
+public class ShadeIndex
+  {
+  /** geohash precision of the cells segments are keyed by, about 150 meters square at Palo Alto */
+  public static final int PRECISION = 7;
+  /** the widest radius, in meters, a query may ask for */
+  public static final double MAX_RADIUS = 5000.0;
+
+  private final int segments;
+  private final String[] names;
+  private final double[] albedo;
+  // lat0, lng0, lat1, lng1 of each segment
+  private final double[] coords;
+  // the trees of segment s are tree_start[ s ] .. tree_start[ s + 1 ]
+  private final int[] tree_start;
+  private final float[] tree_dist;
+  private final float[] tree_height;
+  private final GeoHashTable cells;
+  // the segment of each row in cells, a segment having a row per cell it meets
+  private final int[] cell_segment;
+
+  private ShadeIndex( Loader loader )
+    {
+    segments = loader.segments;
+    names = Arrays.copyOf( loader.names, segments );
+    albedo = Arrays.copyOf( loader.albedo, segments );
+    coords = Arrays.copyOf( loader.coords, 4 * segments );
+
+    // lay each segment's trees out together with a counting sort
+    tree_start = new int[ segments + 1 ];
+
+    for( int t = 0; t < loader.trees; t++ )
+      tree_start[ loader.tree_segment[ t ] + 1 ]++;
+
+    for( int s = 0; s < segments; s++ )
+      tree_start[ s + 1 ] += tree_start[ s ];
+
+    int[] fill = Arrays.copyOf( tree_start, segments );
+    tree_dist = new float[ loader.trees ];
+    tree_height = new float[ loader.trees ];
+
+    for( int t = 0; t < loader.trees; t++ )
+      {
+      int slot = fill[ loader.tree_segment[ t ] ]++;
+      tree_dist[ slot ] = loader.tree_dist[ t ];
+      tree_height[ slot ] = loader.tree_height[ t ];
+      }
+
+    cells = new GeoHashTable();
+    long[] cover = new long[ 16 ];
+    int[] rows = new int[ segments ];
+    int count = 0;
+
+    for( int s = 0; s < segments; s++ )
+      {
+      double lat0 = coords[ 4 * s ], lng0 = coords[ 4 * s + 1 ];
+      double lat1 = coords[ 4 * s + 2 ], lng1 = coords[ 4 * s + 3 ];
+      int covered = GeoHashUtils.cover( Math.min( lat0, lat1 ), Math.min( lng0, lng1 ), Math.max( lat0, lat1 ), Math.max( lng0, lng1 ), PRECISION, cover );
+
+      if( covered > cover.length )
+        {
+        cover = new long[ covered ];
+        GeoHashUtils.cover( Math.min( lat0, lat1 ), Math.min( lng0, lng1 ), Math.max( lat0, lat1 ), Math.max( lng0, lng1 ), PRECISION, cover );
+        }
+
+      for( int c = 0; c < covered; c++ )
+        {
+        if( count == rows.length )
+          rows = Arrays.copyOf( rows, 2 * count + 1 );
+
+        rows[ cells.add( cover[ c ] ) ] = s;
+        count++;
+        }
+      }
+
+    cells.group();
+    cell_segment = Arrays.copyOf( rows, count );
+    }
+
+  /** reads the given <code>shade</code> or <code>road</code> outputs, each a file or a directory of part files */
+  public static ShadeIndex load( String... paths ) throws IOException
+    {
+    Loader loader = new Loader();
+
+    for( String path : paths )
+      loader.read( new File( path ) );
+
+    return loader.build();
+    }
+
+  public Searcher searcher()
+    {
+    return new Searcher();
+    }
+
+  public int size()
+    {
+    return segments;
+    }
+
+  public int trees()
+    {
+    return tree_dist.length;
+    }
+
+  public String getName( int segment )
+    {
+    return names[ segment ];
+    }
+
+  public double getAlbedo( int segment )
+    {
+    return albedo[ segment ];
+    }
+
+  public double getLat0( int segment )
+    {
+    return coords[ 4 * segment ];
+    }
+
+  public double getLng0( int segment )
+    {
+    return coords[ 4 * segment + 1 ];
+    }
+
+  public double getLat1( int segment )
+    {
+    return coords[ 4 * segment + 2 ];
+    }
+
+  public double getLng1( int segment )
+    {
+    return coords[ 4 * segment + 3 ];
+    }
+
+  public int getTreeCount( int segment )
+    {
+    return tree_start[ segment + 1 ] - tree_start[ segment ];
+    }
+
+  /**
+   * The sun's elevation in degrees at an equinox, which is close enough to the yearly mean for
+   * ranking shade, with <code>hour</code> in local solar time.
+   */
+  public static double sunElevation( double lat, double hour )
+    {
+    double hour_angle = Math.toRadians( 15.0 * ( hour - 12.0 ) );
+    return Math.toDegrees( Math.asin( Math.cos( Math.toRadians( lat ) ) * Math.cos( hour_angle ) ) );
+    }
+
+  /**
+   * Finds the segments within a radius of a point, shadiest first. Without an hour, a segment's
+   * shade is the number of trees along it. Given one, only trees tall enough for their shadow to
+   * reach the road at that hour count, taking each tree's distance from the road in meters and
+   * its height as the mean of its species' range, and ignoring which side of the road it stands
+   * on; once the sun is down every tree counts again.
+   * <p>
+   * Not thread safe: results are held by the searcher until the next search.
+   */
+  public class Searcher
+    {
+    // the search each segment was last met in, so a segment in several cells is offered once
+    private final int[] seen = new int[ segments ];
+    private int searches = 0;
+    private int[] found = new int[ 16 ];
+    private double[] found_distance = new double[ 16 ];
+    private int[] found_shade = new int[ 16 ];
+    private long[] cover = new long[ 16 ];
+    private int count = 0;
+
+    /**
+     * @param radius in meters, up to {@link #MAX_RADIUS}
+     * @param hour   local solar time in hours, or NaN to rank by tree count alone
+     * @param limit  the most segments to return
+     * @return the number of segments found, each then available through the getters below
+     */
+    public int search( double lat, double lng, double radius, double hour, int limit )
+      {
+      if( radius < 0.0 || radius > MAX_RADIUS )
+        throw new IllegalArgumentException( "radius must be between 0 and " + MAX_RADIUS + " meters, got: " + radius );
+
+      if( limit < 1 )
+        throw new IllegalArgumentException( "limit must be positive, got: " + limit );
+
+      if( found.length < limit )
+        {
+        found = new int[ limit ];
+        found_distance = new double[ limit ];
+        found_shade = new int[ limit ];
+        }
+
+      count = 0;
+      searches++;
+
+      // shadows reach the road when height / tan( elevation ) >= tree_dist
+      double elevation = Double.isNaN( hour ) ? -1.0 : Math.toRadians( sunElevation( lat, hour ) );
+      float sin_elevation = (float) Math.sin( Math.max( elevation, 0.0 ) );
+      float cos_elevation = (float) Math.cos( Math.max( elevation, 0.0 ) );
+
+      // every cell within the radius, each holding the segments that meet it
+      double lat_radius = radius / GeoDistance.METERS_PER_DEGREE;
+      double lng_radius = lat_radius / Math.max( GeoDistance.cosLatitude( lat ), 1e-6 );
+      int covered = GeoHashUtils.cover( lat - lat_radius, lng - lng_radius, lat + lat_radius, lng + lng_radius, PRECISION, cover );
+
+      if( covered > cover.length )
+        {
+        cover = new long[ covered ];
+        GeoHashUtils.cover( lat - lat_radius, lng - lng_radius, lat + lat_radius, lng + lng_radius, PRECISION, cover );
+        }
+
+      for( int c = 0; c < covered; c++ )
+        {
+        int handle = cells.find( cover[ c ] );
+
+        for( int i = cells.start( handle ); i < cells.end( handle ); i++ )
+          {
+          int segment = cell_segment[ cells.row( i ) ];
+
+          if( seen[ segment ] == searches )
+            continue;
+
+          seen[ segment ] = searches;
+          int offset = 4 * segment;
+          double distance = GeoDistance.segment( lat, lng, coords[ offset ], coords[ offset + 1 ], coords[ offset + 2 ], coords[ offset + 3 ] );
+
+          if( distance > radius )
+            continue;
+
+          int shade = tree_start[ segment + 1 ] - tree_start[ segment ];
+
+          if( elevation > 0.0 )
+            {
+            shade = 0;
+
+            for( int t = tree_start[ segment ]; t < tree_start[ segment + 1 ]; t++ )
+              {
+              if( tree_height[ t ] * cos_elevation >= tree_dist[ t ] * sin_elevation )
+                shade++;
+              }
+            }
+
+          offer( segment, distance, shade, limit );
+          }
+        }
+
+      return count;
+      }
+
+    public int getSegment( int i )
+      {
+      return found[ i ];
+      }
+
+    /** @return meters from the query point to the nearest point of the i-th segment */
+    public double getDistance( int i )
+      {
+      return found_distance[ i ];
+      }
+
+    /** @return the number of trees shading the i-th segment */
+    public int getShade( int i )
+      {
+      return found_shade[ i ];
+      }
+
+    // keeps the best limit segments so far in order, shadiest then nearest first
+    private void offer( int segment, double distance, int shade, int limit )
+      {
+      int i = count;
+
+      while( i > 0 && ( shade > found_shade[ i - 1 ] || shade == found_shade[ i - 1 ] && distance < found_distance[ i - 1 ] ) )
+        i--;
+
+      if( i == limit )
+        return;
+
+      int last = Math.min( count, limit - 1 );
+      System.arraycopy( found, i, found, i + 1, last - i );
+      System.arraycopy( found_distance, i, found_distance, i + 1, last - i );
+      System.arraycopy( found_shade, i, found_shade, i + 1, last - i );
+
+      found[ i ] = segment;
+      found_distance[ i ] = distance;
+      found_shade[ i ] = shade;
+      count = last + 1;
+      }
+    }
+
+  /**
+   * Collects segments and their trees, from output files or directly, then builds the index.
+   * Segments are told apart by name and end points, so the same segment read from both
+   * <code>road</code> and <code>shade</code> is only indexed once.
+   */
+  public static class Loader
+    {
+    private final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+    private String[] names = new String[ 1024 ];
+    private double[] albedo = new double[ 1024 ];
+    private double[] coords = new double[ 4 * 1024 ];
+    private int segments = 0;
+
+    private int[] tree_segment = new int[ 1024 ];
+    private float[] tree_dist = new float[ 1024 ];
+    private float[] tree_height = new float[ 1024 ];
+    private int trees = 0;
+
+    /** @return the number of the segment, the same as before if it was already added */
+    public int addSegment( String name, double albedo, double lat0, double lng0, double lat1, double lng1 )
+      {
+      String key = name + '\t' + lat0 + '\t' + lng0 + '\t' + lat1 + '\t' + lng1;
+      Integer id = ids.get( key );
+
+      if( id != null )
+        return id;
+
+      if( segments == names.length )
+        {
+        names = Arrays.copyOf( names, 2 * segments );
+        this.albedo = Arrays.copyOf( this.albedo, 2 * segments );
+        coords = Arrays.copyOf( coords, 8 * segments );
+        }
+
+      names[ segments ] = name;
+      this.albedo[ segments ] = albedo;
+      coords[ 4 * segments ] = lat0;
+      coords[ 4 * segments + 1 ] = lng0;
+      coords[ 4 * segments + 2 ] = lat1;
+      coords[ 4 * segments + 3 ] = lng1;
+      ids.put( key, segments );
+
+      return segments++;
+      }
+
+    /** @param dist meters from the tree to the nearest point of the segment */
+    public void addTree( int segment, double dist, double height )
+      {
+      if( trees == tree_segment.length )
+        {
+        tree_segment = Arrays.copyOf( tree_segment, 2 * trees );
+        tree_dist = Arrays.copyOf( tree_dist, 2 * trees );
+        tree_height = Arrays.copyOf( tree_height, 2 * trees );
+        }
+
+      tree_segment[ trees ] = segment;
+      tree_dist[ trees ] = (float) dist;
+      tree_height[ trees ] = (float) height;
+      trees++;
+      }
+
+    /**
+     * As {@link #read(File)}, but of an output partitioned by geohash prefix, reads only the
+     * partitions meeting the box; see {@link GeoHashPartitions}.
+     */
+    public void read( File path, double min_lat, double min_lng, double max_lat, double max_lng ) throws IOException
+      {
+      List<File> partitions = GeoHashPartitions.directories( path, min_lat, min_lng, max_lat, max_lng );
+
+      if( partitions == null )
+        {
+        read( path );
+        return;
+        }
+
+      for( File partition : partitions )
+        read( partition );
+      }
+
+    /**
+     * Reads a headed, tab delimited output, or each part file of a directory of them, including
+     * those in the partition directories of an output partitioned by geohash prefix. Rows with
+     * a tree's position and heights, as in <code>shade</code>, add a tree to their segment; rows
+     * without, as in <code>road</code>, just the segment.
+     * <p>
+     * A tree's distance from the road is measured again here, in meters to the nearest point of
+     * the segment, as the <code>tree_dist</code> of the default {@link GeoDistance.Mode#MIDPOINT}
+     * isn't in meters.
+     */
+    public void read( File path ) throws IOException
+      {
+      if( path.isDirectory() )
+        {
+        File[] parts = path.listFiles();
+        Arrays.sort( parts );
+
+        for( File part : parts )
+          {
+          if( !part.getName().startsWith( "_" ) && !part.getName().startsWith( "." ) )
+            read( part );
+          }
+
+        return;
+        }
+
+      BufferedReader reader = new BufferedReader( new InputStreamReader( new FileInputStream( path ), "UTF-8" ) );
+
+      try
+        {
+        String line = reader.readLine();
+
+        if( line == null )
+          return;
+
+        String[] header = line.split( "\t", -1 );
+        int road_name = column( header, "road_name", path );
+        int albedo = column( header, "albedo", path );
+        int lat0 = column( header, "lat0", path );
+        int lng0 = column( header, "lng0", path );
+        int lat1 = column( header, "lat1", path );
+        int lng1 = column( header, "lng1", path );
+        int tree_lat = Arrays.asList( header ).indexOf( "tree_lat" );
+        int tree_lng = tree_lat < 0 ? -1 : column( header, "tree_lng", path );
+        int min_height = tree_lat < 0 ? -1 : column( header, "min_height", path );
+        int max_height = tree_lat < 0 ? -1 : column( header, "max_height", path );
+
+        while( ( line = reader.readLine() ) != null )
+          {
+          String[] values = line.split( "\t", -1 );
+
+          if( values.length != header.length )
+            throw new IOException( "expected " + header.length + " columns in " + path + ", got: " + line );
+
+          double road_lat0 = Double.parseDouble( values[ lat0 ] ), road_lng0 = Double.parseDouble( values[ lng0 ] );
+          double road_lat1 = Double.parseDouble( values[ lat1 ] ), road_lng1 = Double.parseDouble( values[ lng1 ] );
+          int segment = addSegment( values[ road_name ], Double.parseDouble( values[ albedo ] ), road_lat0, road_lng0, road_lat1, road_lng1 );
+
+          if( tree_lat >= 0 )
+            {
+            double dist = GeoDistance.segment( Double.parseDouble( values[ tree_lat ] ), Double.parseDouble( values[ tree_lng ] ), road_lat0, road_lng0, road_lat1, road_lng1 );
+            double height = ( Double.parseDouble( values[ min_height ] ) + Double.parseDouble( values[ max_height ] ) ) / 2.0;
+            addTree( segment, dist, height );
+            }
+          }
+        }
+      finally
+        {
+        reader.close();
+        }
+      }
+
+    public ShadeIndex build()
+      {
+      return new ShadeIndex( this );
+      }
+
+    private static int column( String[] header, String name, File path ) throws IOException
+      {
+      int column = Arrays.asList( header ).indexOf( name );
+
+      if( column < 0 )
+        throw new IOException( "no " + name + " column in " + path );
+
+      return column;
+      }
+    }
+  }
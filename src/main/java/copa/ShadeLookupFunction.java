@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package copa;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Function;
+import cascading.operation.FunctionCall;
+import cascading.operation.OperationCall;
+import cascading.operation.OperationException;
+import cascading.tap.Tap;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryIterator;
+
+/**
+ * A map-side replacement for the reco CoGroup: each task reads the shade output from
+ * <code>shadeTap</code> into a {@link GeoHashTable} keyed by tree_geohash once, then emits every
+ * shade row in the cell of each GPS event passed in. Cells are keyed by {@link CellBloomFilter#key},
+ * so the adaptive cells of varying length stay apart.
+ * <p>
+ * Expects the argument gps_geohash, a Long when <code>packed</code> and otherwise a String, and
+ * declares the shade fields to read from the tap, which must include tree_geohash.
+ */
+public class ShadeLookupFunction extends BaseOperation<ShadeLookupFunction.Context> implements Function<ShadeLookupFunction.Context>
+  {
+  public static class Context
+    {
+    GeoHashTable table;
+    Tuple[] shade;
+    }
+
+  protected Tap shadeTap;
+  protected boolean packed = false;
+
+  public ShadeLookupFunction( Fields fieldDeclaration, Tap shadeTap, boolean packed )
+    {
+    super( 1, fieldDeclaration );
+    this.shadeTap = shadeTap;
+    this.packed = packed;
+    }
+
+  public void prepare( FlowProcess flowProcess, OperationCall<Context> operationCall )
+    {
+    Fields shadeFields = getFieldDeclaration();
+    GeoHashTable table = new GeoHashTable();
+    List<Tuple> shade = new ArrayList<Tuple>();
+
+    try
+      {
+      TupleEntryIterator iterator = flowProcess.openTapForRead( shadeTap );
+
+      try
+        {
+        while( iterator.hasNext() )
+          {
+          TupleEntry entry = iterator.next();
+
+          // from a text shade output a packed geohash comes back as a String, so read it as one either way
+          table.add( CellBloomFilter.key( entry.getString( "tree_geohash" ), packed ) );
+          shade.add( entry.selectTuple( shadeFields ) );
+          }
+        }
+      finally
+        {
+        iterator.close();
+        }
+      }
+    catch( IOException exception )
+      {
+      throw new OperationException( "unable to read shade from: " + shadeTap, exception );
+      }
+
+    Context context = new Context();
+    context.table = table;
+    context.shade = shade.toArray( new Tuple[ shade.size() ] );
+    operationCall.setContext( context );
+    }
+
+  public void operate( FlowProcess flowProcess, FunctionCall<Context> functionCall )
+    {
+    TupleEntry argument = functionCall.getArguments();
+    long geohash = CellBloomFilter.key( argument.getObject( 0 ), packed );
+    Context context = functionCall.getContext();
+
+    int hits = context.table.query( geohash );
+
+    for( int i = 0; i < hits; i++ )
+      functionCall.getOutputCollector().add( context.shade[ context.table.getHit( i ) ] );
+    }
+
+  public void cleanup( FlowProcess flowProcess, OperationCall<Context> operationCall )
+    {
+    operationCall.setContext( null );
+    }
+
+  /** @return the number of rows in <code>shadeTap</code>, counting no further than <code>limit</code> */
+  public static long countRows( FlowProcess flowProcess, Tap shadeTap, long limit ) throws IOException
+    {
+    TupleEntryIterator iterator = flowProcess.openTapForRead( shadeTap );
+    long rows = 0;
+
+    try
+      {
+      while( rows < limit && iterator.hasNext() )
+        {
+        iterator.next();
+        rows++;
+        }
+      }
+    finally
+      {
+      iterator.close();
+      }
+
+    return rows;
+    }
+  }
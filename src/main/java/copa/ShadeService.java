@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package copa;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A small HTTP endpoint on localhost answering shade queries from a {@link ShadeIndex}:
+ *
+ * <pre>
+ *   GET /shade?lat=37.4436&amp;lng=-122.1612&amp;radius=250&amp;hour=15&amp;limit=5
+ * </pre>
+ *
+ * returns the nearby segments as JSON, shadiest first. Only <code>lat</code> and
+ * <code>lng</code> are required; <code>radius</code> defaults to {@link #DEFAULT_RADIUS} meters,
+ * <code>limit</code> to {@link #DEFAULT_LIMIT}, and without an <code>hour</code> segments are
+ * ranked by their number of trees.
+ */
+public class ShadeService
+  {
+  public static final String PORT = "port";
+  public static final String ROAD = "road";
+  public static final String THREADS = "threads";
+  /** load only the partitions meeting a box, min_lat,min_lng,max_lat,max_lng, of outputs partitioned by geohash prefix */
+  public static final String REGION = "region";
+
+  public static final double DEFAULT_RADIUS = 250.0;
+  public static final int DEFAULT_LIMIT = 10;
+  public static final int MAX_LIMIT = 100;
+
+  // responses are written as headers then body, which Nagle's algorithm and delayed acks would
+  // otherwise hold back by 40ms or so on a kept alive connection; read when the first server starts
+  static
+    {
+    if( System.getProperty( "sun.net.httpserver.nodelay" ) == null )
+      System.setProperty( "sun.net.httpserver.nodelay", "true" );
+    }
+
+  private final ShadeIndex index;
+  private final ThreadLocal<ShadeIndex.Searcher> searchers;
+  private final HttpServer server;
+  private final ExecutorService executor;
+
+  /** binds to <code>port</code> on the loopback address, or any free port when 0 */
+  public ShadeService( final ShadeIndex index, int port, int threads ) throws IOException
+    {
+    this.index = index;
+    this.searchers = new ThreadLocal<ShadeIndex.Searcher>()
+    {
+    protected ShadeIndex.Searcher initialValue()
+      {
+      return index.searcher();
+      }
+    };
+
+    server = HttpServer.create( new InetSocketAddress( InetAddress.getByName( "127.0.0.1" ), port ), 0 );
+    server.createContext( "/shade", new HttpHandler()
+    {
+    public void handle( HttpExchange exchange ) throws IOException
+      {
+      respond( exchange );
+      }
+    } );
+
+    executor = Executors.newFixedThreadPool( threads );
+    server.setExecutor( executor );
+    }
+
+  public void start()
+    {
+    server.start();
+    }
+
+  public void stop()
+    {
+    server.stop( 0 );
+    executor.shutdown();
+    }
+
+  public int getPort()
+    {
+    return server.getAddress().getPort();
+    }
+
+  private void respond( HttpExchange exchange ) throws IOException
+    {
+    int status = 200;
+    String body;
+
+    try
+      {
+      if( !exchange.getRequestMethod().equals( "GET" ) )
+        {
+        status = 405;
+        body = error( "only GET is supported" );
+        }
+      else
+        {
+        body = query( parseQuery( exchange.getRequestURI().getRawQuery() ) );
+        }
+      }
+    catch( IllegalArgumentException exception )
+      {
+      // also covers a NumberFormatException from a malformed parameter
+      status = 400;
+      body = error( exception.getMessage() );
+      }
+
+    byte[] bytes = body.getBytes( "UTF-8" );
+    exchange.getResponseHeaders().set( "Content-Type", "application/json; charset=utf-8" );
+    exchange.sendResponseHeaders( status, bytes.length );
+
+    OutputStream stream = exchange.getResponseBody();
+
+    try
+      {
+      stream.write( bytes );
+      }
+    finally
+      {
+      stream.close();
+      }
+    }
+
+  /** answers one query, given its parameters, as a JSON document */
+  public String query( Properties parameters )
+    {
+    double lat = parseDouble( parameters, "lat", Double.NaN );
+    double lng = parseDouble( parameters, "lng", Double.NaN );
+    double radius = parseDouble( parameters, "radius", DEFAULT_RADIUS );
+    double hour = parseDouble( parameters, "hour", Double.NaN );
+    int limit = Integer.parseInt( parameters.getProperty( "limit", String.valueOf( DEFAULT_LIMIT ) ) );
+
+    if( Double.isNaN( lat ) || Double.isNaN( lng ) || Math.abs( lat ) > 90.0 || Math.abs( lng ) > 180.0 )
+      throw new IllegalArgumentException( "lat and lng are required, in degrees" );
+
+    if( !Double.isNaN( hour ) && ( hour < 0.0 || hour > 24.0 ) )
+      throw new IllegalArgumentException( "hour must be between 0 and 24, got: " + hour );
+
+    ShadeIndex.Searcher searcher = searchers.get();
+    int count = searcher.search( lat, lng, radius, hour, Math.min( limit, MAX_LIMIT ) );
+
+    StringBuilder json = new StringBuilder( 128 + 192 * count );
+    json.append( "{\"lat\":" ).append( lat ).append( ",\"lng\":" ).append( lng ).append( ",\"radius\":" ).append( radius );
+
+    if( !Double.isNaN( hour ) )
+      json.append( ",\"hour\":" ).append( hour ).append( ",\"sun_elevation\":" ).append( ShadeIndex.sunElevation( lat, hour ) );
+
+    json.append( ",\"segments\":[" );
+
+    for( int i = 0; i < count; i++ )
+      {
+      int segment = searcher.getSegment( i );
+
+      if( i > 0 )
+        json.append( ',' );
+
+      json.append( "{\"road_name\":" );
+      quote( json, index.getName( segment ) );
+      json.append( ",\"lat0\":" ).append( index.getLat0( segment ) );
+      json.append( ",\"lng0\":" ).append( index.getLng0( segment ) );
+      json.append( ",\"lat1\":" ).append( index.getLat1( segment ) );
+      json.append( ",\"lng1\":" ).append( index.getLng1( segment ) );
+      json.append( ",\"albedo\":" ).append( index.getAlbedo( segment ) );
+      json.append( ",\"trees\":" ).append( index.getTreeCount( segment ) );
+      json.append( ",\"shade\":" ).append( searcher.getShade( i ) );
+      json.append( ",\"distance\":" ).append( Math.round( searcher.getDistance( i ) * 10.0 ) / 10.0 );
+      json.append( '}' );
+      }
+
+    return json.append( "]}" ).toString();
+    }
+
+  static Properties parseQuery( String query )
+    {
+    Properties parameters = new Properties();
+
+    if( query == null )
+      return parameters;
+
+    try
+      {
+      for( String pair : query.split( "&" ) )
+        {
+        int equals = pair.indexOf( '=' );
+
+        if( equals > 0 )
+          parameters.setProperty( URLDecoder.decode( pair.substring( 0, equals ), "UTF-8" ), URLDecoder.decode( pair.substring( equals + 1 ), "UTF-8" ) );
+        }
+      }
+    catch( UnsupportedEncodingException exception )
+      {
+      throw new IllegalStateException( exception );
+      }
+
+    return parameters;
+    }
+
+  private static double parseDouble( Properties parameters, String name, double defaultValue )
+    {
+    String value = parameters.getProperty( name );
+
+    return value == null ? defaultValue : Double.parseDouble( value );
+    }
+
+  private static String error( String message )
+    {
+    StringBuilder json = new StringBuilder( "{\"error\":" );
+    quote( json, String.valueOf( message ) );
+    return json.append( '}' ).toString();
+    }
+
+  private static void quote( StringBuilder json, String value )
+    {
+    json.append( '"' );
+
+    for( int i = 0; i < value.length(); i++ )
+      {
+      char c = value.charAt( i );
+
+      if( c == '"' || c == '\\' )
+        json.append( '\\' ).append( c );
+      else if( c < 0x20 )
+        json.append( String.format( "\\u%04x", (int) c ) );
+      else
+        json.append( c );
+      }
+
+    json.append( '"' );
+    }
+
+  /**
+   * Serves the given <code>shade</code> outputs until killed, needing nothing but the copa classes
+   * on the classpath:
+   *
+   * <pre>
+   *   java -cp copa.jar copa.ShadeService [--port=8080] [--road=out/road] [--threads=n] [--region=box] out/shade
+   * </pre>
+   */
+  public static void
+  main( String[] args ) throws IOException
+    {
+    Properties options = new Properties();
+    int argc = CopaOptions.parseOptions( args, options );
+    int port = Integer.parseInt( options.getProperty( PORT, "8080" ) );
+    int threads = Integer.parseInt( options.getProperty( THREADS, String.valueOf( Runtime.getRuntime().availableProcessors() ) ) );
+
+    long start = System.nanoTime();
+    ShadeIndex.Loader loader = new ShadeIndex.Loader();
+
+    double[] box = options.getProperty( REGION ) == null ? null : GeoHashPartitions.box( options.getProperty( REGION ) );
+    List<String> paths = new ArrayList<String>( Arrays.asList( args ).subList( argc, args.length ) );
+
+    if( options.getProperty( ROAD ) != null )
+      paths.add( options.getProperty( ROAD ) );
+
+    for( String path : paths )
+      {
+      if( box == null )
+        loader.read( new File( path ) );
+      else
+        loader.read( new File( path ), box[ 0 ], box[ 1 ], box[ 2 ], box[ 3 ] );
+      }
+
+    ShadeIndex index = loader.build();
+    long millis = ( System.nanoTime() - start ) / 1000000;
+
+    ShadeService service = new ShadeService( index, port, threads );
+    service.start();
+
+    System.out.println( "indexed " + index.size() + " segments and " + index.trees() + " trees in " + millis + " ms, serving http://127.0.0.1:" + service.getPort() + "/shade" );
+    }
+  }
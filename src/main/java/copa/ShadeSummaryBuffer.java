@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package copa;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Buffer;
+import cascading.operation.BufferCall;
+import cascading.operation.OperationCall;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+
+/**
+ * Rolls the shade rows of one geohash cell up into a single record, in one pass over the group:
+ * the number of distinct trees, the mean and least tree_dist, the range of tree heights, and the
+ * mean albedo of the roads they shade.
+ * <p>
+ * Expects to be grouped on tree_geohash, with arguments tree_id, tree_dist, min_height,
+ * max_height, albedo, and declares {@link #FIELDS}, starting with the tree_geohash of the group.
+ */
+public class ShadeSummaryBuffer extends BaseOperation<ShadeSummaryBuffer.Context> implements Buffer<ShadeSummaryBuffer.Context>
+  {
+  public static final Fields ARGUMENTS = new Fields( "tree_id", "tree_dist", "min_height", "max_height", "albedo" );
+  public static final Fields FIELDS = new Fields( "tree_geohash", "tree_count", "tree_dist_mean", "tree_dist_min", "height_min", "height_max", "albedo_mean" );
+
+  public static class Context
+    {
+    Set<String> trees = new HashSet<String>();
+    Tuple result = Tuple.size( FIELDS.size() );
+    }
+
+  public ShadeSummaryBuffer()
+    {
+    super( ARGUMENTS.size(), FIELDS );
+    }
+
+  public void prepare( FlowProcess flowProcess, OperationCall<Context> operationCall )
+    {
+    operationCall.setContext( new Context() );
+    }
+
+  public void operate( FlowProcess flowProcess, BufferCall<Context> bufferCall )
+    {
+    Context context = bufferCall.getContext();
+    Iterator<TupleEntry> arguments = bufferCall.getArgumentsIterator();
+
+    long rows = 0;
+    double dist_sum = 0.0, dist_min = Double.POSITIVE_INFINITY;
+    double height_min = Double.POSITIVE_INFINITY, height_max = Double.NEGATIVE_INFINITY;
+    double albedo_sum = 0.0;
+
+    context.trees.clear();
+
+    while( arguments.hasNext() )
+      {
+      TupleEntry argument = arguments.next();
+      double tree_dist = argument.getDouble( 1 );
+
+      context.trees.add( argument.getString( 0 ) );
+      dist_sum += tree_dist;
+      dist_min = Math.min( dist_min, tree_dist );
+      height_min = Math.min( height_min, argument.getDouble( 2 ) );
+      height_max = Math.max( height_max, argument.getDouble( 3 ) );
+      albedo_sum += argument.getDouble( 4 );
+      rows++;
+      }
+
+    Tuple result = context.result;
+    result.set( 0, bufferCall.getGroup().getObject( 0 ) );
+    result.set( 1, context.trees.size() );
+    result.set( 2, dist_sum / rows );
+    result.set( 3, dist_min );
+    result.set( 4, height_min );
+    result.set( 5, height_max );
+    result.set( 6, albedo_sum / rows );
+
+    bufferCall.getOutputCollector().add( result );
+    }
+
+  public void cleanup( FlowProcess flowProcess, OperationCall<Context> operationCall )
+    {
+    operationCall.setContext( null );
+    }
+  }
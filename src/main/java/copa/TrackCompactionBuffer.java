@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package copa;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Iterator;
+import java.util.TimeZone;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Buffer;
+import cascading.operation.BufferCall;
+import cascading.operation.OperationCall;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+
+/**
+ * Collapses one device's track into visits: each run of consecutive pings in the same geohash
+ * cell becomes a single record of when the device entered and left the cell, the seconds it
+ * dwelt there, the number of pings, their mean position and their mean speed, ignoring the
+ * negative speeds logged when none was known (-1 when none was).
+ * <p>
+ * Expects to be grouped on uuid and sorted on date, with arguments date, lat, lng, speed,
+ * gps_geohash, and declares {@link #FIELDS}, starting with the uuid of the group. Dates are
+ * ISO 8601 in UTC, as logged; a visit with a date that doesn't parse gets a dwell of 0.
+ */
+public class TrackCompactionBuffer extends BaseOperation<TrackCompactionBuffer.Context> implements Buffer<TrackCompactionBuffer.Context>
+  {
+  public static final Fields ARGUMENTS = new Fields( "date", "lat", "lng", "speed", "gps_geohash" );
+  public static final Fields FIELDS = new Fields( "uuid", "date", "exit_date", "dwell", "pings", "lat", "lng", "speed", "gps_geohash" );
+
+  public static final String DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss'Z'";
+
+  private static final int UNPARSED_DATES = 0;
+
+  public static class Context
+    {
+    SimpleDateFormat format;
+    Tuple result = Tuple.size( FIELDS.size() );
+    OperationStats stats;
+
+    // the visit being built
+    Object cell;
+    String enter, exit;
+    int pings, speeds;
+    double lat_sum, lng_sum, speed_sum;
+    }
+
+  public TrackCompactionBuffer()
+    {
+    super( ARGUMENTS.size(), FIELDS );
+    }
+
+  public void prepare( FlowProcess flowProcess, OperationCall<Context> operationCall )
+    {
+    Context context = new Context();
+    context.format = new SimpleDateFormat( DATE_FORMAT );
+    context.format.setTimeZone( TimeZone.getTimeZone( "UTC" ) );
+    context.stats = new OperationStats( "TrackCompactionBuffer", "unparsed_dates" );
+    operationCall.setContext( context );
+    }
+
+  public void operate( FlowProcess flowProcess, BufferCall<Context> bufferCall )
+    {
+    Context context = bufferCall.getContext();
+    // each ping is a record in and each visit a record out, so the two give the compaction
+    long start = context.stats.beginGroup();
+    Iterator<TupleEntry> arguments = bufferCall.getArgumentsIterator();
+    Object uuid = bufferCall.getGroup().getObject( 0 );
+    int visits = 0;
+
+    context.cell = null;
+
+    while( arguments.hasNext() )
+      {
+      TupleEntry argument = arguments.next();
+      Object cell = argument.getObject( 4 );
+      context.stats.recordIn();
+
+      // a ping in another cell ends the visit
+      if( context.cell == null || !context.cell.equals( cell ) )
+        {
+        if( context.cell != null )
+          {
+          emit( bufferCall, uuid );
+          visits++;
+          }
+
+        context.cell = cell;
+        context.enter = argument.getString( 0 );
+        context.pings = context.speeds = 0;
+        context.lat_sum = context.lng_sum = context.speed_sum = 0.0;
+        }
+
+      double speed = argument.getDouble( 3 );
+
+      context.exit = argument.getString( 0 );
+      context.pings++;
+      context.lat_sum += argument.getDouble( 1 );
+      context.lng_sum += argument.getDouble( 2 );
+
+      if( speed >= 0.0 )
+        {
+        context.speeds++;
+        context.speed_sum += speed;
+        }
+      }
+
+    if( context.cell != null )
+      {
+      emit( bufferCall, uuid );
+      visits++;
+      }
+
+    context.stats.end( start, visits );
+    }
+
+  private void emit( BufferCall<Context> bufferCall, Object uuid )
+    {
+    Context context = bufferCall.getContext();
+    Tuple result = context.result;
+
+    result.set( 0, uuid );
+    result.set( 1, context.enter );
+    result.set( 2, context.exit );
+    result.set( 3, dwell( context ) );
+    result.set( 4, context.pings );
+    result.set( 5, context.lat_sum / context.pings );
+    result.set( 6, context.lng_sum / context.pings );
+    result.set( 7, context.speeds == 0 ? -1.0 : context.speed_sum / context.speeds );
+    result.set( 8, context.cell );
+
+    bufferCall.getOutputCollector().add( result );
+    }
+
+  // seconds from the first ping of the visit to the last
+  private static long dwell( Context context )
+    {
+    if( context.pings == 1 )
+      return 0L;
+
+    try
+      {
+      return ( context.format.parse( context.exit ).getTime() - context.format.parse( context.enter ).getTime() ) / 1000L;
+      }
+    catch( ParseException exception )
+      {
+      context.stats.increment( UNPARSED_DATES, 1 );
+      return 0L;
+      }
+    }
+
+  public void cleanup( FlowProcess flowProcess, OperationCall<Context> operationCall )
+    {
+    operationCall.getContext().stats.flush( flowProcess );
+    }
+  }
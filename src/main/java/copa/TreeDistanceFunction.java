@@ -24,20 +24,56 @@ import cascading.flow.FlowProcess;
 import cascading.operation.BaseOperation;
 import cascading.operation.Function;
 import cascading.operation.FunctionCall;
+import cascading.operation.OperationCall;
 import cascading.tuple.Fields;
 import cascading.tuple.Tuple;
 import cascading.tuple.TupleEntry;
 
 
-public class TreeDistanceFunction extends BaseOperation implements Function
+public class TreeDistanceFunction extends BaseOperation<TreeDistanceFunction.Context> implements Function<TreeDistanceFunction.Context>
   {
+  public static class Context
+    {
+    Tuple result = Tuple.size( 1 );
+    OperationStats stats = new OperationStats( "TreeDistanceFunction", "beyond_cutoff" );
+    }
+
+  private static final int BEYOND_CUTOFF = 0;
+
+  protected GeoDistance.Mode mode = GeoDistance.Mode.MIDPOINT;
+  protected double cutoff = Double.MAX_VALUE;
+
   public TreeDistanceFunction( Fields fieldDeclaration )
+    {
+    this( fieldDeclaration, GeoDistance.Mode.MIDPOINT );
+    }
+
+  /**
+   * {@link GeoDistance.Mode#MIDPOINT} keeps the original estimate, the distance in degrees to the
+   * segment midpoint times 61290. The other modes measure meters to the nearest point of the segment.
+   */
+  public TreeDistanceFunction( Fields fieldDeclaration, GeoDistance.Mode mode )
+    {
+    this( fieldDeclaration, mode, Double.MAX_VALUE );
+    }
+
+  /** counts the distances over <code>cutoff</code>, which a filter downstream is expected to drop */
+  public TreeDistanceFunction( Fields fieldDeclaration, GeoDistance.Mode mode, double cutoff )
     {
     super( 1, fieldDeclaration );
+    this.mode = mode;
+    this.cutoff = cutoff;
    }
 
-  public void operate( FlowProcess flowProcess, FunctionCall functionCall )
+  public void prepare( FlowProcess flowProcess, OperationCall<Context> operationCall )
     {
+    operationCall.setContext( new Context() );
+    }
+
+  public void operate( FlowProcess flowProcess, FunctionCall<Context> functionCall )
+    {
+    Context context = functionCall.getContext();
+    long start = context.stats.begin();
     TupleEntry argument = functionCall.getArguments();
     double tree_lat = argument.getDouble( 0 );
     double tree_lng = argument.getDouble( 1 );
@@ -46,24 +82,19 @@ public class TreeDistanceFunction extends BaseOperation implements Function
     double lat1 = argument.getDouble( 4 );
     double lng1 = argument.getDouble( 5 );
 
-    // approximation in meters, based on a euclidean approach
-    // for a better metric, try using a Haversine formula
-
-    //double tree_dist = pointToLineDistance( lat0, lng0, lat1, lng1, tree_lat, tree_lng );
-    //tree_dist = Math.min( tree_dist, Math.hypot( tree_lat - lat0, tree_lng - lng0 ) );
-    //tree_dist = Math.min( tree_dist, Math.hypot( tree_lat - lat1, tree_lng - lng1 ) );
+    double tree_dist = GeoDistance.distance( mode, tree_lat, tree_lng, lat0, lng0, lat1, lng1 );
 
-    double tree_dist = Math.hypot( tree_lat - ( ( lat0 + lat1 ) / 2.0 ), tree_lng - ( ( lng0 + lng1 ) / 2.0 ) );
+    if( tree_dist > cutoff )
+      context.stats.increment( BEYOND_CUTOFF, 1 );
 
-    Tuple result = new Tuple();
-    result.add( tree_dist * 61290.0 );
+    Tuple result = context.result;
+    result.set( 0, tree_dist );
     functionCall.getOutputCollector().add( result );
+    context.stats.end( start, 1 );
     }
 
-  // http://en.wikipedia.org/wiki/Distance_from_a_point_to_a_line
-  public double pointToLineDistance( double x0, double y0, double x1, double y1, double x_, double y_ )
+  public void cleanup( FlowProcess flowProcess, OperationCall<Context> operationCall )
     {
-    double norm_len = Math.hypot( x1 - x0, y1 - y0 );
-    return Math.abs( ( x_ - x0 ) * ( y1 - y0 ) - ( y_ - y0 ) * ( x1 - x0 ) ) / norm_len;
+    operationCall.getContext().stats.flush( flowProcess );
     }
   }
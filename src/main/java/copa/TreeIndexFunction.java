@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package copa;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Function;
+import cascading.operation.FunctionCall;
+import cascading.operation.OperationCall;
+import cascading.operation.OperationException;
+import cascading.tap.Tap;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryIterator;
+
+/**
+ * A map-side replacement for the tree/road CoGroup: each task reads every tree from
+ * <code>treeTap</code> into a {@link PointGridIndex} once, then emits the trees within
+ * <code>radius</code> meters of the bounding box of each road segment passed in.
+ * <p>
+ * Expects arguments lat0, lng0, lat1, lng1, and declares the tree fields to read from the tap,
+ * which must include tree_lat and tree_lng.
+ */
+public class TreeIndexFunction extends BaseOperation<TreeIndexFunction.Context> implements Function<TreeIndexFunction.Context>
+  {
+  public static class Context
+    {
+    PointGridIndex index;
+    Tuple[] trees;
+    }
+
+  protected Tap treeTap;
+  protected double radius = 0.0;
+
+  public TreeIndexFunction( Fields fieldDeclaration, Tap treeTap, double radius )
+    {
+    super( 4, fieldDeclaration );
+    this.treeTap = treeTap;
+    this.radius = radius;
+    }
+
+  public void prepare( FlowProcess flowProcess, OperationCall<Context> operationCall )
+    {
+    Fields treeFields = getFieldDeclaration();
+    List<Tuple> trees = new ArrayList<Tuple>();
+    double[] lats = new double[ 1024 ];
+    double[] lngs = new double[ 1024 ];
+
+    try
+      {
+      TupleEntryIterator iterator = flowProcess.openTapForRead( treeTap );
+
+      try
+        {
+        while( iterator.hasNext() )
+          {
+          TupleEntry entry = iterator.next();
+
+          if( trees.size() == lats.length )
+            {
+            lats = grow( lats );
+            lngs = grow( lngs );
+            }
+
+          lats[ trees.size() ] = entry.getDouble( "tree_lat" );
+          lngs[ trees.size() ] = entry.getDouble( "tree_lng" );
+          trees.add( entry.selectTuple( treeFields ) );
+          }
+        }
+      finally
+        {
+        iterator.close();
+        }
+      }
+    catch( IOException exception )
+      {
+      throw new OperationException( "unable to read trees from: " + treeTap, exception );
+      }
+
+    Context context = new Context();
+    context.index = new PointGridIndex( lats, lngs, trees.size(), radius / GeoHashNeighborFunction.METERS_PER_DEGREE );
+    context.trees = trees.toArray( new Tuple[ trees.size() ] );
+    operationCall.setContext( context );
+    }
+
+  public void operate( FlowProcess flowProcess, FunctionCall<Context> functionCall )
+    {
+    TupleEntry argument = functionCall.getArguments();
+    double lat0 = argument.getDouble( 0 );
+    double lng0 = argument.getDouble( 1 );
+    double lat1 = argument.getDouble( 2 );
+    double lng1 = argument.getDouble( 3 );
+
+    double lat_radius = radius / GeoHashNeighborFunction.METERS_PER_DEGREE;
+    double lng_radius = lat_radius / Math.cos( Math.toRadians( ( lat0 + lat1 ) / 2.0 ) );
+
+    Context context = functionCall.getContext();
+    int hits = context.index.query( Math.min( lat0, lat1 ) - lat_radius, Math.min( lng0, lng1 ) - lng_radius,
+      Math.max( lat0, lat1 ) + lat_radius, Math.max( lng0, lng1 ) + lng_radius );
+
+    for( int i = 0; i < hits; i++ )
+      functionCall.getOutputCollector().add( context.trees[ context.index.getHit( i ) ] );
+    }
+
+  public void cleanup( FlowProcess flowProcess, OperationCall<Context> operationCall )
+    {
+    operationCall.setContext( null );
+    }
+
+  private static double[] grow( double[] array )
+    {
+    double[] grown = new double[ array.length * 2 ];
+    System.arraycopy( array, 0, grown, 0, array.length );
+    return grown;
+    }
+  }
@@ -17,8 +17,7 @@
 
 package org.apache.lucene.spatial.geohash;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * Based on http://en.wikipedia.org/wiki/Geohash
@@ -37,17 +36,31 @@ public class GeoHashUtils {
 							'n','p','q','r','s','t','u','v','w','x',
 							'y','z'} ;
 	
-	private final static Map<Character, Integer> _decodemap = new HashMap<Character, Integer>();
+	// the index of each character in _base32, -1 where undefined
+	private final static int[] _decodetable = new int[128];
 	static {
-		int sz = _base32.length;
-		for (int i = 0; i < sz; i++ ){
-			_decodemap.put(_base32[i], i);
+		Arrays.fill(_decodetable, -1);
+		for (int i = 0; i < _base32.length; i++){
+			_decodetable[_base32[i]] = i;
 		}
 	}
 	
 	private static int precision = 12;
+	public static final int precision_max = 12;
 	private static int[] bits = {16, 8, 4, 2, 1};
 	
+	// the digits decode() rounds to, and the matching powers of ten, by hash length
+	private final static double[] _lat_rounding = new double[precision_max + 1];
+	private final static double[] _lon_rounding = new double[precision_max + 1];
+	static {
+		for (int length = 0; length <= precision_max; length++){
+			double lat_err = 90.0 / (1L << (5 * length / 2));
+			double lon_err = 180.0 / (1L << ((5 * length + 1) / 2));
+			_lat_rounding[length] = Math.pow(10, - (Math.max(1, Math.round(- Math.log10(lat_err))) - 1));
+			_lon_rounding[length] = Math.pow(10, - (Math.max(1, Math.round(- Math.log10(lon_err))) - 1));
+		}
+	}
+	
 	public static void main(String[] args) {
 		GeoHashUtils ghf = new GeoHashUtils();
 		String gc1 = ghf.encode(30, -90.0);
@@ -105,9 +118,111 @@ public class GeoHashUtils {
 		
 		return geohash.toString();
 	}
-	
+
+	/**
+	 * Encodes a point as a geohash of <code>precision</code> characters, packed
+	 * five bits per character into the low bits of a long.
+	 * <p>
+	 * Rather than bisecting double intervals, both coordinates are quantized to
+	 * 32-bit integers and interleaved, longitude first. The result matches the
+	 * leading characters of {@link #encode(double, double)}, even for points
+	 * within an ulp of a cell boundary.
+	 */
+	public static long encodeLong(double latitude, double longitude, int precision){
+		if (precision < 1 || precision > precision_max){
+			throw new IllegalArgumentException("precision must be between 1 and " + precision_max + ": " + precision);
+		}
+
+		long interleaved = (spread(quantize(longitude, 180.0)) << 1) | spread(quantize(latitude, 90.0));
+		return interleaved >>> (64 - 5 * precision);
+	}
+
+	/**
+	 * Writes the base32 form of a hash from {@link #encodeLong(double, double, int)}
+	 * into <code>buffer</code>, so callers can reuse one buffer across points.
+	 * @return the number of characters written
+	 */
+	public static int toBase32(long geohash, int precision, char[] buffer){
+		for (int i = precision - 1; i >= 0; i--){
+			buffer[i] = _base32[(int) (geohash & 0x1f)];
+			geohash >>>= 5;
+		}
+
+		return precision;
+	}
+
+	/**
+	 * Packs a base32 geohash five bits per character, the inverse of
+	 * {@link #toBase32(long, int, char[])}.
+	 * @throws IllegalArgumentException on a character outside the geohash alphabet
+	 */
+	public static long fromBase32(CharSequence geohash){
+		int length = geohash.length();
+
+		if (length > precision_max){
+			throw new IllegalArgumentException("geohash longer than " + precision_max + " characters: " + geohash);
+		}
+
+		long packed = 0L;
+
+		for (int i = 0; i < length; i++){
+			char c = geohash.charAt(i);
+			int cd = c < _decodetable.length ? _decodetable[c] : -1;
+
+			if (cd < 0){
+				throw new IllegalArgumentException("not a geohash: " + geohash);
+			}
+
+			packed = (packed << 5) | cd;
+		}
+
+		return packed;
+	}
+
+	// bit k of the result is set when value lies strictly above the midpoint of the
+	// k-th bisection of [-range, range], mirroring the comparison in encode()
+	private static long quantize(double value, double range){
+		double cell = 2 * range / 4294967296.0;
+		double scaled = Math.ceil((value + range) / cell) - 1;
+
+		if (!(scaled > 0)){
+			scaled = 0;
+		} else if (scaled > 4294967295.0){
+			scaled = 4294967295.0;
+		}
+
+		long index = (long) scaled;
+
+		// value + range may round a point within an ulp of an edge onto it, so settle it
+		// against the edges themselves, which are dyadic and so exact, as encode() does
+		if (index < 4294967295L && value > -range + (index + 1) * cell){
+			index++;
+		} else if (index > 0 && value <= -range + index * cell){
+			index--;
+		}
+
+		return index;
+	}
+
+	// spreads the low 32 bits of x into the even bit positions of a long
+	private static long spread(long x){
+		x &= 0xffffffffL;
+		x = (x | (x << 16)) & 0x0000ffff0000ffffL;
+		x = (x | (x << 8)) & 0x00ff00ff00ff00ffL;
+		x = (x | (x << 4)) & 0x0f0f0f0f0f0f0f0fL;
+		x = (x | (x << 2)) & 0x3333333333333333L;
+		x = (x | (x << 1)) & 0x5555555555555555L;
+		return x;
+	}
+
 	public static double[] decode(String geohash) {
 		double[] ge = decode_exactly(geohash);
+		int length = geohash.length();
+		
+		if (length <= precision_max){
+			return new double[] {round(ge[0], _lat_rounding[length]), round(ge[1], _lon_rounding[length])};
+		}
+		
 		double lat, lon, lat_err, lon_err;
 		lat = ge[0];
 		lon = ge[1];
@@ -124,6 +239,12 @@ public class GeoHashUtils {
 	}
 	
 	public static double[] decode_exactly (String geohash){
+		if (geohash.length() <= precision_max){
+			double[] ge = new double[4];
+			decodeLong(fromBase32(geohash), geohash.length(), ge);
+			return ge;
+		}
+		
 		double[] lat_interval = {-90.0 , 90.0};
 		double[] lon_interval = {-180.0, 180.0};
 		
@@ -135,7 +256,12 @@ public class GeoHashUtils {
 		double latitude, longitude;
 		for (int i = 0; i < sz; i++){
 			
-			int cd = _decodemap.get(geohash.charAt(i));
+			char c = geohash.charAt(i);
+			int cd = c < _decodetable.length ? _decodetable[c] : -1;
+			
+			if (cd < 0){
+				throw new IllegalArgumentException("not a geohash: " + geohash);
+			}
 			
 			for (int z = 0; z< bsz; z++){
 				int mask = bits[z];
@@ -165,6 +291,197 @@ public class GeoHashUtils {
 
 		return new double []{latitude, longitude, lat_err, lon_err};
 	}
+
+	/**
+	 * Decodes a hash from {@link #encodeLong(double, double, int)} into <code>out</code>
+	 * as its center latitude and longitude and their half-widths, the same four values
+	 * {@link #decode_exactly(String)} returns, but without parsing or allocating.
+	 * <p>
+	 * Cell edges are dyadic fractions of the globe, so the result is exact and equal to
+	 * that of {@link #decode_exactly(String)} on the base32 form.
+	 */
+	public static void decodeLong(long geohash, int precision, double[] out){
+		int lat_bits = 5 * precision / 2;
+		int lon_bits = (5 * precision + 1) / 2;
+		double lat_err = 90.0 / (1L << lat_bits);
+		double lon_err = 180.0 / (1L << lon_bits);
+
+		out[0] = -90.0 + (2 * latIndex(geohash, precision) + 1) * lat_err;
+		out[1] = -180.0 + (2 * lonIndex(geohash, precision) + 1) * lon_err;
+		out[2] = lat_err;
+		out[3] = lon_err;
+	}
+
+	/**
+	 * Decodes <code>count</code> hashes of one precision, starting at <code>hashes[offset]</code>,
+	 * writing the center latitude and longitude of each as consecutive pairs from
+	 * <code>out[0]</code>. Every cell of a precision has the same half-widths, which
+	 * {@link #decodeLong(long, int, double[])} gives for any of them.
+	 */
+	public static void decodeLong(long[] hashes, int offset, int count, int precision, double[] out){
+		int lat_bits = 5 * precision / 2;
+		int lon_bits = (5 * precision + 1) / 2;
+		double lat_cell = 180.0 / (1L << lat_bits);
+		double lon_cell = 360.0 / (1L << lon_bits);
+
+		for (int i = 0; i < count; i++){
+			long geohash = hashes[offset + i];
+			out[2 * i] = -90.0 + (latIndex(geohash, precision) + 0.5) * lat_cell;
+			out[2 * i + 1] = -180.0 + (lonIndex(geohash, precision) + 0.5) * lon_cell;
+		}
+	}
+
+	/**
+	 * Writes the corners of a cell into <code>out</code> as its minimum latitude and
+	 * longitude, then its maximum latitude and longitude.
+	 */
+	public static void bounds(long geohash, int precision, double[] out){
+		double lat_cell = 180.0 / (1L << (5 * precision / 2));
+		double lon_cell = 360.0 / (1L << ((5 * precision + 1) / 2));
+		long row = latIndex(geohash, precision);
+		long col = lonIndex(geohash, precision);
+
+		out[0] = -90.0 + row * lat_cell;
+		out[1] = -180.0 + col * lon_cell;
+		out[2] = -90.0 + (row + 1) * lat_cell;
+		out[3] = -180.0 + (col + 1) * lon_cell;
+	}
+
+	/**
+	 * The cell <code>rows</code> cells north and <code>cols</code> cells east of a hash,
+	 * at the same precision. Columns wrap across the antimeridian.
+	 * @return the neighbor, or -1 when it would lie past a pole
+	 */
+	public static long neighbor(long geohash, int precision, int rows, int cols){
+		int lat_bits = 5 * precision / 2;
+		int lon_bits = (5 * precision + 1) / 2;
+		long row = latIndex(geohash, precision) + rows;
+
+		if (row < 0 || row >= (1L << lat_bits)){
+			return -1L;
+		}
+
+		long col = (lonIndex(geohash, precision) + cols) & ((1L << lon_bits) - 1);
+		return interleave(row, col, precision);
+	}
+
+	/**
+	 * Writes the up to 8 cells surrounding a hash into <code>out</code>, row by row from
+	 * the south west; cells past a pole are left out.
+	 * @return the number of neighbors written
+	 */
+	public static int neighbors(long geohash, int precision, long[] out){
+		int count = 0;
+
+		for (int rows = -1; rows <= 1; rows++){
+			for (int cols = -1; cols <= 1; cols++){
+				if (rows == 0 && cols == 0){
+					continue;
+				}
+
+				long next = neighbor(geohash, precision, rows, cols);
+
+				if (next >= 0){
+					out[count++] = next;
+				}
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * Writes the cells of one precision that meet a bounding box into <code>out</code>, row
+	 * by row from the south west. These are the fewest cells of that precision covering
+	 * the box. Latitudes are clamped to the poles, and a box with
+	 * <code>minLongitude</code> below -180 or <code>maxLongitude</code> above 180 wraps
+	 * across the antimeridian.
+	 * @return the number of covering cells, capped at Integer.MAX_VALUE, which may be more
+	 * than <code>out.length</code>, in which case only the first <code>out.length</code> are
+	 * written
+	 */
+	public static int cover(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude, int precision, long[] out){
+		int lat_bits = 5 * precision / 2;
+		int lon_bits = (5 * precision + 1) / 2;
+		double lat_cell = 180.0 / (1L << lat_bits);
+		double lon_cell = 360.0 / (1L << lon_bits);
+		long cols = 1L << lon_bits;
+
+		long row_lo = Math.max(0L, cellIndex(minLatitude + 90.0, lat_cell));
+		long row_hi = Math.min(cellIndex(maxLatitude + 90.0, lat_cell), (1L << lat_bits) - 1);
+		long col_lo = cellIndex(minLongitude + 180.0, lon_cell);
+		long col_hi = cellIndex(maxLongitude + 180.0, lon_cell);
+
+		// a box wider than the globe covers every column once
+		if (col_hi - col_lo >= cols){
+			col_lo = 0;
+			col_hi = cols - 1;
+		}
+
+		if (row_hi < row_lo){
+			return 0;
+		}
+
+		long count = (row_hi - row_lo + 1) * (col_hi - col_lo + 1);
+		int written = 0;
+
+		for (long row = row_lo; row <= row_hi && written < out.length; row++){
+			for (long col = col_lo; col <= col_hi && written < out.length; col++){
+				out[written++] = interleave(row, col & (cols - 1), precision);
+			}
+		}
+
+		return (int) Math.min(count, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Like {@link #cover(double, double, double, double, int, long[])}, for the box
+	 * holding every point within <code>meters</code> of a center, taking a degree of
+	 * latitude as 111320 meters.
+	 */
+	public static int coverRadius(double latitude, double longitude, double meters, int precision, long[] out){
+		double lat_radius = meters / 111320.0;
+		double lon_radius = lat_radius / Math.max(Math.cos(Math.toRadians(latitude)), 1e-6);
+		return cover(latitude - lat_radius, longitude - lon_radius, latitude + lat_radius, longitude + lon_radius, precision, out);
+	}
+
+	// the row or column of the cell holding an offset from the south west corner; like
+	// quantize(), a point on an edge belongs to the cell below it
+	private static long cellIndex(double offset, double cell){
+		return (long) Math.ceil(offset / cell) - 1;
+	}
+
+	private static long latIndex(long geohash, int precision){
+		int bits = 5 * precision;
+		return compact(geohash << (64 - bits)) >>> (32 - bits / 2);
+	}
+
+	private static long lonIndex(long geohash, int precision){
+		int bits = 5 * precision;
+		return compact((geohash << (64 - bits)) >>> 1) >>> (32 - (bits + 1) / 2);
+	}
+
+	private static long interleave(long row, long col, int precision){
+		int bits = 5 * precision;
+		long lat = row << (32 - bits / 2);
+		long lon = col << (32 - (bits + 1) / 2);
+		return ((spread(lon) << 1) | spread(lat)) >>> (64 - bits);
+	}
+
+	// gathers the even bit positions of a long into its low 32 bits, the inverse of spread()
+	private static long compact(long x){
+		x &= 0x5555555555555555L;
+		x = (x | (x >>> 1)) & 0x3333333333333333L;
+		x = (x | (x >>> 2)) & 0x0f0f0f0f0f0f0f0fL;
+		x = (x | (x >>> 4)) & 0x00ff00ff00ff00ffL;
+		x = (x | (x >>> 8)) & 0x0000ffff0000ffffL;
+		x = (x | (x >>> 16)) & 0x00000000ffffffffL;
+		return x;
+	}
+	
+	static double round(double x, double base) {
+		return x - x % base;
+	}
 	
 	static double getPrecision(double x, double precision) {
 		double base = Math.pow(10,- precision);
@@ -0,0 +1,309 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package copa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.lucene.spatial.geohash.GeoHashUtils;
+
+import cascading.flow.FlowConnector;
+import cascading.flow.hadoop.HadoopFlowConnector;
+import cascading.flow.local.LocalFlowConnector;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Runs the copa flows over the sample data in data/ on the Hadoop planner, in standalone mode,
+ * and on the local planner, then checks every sink holds the same records on both. Runs once
+ * with the default options and once for each option that applies on both platforms.
+ * <p>
+ * The sample logs are too even for any cell to be hot, so {@link Main#SALT_HOT_CELLS} runs over
+ * them with the events of their busiest cell repeated, sampling every event, and checks both
+ * platforms found a hot cell to salt.
+ */
+@RunWith(Parameterized.class)
+public class ConnectorParityTest
+  {
+  private static final String[] INPUTS = {"data/min.csv", "data/meta_tree.tsv", "data/meta_road.tsv", "data/gps.csv"};
+  private static final String[] SINKS = {"trap", "tsv", "tree", "road", "park", "shade", "reco"};
+
+  @Parameters(name = "{0}")
+  public static Collection<Object[]> options()
+    {
+    String[] options = {
+      "",
+      "--" + Main.BINARY_GEOHASH,
+      "--" + Main.TREE_INDEX,
+      "--" + Main.DISTANCE + "=segment",
+      "--" + Main.DISTANCE + "=haversine",
+      "--" + Main.BROADCAST_RECO,
+      "--" + Main.RECO_SUMMARY,
+      "--" + Main.INCREMENTAL,
+      "--" + Main.PRUNE_SHUFFLE,
+      "--" + Main.SALT_HOT_CELLS + " --" + Main.HOT_CELL_SAMPLE + "=1",
+      "--" + Main.ADAPTIVE_CELLS,
+      "--" + Main.COMPACT_TRACKS,
+      "--" + Main.PREFILTER_RECO
+    };
+
+    List<Object[]> parameters = new ArrayList<Object[]>();
+
+    for( String option : options )
+      parameters.add( new Object[]{option} );
+
+    return parameters;
+    }
+
+  @Rule
+  public TemporaryFolder out = new TemporaryFolder();
+
+  private final String option;
+
+  public ConnectorParityTest( String option )
+    {
+    this.option = option;
+    }
+
+  @Test
+  public void sinksMatchAcrossPlatforms() throws IOException
+    {
+    File hadoop = out.newFolder( "hadoop" );
+    File local = out.newFolder( "local" );
+    String[] inputs = INPUTS.clone();
+
+    if( option.startsWith( "--" + Main.SALT_HOT_CELLS ) )
+      inputs[ 3 ] = skewedLogs( new File( INPUTS[ 3 ] ), out.newFile( "gps.csv" ), 9 ).getPath();
+
+    run( false, inputs, hadoop );
+    run( true, inputs, local );
+
+    if( option.startsWith( "--" + Main.SALT_HOT_CELLS ) )
+      {
+      assertTrue( "no hot cells on hadoop", hotCells( new File( hadoop, "reco.hot-cells" ) ) > 0 );
+      assertTrue( "no hot cells on local", hotCells( new File( local, "reco.hot-cells" ) ) > 0 );
+      }
+
+    for( String sink : SINKS )
+      {
+      List<String> expected = records( new File( hadoop, sink ) );
+      List<String> actual = records( new File( local, sink ) );
+
+      // only the trap may be empty, when every GIS line parses
+      if( !sink.equals( "trap" ) )
+        assertFalse( sink + " is empty", expected.isEmpty() );
+
+      assertEquals( sink + " differs", expected, actual );
+      }
+    }
+
+  private void run( boolean local, String[] inputs, File dir ) throws IOException
+    {
+    List<String> args = new ArrayList<String>();
+
+    if( !option.isEmpty() )
+      args.addAll( Arrays.asList( option.split( " " ) ) );
+
+    if( local )
+      args.add( "--" + Main.LOCAL );
+
+    args.addAll( Arrays.asList( inputs ) );
+
+    for( String sink : SINKS )
+      args.add( new File( dir, sink ).getPath() );
+
+    Properties properties = new Properties();
+    String[] argv = args.toArray( new String[ args.size() ] );
+    int argc = CopaOptions.parseOptions( argv, properties );
+    CopaOptions options = new CopaOptions( properties );
+    CopaTaps taps = new CopaTaps( options, Arrays.copyOfRange( argv, argc, argv.length ) );
+
+    FlowConnector flowConnector = local ? new LocalFlowConnector( new Properties() ) : new HadoopFlowConnector( new Properties() );
+    Main.complete( options, taps, flowConnector );
+    }
+
+  /** copies the logs, then appends the events of their busiest 6 character cell <code>repeats</code> more times */
+  private static File skewedLogs( File logs, File skewed, int repeats ) throws IOException
+    {
+    List<String> lines = new ArrayList<String>();
+    Map<Long, List<String>> cells = new HashMap<Long, List<String>>();
+    List<String> busiest = Collections.emptyList();
+    BufferedReader reader = new BufferedReader( new FileReader( logs ) );
+
+    try
+      {
+      String line;
+
+      while( ( line = reader.readLine() ) != null )
+        {
+        lines.add( line );
+
+        // skip the header
+        if( lines.size() == 1 )
+          continue;
+
+        String[] fields = line.split( "," );
+        long cell = GeoHashUtils.encodeLong( Double.parseDouble( fields[ 2 ] ), Double.parseDouble( fields[ 3 ] ), 6 );
+        List<String> events = cells.get( cell );
+
+        if( events == null )
+          cells.put( cell, events = new ArrayList<String>() );
+
+        events.add( line );
+
+        if( events.size() > busiest.size() )
+          busiest = events;
+        }
+      }
+    finally
+      {
+      reader.close();
+      }
+
+    Writer writer = new FileWriter( skewed );
+
+    try
+      {
+      for( String line : lines )
+        writer.write( line + "\n" );
+
+      for( int i = 0; i < repeats; i++ )
+        {
+        for( String line : busiest )
+          writer.write( line + "\n" );
+        }
+      }
+    finally
+      {
+      writer.close();
+      }
+
+    return skewed;
+    }
+
+  /** @return how many of the cells counted in a hot cell sample are hot */
+  private static int hotCells( File sample ) throws IOException
+    {
+    List<String> records = records( sample );
+    Map<String, int[]> counts = new HashMap<String, int[]>();
+    long rows = 0;
+
+    // the header, then cell and count
+    for( String record : records.subList( Math.min( 1, records.size() ), records.size() ) )
+      {
+      String[] fields = record.split( "\t" );
+      int count = Integer.parseInt( fields[ fields.length - 1 ] );
+      counts.put( fields[ 0 ], new int[]{count} );
+      rows += count;
+      }
+
+    return HotCellSampler.hotCells( counts, rows, HotCellSampler.HOT_FACTOR ).size();
+    }
+
+  /**
+   * Hadoop writes a directory of part files, each with its own header, while the local planner
+   * writes a single file; keeps the first header and sorts the records after it, as their order
+   * across parts may differ
+   */
+  private static List<String> records( File sink ) throws IOException
+    {
+    List<File> files = new ArrayList<File>();
+
+    // a trap nothing was sent to may not be written at all
+    if( !sink.exists() )
+      return Collections.emptyList();
+
+    if( sink.isDirectory() )
+      {
+      for( File file : sink.listFiles() )
+        {
+        if( file.getName().startsWith( "part-" ) )
+          files.add( file );
+        }
+
+      Collections.sort( files );
+      }
+    else
+      {
+      files.add( sink );
+      }
+
+    String header = null;
+    List<String> records = new ArrayList<String>();
+
+    for( File file : files )
+      {
+      BufferedReader reader = new BufferedReader( new FileReader( file ) );
+
+      try
+        {
+        String line = reader.readLine();
+
+        if( line == null )
+          continue;
+
+        if( header == null )
+          header = line;
+        else if( !line.equals( header ) )
+          records.add( line );
+
+        while( ( line = reader.readLine() ) != null )
+          {
+          if( !line.equals( header ) )
+            records.add( line );
+          }
+        }
+      finally
+        {
+        reader.close();
+        }
+      }
+
+    // a header alone, as either platform may write for an empty sink, holds no records
+    if( records.isEmpty() )
+      return records;
+
+    Collections.sort( records );
+    records.add( 0, header );
+
+    return records;
+    }
+  }
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2007-2013 Concurrent, Inc. All Rights Reserved.
+ *
+ * Project and contact information: http://www.cascading.org/
+ *
+ * This file is part of the Cascading project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package copa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+
+import cascading.flow.FlowDef;
+import cascading.flow.local.LocalFlowConnector;
+import cascading.pipe.CoGroup;
+import cascading.pipe.Pipe;
+import cascading.pipe.joiner.InnerJoin;
+import cascading.tap.SinkMode;
+import cascading.tap.Tap;
+import cascading.tuple.Fields;
+import cascading.tuple.TupleEntryIterator;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that {@link SaltedJoin} gives the same rows as the plain inner CoGroup it replaces in the
+ * reco join, for hot cells, cold cells, and cells with no match on either side.
+ */
+public class SaltedJoinTest
+  {
+  private static final String HOT = "9q9jh0";
+  private static final String[] COLD = {"9q9jh1", "9q9jh2", "9q9jh3", "9q9jh4"};
+
+  @Rule
+  public TemporaryFolder out = new TemporaryFolder();
+
+  @Test
+  public void saltedJoinMatchesCoGroup() throws IOException
+    {
+    Random random = new Random( 42 );
+    File logs = out.newFile( "logs.tsv" );
+    File shade = out.newFile( "shade.tsv" );
+    Writer writer = new FileWriter( logs );
+
+    try
+      {
+      writer.write( "uuid\tgps_geohash\n" );
+
+      // most events in the hot cell, the rest spread over cold cells, one of which has no shade
+      for( int i = 0; i < 1000; i++ )
+        writer.write( "device-" + random.nextInt( 50 ) + "\t" + ( random.nextDouble() < 0.6 ? HOT : COLD[ random.nextInt( COLD.length ) ] ) + "\n" );
+      }
+    finally
+      {
+      writer.close();
+      }
+
+    writer = new FileWriter( shade );
+
+    try
+      {
+      writer.write( "tree_id\ttree_geohash\n" );
+
+      for( int i = 0; i < 5; i++ )
+        writer.write( "hot-" + i + "\t" + HOT + "\n" );
+
+      for( int i = 0; i < COLD.length - 1; i++ )
+        writer.write( "cold-" + i + "\t" + COLD[ i ] + "\n" );
+
+      // a cell without events
+      writer.write( "lonely\t9q9jh9\n" );
+      }
+    finally
+      {
+      writer.close();
+      }
+
+    Set<String> hot = new HashSet<String>();
+    hot.add( HOT );
+
+    List<String> plain = join( logs, shade, new File( out.getRoot(), "plain.tsv" ), null, 1 );
+    List<String> salted = join( logs, shade, new File( out.getRoot(), "salted.tsv" ), hot, 4 );
+
+    assertTrue( "no rows joined", plain.size() > 1000 );
+    assertEquals( plain, salted );
+    }
+
+  // joins the logs to the shade with a plain CoGroup, or a SaltedJoin when given hot cells, and returns the rows sorted
+  private static List<String> join( File logs, File shade, File sink, Set<String> hot, int salts ) throws IOException
+    {
+    Pipe logsPipe = new Pipe( "logs" );
+    Pipe shadePipe = new Pipe( "shade" );
+    Pipe joinPipe;
+
+    if( hot == null )
+      joinPipe = new CoGroup( logsPipe, new Fields( "gps_geohash" ), shadePipe, new Fields( "tree_geohash" ), new InnerJoin() );
+    else
+      joinPipe = new SaltedJoin( logsPipe, "gps_geohash", shadePipe, "tree_geohash", hot, salts );
+
+    Tap sinkTap = CopaTaps.delimitedTap( true, Fields.ALL, "\t", sink.getPath(), SinkMode.REPLACE );
+
+    FlowDef flowDef = FlowDef.flowDef()
+     .addSource( logsPipe, CopaTaps.delimitedTap( true, Fields.ALL, "\t", logs.getPath() ) )
+     .addSource( shadePipe, CopaTaps.delimitedTap( true, Fields.ALL, "\t", shade.getPath() ) )
+     .addTailSink( joinPipe, sinkTap );
+
+    new LocalFlowConnector( new Properties() ).connect( flowDef ).complete();
+
+    List<String> rows = new ArrayList<String>();
+    TupleEntryIterator iterator = CopaTaps.flowProcess( true ).openTapForRead( sinkTap );
+
+    try
+      {
+      while( iterator.hasNext() )
+        rows.add( iterator.next().getTuple().toString() );
+      }
+    finally
+      {
+      iterator.close();
+      }
+
+    Collections.sort( rows );
+
+    return rows;
+    }
+  }
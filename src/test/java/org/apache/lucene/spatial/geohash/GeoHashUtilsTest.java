@@ -0,0 +1,286 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.lucene.spatial.geohash;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Checks the packed long paths of {@link GeoHashUtils} against the original string
+ * paths: {@link GeoHashUtils#encode(double, double)}, and a bisecting decoder that
+ * mirrors the original {@link GeoHashUtils#decode_exactly(String)}.
+ */
+public class GeoHashUtilsTest {
+
+	private static final int POINTS = 200000;
+
+	@Test
+	public void encodeLongMatchesEncodeAtRandomPoints() {
+		Random random = new Random(42);
+
+		for (int i = 0; i < POINTS; i++){
+			double lat = random.nextDouble() * 180.0 - 90.0;
+			double lon = random.nextDouble() * 360.0 - 180.0;
+			assertEncodes(lat, lon);
+		}
+	}
+
+	@Test
+	public void encodeLongMatchesEncodeOnCellEdges() {
+		Random random = new Random(7);
+
+		for (int precision = 1; precision <= GeoHashUtils.precision_max; precision++){
+			long lat_cells = 1L << (5 * precision / 2);
+			long lon_cells = 1L << ((5 * precision + 1) / 2);
+
+			for (int i = 0; i < 2000; i++){
+				double lat = -90.0 + (long) (random.nextDouble() * lat_cells) * (180.0 / lat_cells);
+				double lon = -180.0 + (long) (random.nextDouble() * lon_cells) * (360.0 / lon_cells);
+				assertEncodes(lat, lon);
+				assertEncodes(lat, Math.nextUp(lon));
+				assertEncodes(Math.nextUp(lat), lon);
+			}
+		}
+	}
+
+	@Test
+	public void encodeLongMatchesEncodeAtPolesAndAntimeridian() {
+		double[] lats = {-90.0, 90.0, 0.0, -0.0, Math.nextUp(-90.0), Math.nextAfter(90.0, 0.0)};
+		double[] lons = {-180.0, 180.0, 0.0, -0.0, Math.nextUp(-180.0), Math.nextAfter(180.0, 0.0)};
+
+		for (double lat : lats){
+			for (double lon : lons){
+				assertEncodes(lat, lon);
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void encodeLongRejectsPrecisionOverTwelve() {
+		GeoHashUtils.encodeLong(0.0, 0.0, 13);
+	}
+
+	@Test
+	public void base32RoundTrips() {
+		Random random = new Random(3);
+		char[] buffer = new char[GeoHashUtils.precision_max];
+
+		for (int i = 0; i < 10000; i++){
+			String geohash = GeoHashUtils.encode(random.nextDouble() * 180.0 - 90.0, random.nextDouble() * 360.0 - 180.0);
+
+			for (int precision = 1; precision <= GeoHashUtils.precision_max; precision++){
+				String prefix = geohash.substring(0, precision);
+				long packed = GeoHashUtils.fromBase32(prefix);
+				GeoHashUtils.toBase32(packed, precision, buffer);
+				assertEquals(prefix, new String(buffer, 0, precision));
+			}
+		}
+	}
+
+	@Test
+	public void decodeMatchesBisection() {
+		Random random = new Random(11);
+		double[] cell = new double[4];
+		long[] hashes = new long[1];
+		double[] pairs = new double[2];
+
+		for (int i = 0; i < 20000; i++){
+			String geohash = GeoHashUtils.encode(random.nextDouble() * 180.0 - 90.0, random.nextDouble() * 360.0 - 180.0);
+
+			for (int precision = 1; precision <= GeoHashUtils.precision_max; precision++){
+				String prefix = geohash.substring(0, precision);
+				double[] expected = bisect(prefix);
+				double[] exactly = GeoHashUtils.decode_exactly(prefix);
+
+				for (int k = 0; k < 4; k++){
+					assertEquals(prefix, expected[k], exactly[k], 0.0);
+				}
+
+				hashes[0] = GeoHashUtils.fromBase32(prefix);
+				GeoHashUtils.decodeLong(hashes[0], precision, cell);
+				GeoHashUtils.decodeLong(hashes, 0, 1, precision, pairs);
+
+				for (int k = 0; k < 4; k++){
+					assertEquals(prefix, expected[k], cell[k], 0.0);
+				}
+
+				assertEquals(prefix, expected[0], pairs[0], 0.0);
+				assertEquals(prefix, expected[1], pairs[1], 0.0);
+
+				GeoHashUtils.bounds(hashes[0], precision, cell);
+				assertEquals(prefix, expected[0] - expected[2], cell[0], 0.0);
+				assertEquals(prefix, expected[1] - expected[3], cell[1], 0.0);
+				assertEquals(prefix, expected[0] + expected[2], cell[2], 0.0);
+				assertEquals(prefix, expected[1] + expected[3], cell[3], 0.0);
+			}
+		}
+	}
+
+	@Test
+	public void neighborMatchesEncodeOfTheAdjacentCenter() {
+		Random random = new Random(5);
+		double[] cell = new double[4];
+		long[] neighbors = new long[8];
+
+		for (int i = 0; i < 20000; i++){
+			// bias towards the poles and the antimeridian, where neighbors are clipped or wrap
+			double lat = i % 4 == 0 ? 89.9 * Math.signum(random.nextDouble() - 0.5) : random.nextDouble() * 180.0 - 90.0;
+			double lon = i % 4 == 1 ? 179.99 * Math.signum(random.nextDouble() - 0.5) : random.nextDouble() * 360.0 - 180.0;
+			int precision = 1 + random.nextInt(GeoHashUtils.precision_max);
+			long geohash = GeoHashUtils.encodeLong(lat, lon, precision);
+			GeoHashUtils.decodeLong(geohash, precision, cell);
+			Set<Long> expected = new HashSet<Long>();
+
+			for (int rows = -1; rows <= 1; rows++){
+				for (int cols = -1; cols <= 1; cols++){
+					double next_lat = cell[0] + 2 * rows * cell[2];
+					double next_lon = cell[1] + 2 * cols * cell[3];
+
+					if (next_lon > 180.0){
+						next_lon -= 360.0;
+					} else if (next_lon < -180.0){
+						next_lon += 360.0;
+					}
+
+					long next = Math.abs(next_lat) > 90.0 ? -1L : prefix(next_lat, next_lon, precision);
+					assertEquals(next, GeoHashUtils.neighbor(geohash, precision, rows, cols));
+
+					if (next >= 0 && (rows != 0 || cols != 0)){
+						expected.add(next);
+					}
+				}
+			}
+
+			int count = GeoHashUtils.neighbors(geohash, precision, neighbors);
+			Set<Long> actual = new HashSet<Long>();
+
+			for (int k = 0; k < count; k++){
+				actual.add(neighbors[k]);
+			}
+
+			// at precision 1 a cell's east and west neighbors may coincide
+			assertEquals(expected, actual);
+		}
+	}
+
+	@Test
+	public void coverMatchesEncodeOfPointsInTheBox() {
+		Random random = new Random(9);
+		long[] out = new long[4096];
+
+		for (int i = 0; i < 3000; i++){
+			int precision = 1 + random.nextInt(8);
+			double lat_cell = 180.0 / (1L << (5 * precision / 2));
+			double lon_cell = 360.0 / (1L << ((5 * precision + 1) / 2));
+			double min_lat = random.nextDouble() * 180.0 - 90.0;
+			double min_lon = random.nextDouble() * 360.0 - 180.0;
+			double max_lat = Math.min(90.0, min_lat + random.nextDouble() * 6 * lat_cell);
+			double max_lon = min_lon + random.nextDouble() * 6 * lon_cell;
+
+			// snap some boxes to cell edges, which belong to the cell below
+			if (i % 3 == 0){
+				min_lat = -90.0 + Math.floor((min_lat + 90.0) / lat_cell) * lat_cell;
+				max_lon = -180.0 + Math.ceil((max_lon + 180.0) / lon_cell) * lon_cell;
+			}
+
+			Set<Long> expected = new HashSet<Long>();
+
+			for (double lat = min_lat; ; lat = Math.min(lat + lat_cell / 2, max_lat)){
+				for (double lon = min_lon; ; lon = Math.min(lon + lon_cell / 2, max_lon)){
+					expected.add(prefix(lat, lon > 180.0 ? lon - 360.0 : lon, precision));
+
+					if (lon == max_lon){
+						break;
+					}
+				}
+
+				if (lat == max_lat){
+					break;
+				}
+			}
+
+			int count = GeoHashUtils.cover(min_lat, min_lon, max_lat, max_lon, precision, out);
+			Set<Long> actual = new HashSet<Long>();
+
+			for (int k = 0; k < count; k++){
+				actual.add(out[k]);
+			}
+
+			assertEquals(count, actual.size());
+			assertEquals(expected, actual);
+		}
+	}
+
+	@Test
+	public void coverReportsCellsBeyondTheBuffer() {
+		long[] out = new long[4];
+		int count = GeoHashUtils.cover(37.0, -123.0, 38.0, -122.0, 5, out);
+
+		assertTrue(count > out.length);
+		assertEquals(GeoHashUtils.encodeLong(37.0, -123.0, 5), out[0]);
+	}
+
+	private static void assertEncodes(double lat, double lon) {
+		String geohash = GeoHashUtils.encode(lat, lon);
+		char[] buffer = new char[GeoHashUtils.precision_max];
+
+		for (int precision = 1; precision <= GeoHashUtils.precision_max; precision++){
+			long packed = GeoHashUtils.encodeLong(lat, lon, precision);
+			GeoHashUtils.toBase32(packed, precision, buffer);
+			assertEquals(lat + "," + lon, geohash.substring(0, precision), new String(buffer, 0, precision));
+		}
+	}
+
+	private static long prefix(double lat, double lon, int precision) {
+		return GeoHashUtils.fromBase32(GeoHashUtils.encode(lat, lon).substring(0, precision));
+	}
+
+	// the original decode_exactly(), bisecting the intervals one bit at a time
+	private static double[] bisect(String geohash) {
+		String base32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+		double[] lat_interval = {-90.0, 90.0};
+		double[] lon_interval = {-180.0, 180.0};
+		double lat_err = 90.0;
+		double lon_err = 180.0;
+		boolean is_even = true;
+
+		for (int i = 0; i < geohash.length(); i++){
+			int cd = base32.indexOf(geohash.charAt(i));
+
+			for (int mask = 16; mask > 0; mask >>= 1){
+				if (is_even){
+					lon_err /= 2;
+					lon_interval[(cd & mask) != 0 ? 0 : 1] = (lon_interval[0] + lon_interval[1]) / 2;
+				} else {
+					lat_err /= 2;
+					lat_interval[(cd & mask) != 0 ? 0 : 1] = (lat_interval[0] + lat_interval[1]) / 2;
+				}
+
+				is_even = !is_even;
+			}
+		}
+
+		return new double[] {(lat_interval[0] + lat_interval[1]) / 2, (lon_interval[0] + lon_interval[1]) / 2, lat_err, lon_err};
+	}
+}